@@ -0,0 +1,106 @@
+package bench;
+
+import interpreter.Interpreter;
+import interpreter.Resolver;
+import language.Statement;
+import parser.Parser;
+import scanner.Lexer;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Measures how many bytes the tree-walking interpreter allocates per iteration of a few <code>while</code> loops,
+ * and how many boxed numbers that makes:
+ * <br />
+ * - <code>arithmetic</code>: two variables updated with arithmetic, which allocates nothing.
+ * <br />
+ * - <code>counter</code>: a single variable stored at every iteration, <code>i = i + 1;</code>, which allocates
+ * nothing either, since numbers are stored unboxed.
+ * <br />
+ * - <code>copy</code>: the same loop also copying the counter into another variable, <code>x = i;</code>, which
+ * boxes the counter once per iteration: the only garbage left when a stored number is read as an object.
+ * <br />
+ * - <code>call</code>: a function with 4 parameters called with the counter, which is boxed once for the 4 of them.
+ * <br />
+ * <br />
+ * The loop is run twice with a different number of iterations, and the difference in
+ * allocated bytes is divided by the difference in iterations, so that the cost of
+ * lexing, parsing and warming up cancels out.
+ * <br />
+ * <br />
+ * Usage: <code>gradle :benchmarks:allocations [-Piterations=N]</code>
+ */
+public class AllocationBenchmark {
+    private static final String ARITHMETIC = """
+            let mut i = 0;
+            let mut x = 0;
+            while i < %d { x = x + (i * 3 + 1) %% 7 - i / 2; i = i + 1; }
+            """;
+    private static final String COUNTER = """
+            let mut i = 0;
+            while i < %d { i = i + 1; }
+            """;
+    private static final String COPY = """
+            let mut i = 0;
+            let mut x = 0;
+            while i < %d { x = i; i = i + 1; }
+            """;
+    private static final String CALL = """
+            fn first(a, b, c, d) { return a; }
+            let mut i = 0;
+            while i < %d { first(i, i, i, i); i = i + 1; }
+            """;
+
+    public static void main(String[] args) {
+        long iterations = args.length > 0 ? Long.parseLong(args[0]) : 5_000_000;
+        double box = boxSize();
+
+        measure("arithmetic", ARITHMETIC, iterations, box);
+        measure("counter", COUNTER, iterations, box);
+        measure("copy", COPY, iterations, box);
+        measure("call", CALL, iterations, box);
+    }
+
+    private static void measure(String name, String program, long iterations, double box) {
+        // Warm up, so that the JIT can remove what it is able to.
+        run(program, iterations);
+
+        long small = run(program, iterations);
+        long large = run(program, iterations * 2);
+        double perIteration = (double) (large - small) / iterations;
+
+        System.out.printf("%s: %.1f bytes allocated per iteration, %.2f boxes%n", name, perIteration,
+                perIteration / box);
+    }
+
+    /**
+     * @return The number of bytes allocated by the current thread while running the loop.
+     */
+    private static long run(String program, long iterations) {
+        List<Statement> statements = new Parser(new Lexer(program.formatted(iterations))).parse();
+        Interpreter interpreter = new Interpreter();
+        new Resolver(interpreter).resolve(statements);
+
+        long before = allocated();
+        interpreter.interpret(statements);
+        return allocated() - before;
+    }
+
+    /**
+     * @return The size of a boxed number on this JVM, measured like the loops.
+     */
+    private static double boxSize() {
+        Object[] boxes = new Object[100_000];
+        long before = allocated();
+        for (int i = 0; i < boxes.length; i++) {
+            boxes[i] = (double) i;
+        }
+        return (double) (allocated() - before) / boxes.length;
+    }
+
+    private static long allocated() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,78 @@
+package bench;
+
+import interpreter.CompactInterpreter;
+import interpreter.Input;
+import interpreter.Interpreter;
+import interpreter.Output;
+import interpreter.Resolver;
+import language.CompactEncoder;
+import language.CompactTree;
+import language.Statement;
+import optimizer.Optimizer;
+import optimizer.PurityAnalysis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.Parser;
+import scanner.Lexer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time the programs of the corpus take in the tree-walker, and in the interpreter of their
+ * {@link CompactTree}. The programs are resolved and encoded once, and every run starts with a new interpreter
+ * (whose builtins are in the same slots).
+ *
+ * @see FootprintBenchmark for the memory the two representations take.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompactTreeBenchmark {
+    @Param({"arithmetic", "exponential_for", "hanoi", "nested_blocks"})
+    public String program;
+
+    @Param({"tree", "compact"})
+    public String engine;
+
+    private List<Statement> statements;
+    private CompactTree tree;
+
+    @Setup
+    public void setup() {
+        statements = new Parser(new Lexer(Corpus.read(program))).parse();
+        Interpreter interpreter = new Interpreter();
+        new Resolver(interpreter).resolve(statements);
+        new PurityAnalysis().analyze(statements, false);
+        statements = new Optimizer().optimize(statements);
+        tree = new CompactEncoder().encode(statements);
+    }
+
+    @Benchmark
+    public boolean interpret() {
+        Input input = new Input(InputStream.nullInputStream(), Input.DEFAULT_CAPACITY);
+        Output output = new Output(OutputStream.nullOutputStream(), Output.DEFAULT_CAPACITY, false);
+        if (engine.equals("compact")) {
+            CompactInterpreter interpreter = new CompactInterpreter(input, output);
+            interpreter.interpret(tree);
+            return interpreter.isHadError();
+        }
+        Interpreter interpreter = new Interpreter(input, output);
+        interpreter.interpret(statements);
+        return interpreter.isHadError();
+    }
+}
@@ -0,0 +1,70 @@
+package bench;
+
+import engine.CompiledScript;
+import engine.FunEngine;
+import engine.ScriptException;
+import engine.ScriptResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many executions of one {@link CompiledScript} per second a single thread does, and all the
+ * threads of the machine together. Executions share nothing but the syntax tree, so the second should be
+ * about as many times the first as there are cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrentExecutionBenchmark {
+    /**
+     * A short program, like a service would run on every request, with a global given by the caller.
+     */
+    private static final String SCRIPT = """
+            fn score(x, depth) {
+                if depth == 0 {
+                    return x;
+                }
+                return score(x * 1.01 + 1, depth - 1) + 1;
+            }
+
+            let mut total = 0;
+            for i from 0 to 200 {
+                total = total + score(base + i, 10);
+            }
+            show total;
+            """;
+
+    private CompiledScript script;
+
+    @Setup
+    public void setup() throws ScriptException {
+        script = new FunEngine().compile(SCRIPT);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ScriptResult oneThread() {
+        return script.execute(Map.of("base", 3));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public ScriptResult allThreads() {
+        return script.execute(Map.of("base", 3));
+    }
+}
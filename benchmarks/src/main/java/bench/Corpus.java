@@ -0,0 +1,44 @@
+package bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The representative programs the benchmarks run, from the <code>corpus</code> resources.
+ */
+final class Corpus {
+    static final String[] PROGRAMS = {"arithmetic", "exponential_for", "hanoi", "nested_blocks", "show_output"};
+
+    private Corpus() {
+    }
+
+    /**
+     * @param name The name of a program, without the <code>.fun</code> extension.
+     * @return The source code of the program.
+     */
+    static String read(String name) {
+        try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name + ".fun")) {
+            if (in == null) {
+                throw new IllegalArgumentException("No program `" + name + "` in the corpus.");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return All the programs of the corpus, one after the other, repeated until they reach <code>size</code> characters.
+     */
+    static String concatenated(int size) {
+        StringBuilder source = new StringBuilder(size + 4096);
+        while (source.length() < size) {
+            for (String program : PROGRAMS) {
+                source.append(read(program)).append('\n');
+            }
+        }
+        return source.toString();
+    }
+}
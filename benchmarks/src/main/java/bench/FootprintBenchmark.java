@@ -0,0 +1,94 @@
+package bench;
+
+import interpreter.Interpreter;
+import interpreter.Resolver;
+import language.CompactEncoder;
+import language.CompactTree;
+import language.Statement;
+import parser.Parser;
+import scanner.Lexer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.util.List;
+
+/**
+ * Measures how many bytes a node takes in the syntax tree made of objects, and in its {@link CompactTree},
+ * on a program made of the corpus repeated until it is large (it isn't run). {@link CompactTreeBenchmark} measures how long
+ * they take to run.
+ * <br />
+ * <br />
+ * The memory is what is left on the heap after a full collection, so the tree made of objects is counted with
+ * its tokens, and the compact tree with its pools. The source and the interpreter the program is resolved against
+ * stay reachable the whole time, and the empty heap is measured last, once both trees are dropped, so that
+ * only the trees make the difference with it. Both are divided
+ * by the number of nodes of the tree made of objects (see {@link NodeCounter}). The compact tree drops the
+ * groupings, but gives assignments a node for their variable.
+ * <br />
+ * <br />
+ * Usage: <code>gradle :benchmarks:footprint [-Psize=N]</code>, with the size of the program in characters.
+ */
+public class FootprintBenchmark {
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+        String source = program(size);
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        Interpreter interpreter = new Interpreter();
+        // A first pass loads and initializes everything the measured one needs.
+        new CompactEncoder().encode(parse(source, interpreter));
+
+        List<Statement> statements = parse(source, interpreter);
+        long objects = used(memory);
+        int nodes = NodeCounter.count(statements);
+
+        CompactTree tree = new CompactEncoder().encode(statements);
+        statements = null;
+        long compact = used(memory);
+        int count = tree.count();
+        long arrays = tree.bytes();
+
+        tree = null;
+        long empty = used(memory);
+        Reference.reachabilityFence(source);
+        Reference.reachabilityFence(interpreter);
+
+        objects -= empty;
+        compact -= empty;
+        System.out.printf("%d nodes, %d in the compact tree%n", nodes, count);
+        System.out.printf("objects: %.1f bytes per node%n", (double) objects / nodes);
+        System.out.printf("compact: %.1f bytes per node, %.1f of them in its arrays%n",
+                (double) compact / nodes, (double) arrays / nodes);
+    }
+
+    private static List<Statement> parse(String source, Interpreter interpreter) {
+        List<Statement> statements = new Parser(new Lexer(source)).parse();
+        new Resolver(interpreter).resolve(statements);
+        return statements;
+    }
+
+    /**
+     * @return The programs of the corpus, each in a block of its own so that their variables don't clash, repeated
+     *         until they reach <code>size</code> characters.
+     */
+    private static String program(int size) {
+        StringBuilder source = new StringBuilder(size + 4096);
+        while (source.length() < size) {
+            for (String program : Corpus.PROGRAMS) {
+                source.append("{\n").append(Corpus.read(program)).append("\n}\n");
+            }
+        }
+        return source.toString();
+    }
+
+    /**
+     * @return The bytes used on the heap once everything unreachable is collected.
+     */
+    private static long used(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,79 @@
+package bench;
+
+import interpreter.Input;
+import interpreter.Interpreter;
+import interpreter.Output;
+import interpreter.Resolver;
+import language.Statement;
+import optimizer.Optimizer;
+import optimizer.PurityAnalysis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.Parser;
+import scanner.Lexer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time a <code>for</code> loop of 10<sup>8</sup> iterations takes in the tree-walker, when its body
+ * doesn't read the counter, when it does, and when the counter moves by a step which isn't constant.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ForLoopBenchmark {
+    private static final Map<String, String> PROGRAMS = Map.of(
+            "counter_unused", """
+                    let mut s = 0;
+                    for i from 1 to 100000000 { s = s + 1; }
+                    """,
+            "counter_read", """
+                    let mut s = 0;
+                    for i from 1 to 100000000 { s = s + i; }
+                    """,
+            "step_variable", """
+                    let mut s = 0;
+                    let mut k = 1;
+                    for i from 1 to 100000000 by k { s = s + 1; }
+                    """);
+
+    @Param({"counter_unused", "counter_read", "step_variable"})
+    public String program;
+
+    private List<Statement> statements;
+
+    @Setup
+    public void setup() {
+        statements = new Parser(new Lexer(PROGRAMS.get(program))).parse();
+        Interpreter interpreter = new Interpreter();
+        new Resolver(interpreter).resolve(statements);
+        new PurityAnalysis().analyze(statements, false);
+        statements = new Optimizer().optimize(statements);
+    }
+
+    @Benchmark
+    public boolean interpret() {
+        Input input = new Input(InputStream.nullInputStream(), Input.DEFAULT_CAPACITY);
+        Output output = new Output(OutputStream.nullOutputStream(), Output.DEFAULT_CAPACITY, false);
+        Interpreter interpreter = new Interpreter(input, output);
+        new Resolver(interpreter).resolve(statements);
+        interpreter.interpret(statements);
+        return interpreter.isHadError();
+    }
+}
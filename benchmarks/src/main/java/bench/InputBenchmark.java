@@ -0,0 +1,90 @@
+package bench;
+
+import interpreter.Input;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading numbers with {@link Scanner#nextDouble()}, which <code>get</code> used to use, with
+ * {@link Input#next()}, and with {@link Input#next(double[], int, int)} which reads them in batches.
+ * The input is made of integers and decimals, one per line.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InputBenchmark {
+    private static final int NUMBERS = 100_000;
+    private static final int BATCH = 1024;
+
+    private byte[] input;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < NUMBERS; i++) {
+            if (i % 2 == 0) {
+                text.append(random.nextInt(1_000_000));
+            } else {
+                text.append(random.nextInt(1_000_000) / 1000.0);
+            }
+            text.append('\n');
+        }
+        input = text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUMBERS)
+    public double scanner() {
+        Scanner scanner = new Scanner(new ByteArrayInputStream(input));
+        double sum = 0;
+        for (int i = 0; i < NUMBERS; i++) {
+            sum += scanner.nextDouble();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUMBERS)
+    public double input() {
+        Input reader = new Input(new ByteArrayInputStream(input), Input.DEFAULT_CAPACITY);
+        double sum = 0;
+        for (int i = 0; i < NUMBERS; i++) {
+            sum += reader.next();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUMBERS)
+    public double batch() {
+        Input reader = new Input(new ByteArrayInputStream(input), Input.DEFAULT_CAPACITY);
+        double[] numbers = new double[BATCH];
+        double sum = 0;
+        int read;
+        while ((read = reader.next(numbers, 0, BATCH)) > 0) {
+            for (int i = 0; i < read; i++) {
+                sum += numbers[i];
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,66 @@
+package bench;
+
+import interpreter.Input;
+import interpreter.Interpreter;
+import interpreter.Output;
+import interpreter.Resolver;
+import language.Statement;
+import optimizer.Optimizer;
+import optimizer.PurityAnalysis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.Parser;
+import scanner.Lexer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time the tree-walking interpreter takes to run each program of the corpus.
+ * <br />
+ * <br />
+ * Programs are parsed, analyzed and optimized once, like <code>Main</code> does. Each run resolves them
+ * against a new interpreter, whose output is thrown away.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InterpreterBenchmark {
+    @Param({"arithmetic", "exponential_for", "hanoi", "nested_blocks", "show_output"})
+    public String program;
+
+    private List<Statement> statements;
+
+    @Setup
+    public void setup() {
+        statements = new Parser(new Lexer(Corpus.read(program))).parse();
+        Interpreter interpreter = new Interpreter();
+        new Resolver(interpreter).resolve(statements);
+        new PurityAnalysis().analyze(statements, false);
+        statements = new Optimizer().optimize(statements);
+    }
+
+    @Benchmark
+    public boolean interpret() {
+        Interpreter interpreter = new Interpreter(
+                new Input(InputStream.nullInputStream(), Input.DEFAULT_CAPACITY),
+                new Output(OutputStream.nullOutputStream(), Output.DEFAULT_CAPACITY, false));
+        new Resolver(interpreter).resolve(statements);
+        interpreter.interpret(statements);
+        return interpreter.isHadError();
+    }
+}
@@ -0,0 +1,70 @@
+package bench;
+
+import interpreter.Input;
+import interpreter.Interpreter;
+import interpreter.JitInterpreter;
+import interpreter.Output;
+import interpreter.Resolver;
+import language.Statement;
+import optimizer.Optimizer;
+import optimizer.PurityAnalysis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.Parser;
+import scanner.Lexer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time the programs of the corpus doing arithmetic take in the tree-walker, and with the
+ * functions and loops which get hot compiled to bytecode. Every run starts with a new interpreter, so the
+ * time to get hot and to compile is counted.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JitBenchmark {
+    @Param({"arithmetic", "exponential_for", "nested_blocks"})
+    public String program;
+
+    @Param({"tree", "jit"})
+    public String engine;
+
+    private List<Statement> statements;
+
+    @Setup
+    public void setup() {
+        statements = new Parser(new Lexer(Corpus.read(program))).parse();
+        Interpreter interpreter = new Interpreter();
+        new Resolver(interpreter).resolve(statements);
+        new PurityAnalysis().analyze(statements, false);
+        statements = new Optimizer().optimize(statements);
+    }
+
+    @Benchmark
+    public boolean interpret() {
+        Input input = new Input(InputStream.nullInputStream(), Input.DEFAULT_CAPACITY);
+        Output output = new Output(OutputStream.nullOutputStream(), Output.DEFAULT_CAPACITY, false);
+        Interpreter interpreter = engine.equals("jit")
+                ? new JitInterpreter(input, output)
+                : new Interpreter(input, output);
+        new Resolver(interpreter).resolve(statements);
+        interpreter.interpret(statements);
+        return interpreter.isHadError();
+    }
+}
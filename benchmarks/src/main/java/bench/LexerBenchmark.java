@@ -0,0 +1,61 @@
+package bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scanner.Lexer;
+import scanner.Token;
+import scanner.TokenType;
+
+/**
+ * Measures how fast the lexer turns source code into tokens, in megabytes of source per second
+ * (the <code>megabytes</code> secondary result), over about 1MB made of the corpus programs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LexerBenchmark {
+    private static final int SIZE = 1 << 20;
+
+    private String source;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public double megabytes;
+    }
+
+    @Setup
+    public void setup() {
+        source = Corpus.concatenated(SIZE);
+    }
+
+    @Benchmark
+    public int scanTokens(Counters counters) {
+        int count = new Lexer(source).scanTokens().size();
+        counters.megabytes += source.length() / 1e6;
+        return count;
+    }
+
+    @Benchmark
+    public int nextToken(Counters counters) {
+        Lexer lexer = new Lexer(source);
+        int count = 0;
+        Token token;
+        do {
+            token = lexer.nextToken();
+            count++;
+        } while (token.type != TokenType.EOF);
+        counters.megabytes += source.length() / 1e6;
+        return count;
+    }
+}
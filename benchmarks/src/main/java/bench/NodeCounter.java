@@ -0,0 +1,136 @@
+package bench;
+
+import language.Expression;
+import language.Statement;
+
+import java.util.List;
+
+/**
+ * Counts the nodes of a syntax tree, so that parsing can be measured in nodes per second.
+ */
+final class NodeCounter implements Expression.Visitor<Integer>, Statement.Visitor<Integer> {
+    static int count(List<Statement> statements) {
+        NodeCounter counter = new NodeCounter();
+        int count = 0;
+        for (Statement statement : statements) {
+            count += statement.accept(counter);
+        }
+        return count;
+    }
+
+    private int count(Expression expression) {
+        return expression == null ? 0 : expression.accept(this);
+    }
+
+    private int count(Statement statement) {
+        return statement == null ? 0 : statement.accept(this);
+    }
+
+    @Override
+    public Integer visitExpressionStatement(Statement.ExpressionStatement expressionStatement) {
+        return 1 + count(expressionStatement.expression);
+    }
+
+    @Override
+    public Integer visitPrintStatement(Statement.PrintStatement printStatement) {
+        int count = 1;
+        for (Expression expression : printStatement.expressions) {
+            count += count(expression);
+        }
+        return count;
+    }
+
+    @Override
+    public Integer visitVariableDeclarationStatement(Statement.VariableDeclaration variableDeclaration) {
+        return 1 + count(variableDeclaration.expression);
+    }
+
+    @Override
+    public Integer visitBlockStatement(Statement.Block blockStatement) {
+        int count = 1;
+        for (Statement statement : blockStatement.statements) {
+            count += count(statement);
+        }
+        return count;
+    }
+
+    @Override
+    public Integer visitIfStatement(Statement.IfStatement ifStatement) {
+        return 1 + count(ifStatement.condition) + count(ifStatement.thenBranch) + count(ifStatement.elseBranch);
+    }
+
+    @Override
+    public Integer visitWhileStatement(Statement.WhileStatement whileStatement) {
+        return 1 + count(whileStatement.condition) + count(whileStatement.body);
+    }
+
+    @Override
+    public Integer visitForStatement(Statement.ForStatement forStatement) {
+        return 1 + count(forStatement.lower) + count(forStatement.higher) + count(forStatement.step)
+                + count(forStatement.body);
+    }
+
+    @Override
+    public Integer visitFunctionDeclarationStatement(Statement.FunctionDeclaration functionDeclarationStatement) {
+        return 1 + count(functionDeclarationStatement.body);
+    }
+
+    @Override
+    public Integer visitReturnStatement(Statement.ReturnStatement returnStatement) {
+        return 1 + count(returnStatement.value);
+    }
+
+    @Override
+    public Integer visitBinaryExpression(Expression.Binary expression) {
+        return 1 + count(expression.left) + count(expression.right);
+    }
+
+    @Override
+    public Integer visitUnaryExpression(Expression.Unary expression) {
+        return 1 + count(expression.right);
+    }
+
+    @Override
+    public Integer visitLiteralExpression(Expression.Literal expression) {
+        return 1;
+    }
+
+    @Override
+    public Integer visitGetExpression(Expression.Get expression) {
+        return 1;
+    }
+
+    @Override
+    public Integer visitGroupingExpression(Expression.Grouping expression) {
+        return 1 + count(expression.expression);
+    }
+
+    @Override
+    public Integer visitVariableExpression(Expression.Variable expression) {
+        return 1;
+    }
+
+    @Override
+    public Integer visitAssignmentExpression(Expression.Assignment expression) {
+        return 1 + count(expression.expression);
+    }
+
+    @Override
+    public Integer visitLogicalExpression(Expression.Logical expression) {
+        return 1 + count(expression.left) + count(expression.right);
+    }
+
+    @Override
+    public Integer visitCallExpression(Expression.Call expression) {
+        int count = 1 + count(expression.callee);
+        for (Expression argument : expression.arguments) {
+            count += count(argument);
+        }
+        return count;
+    }
+
+    @Override
+    public Integer visitInvariantExpression(Expression.Invariant expression) {
+        return 1 + count(expression.expression);
+    }
+}
@@ -0,0 +1,75 @@
+package bench;
+
+import interpreter.NumberFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares printing numbers with {@link NumberFormatter}, and with {@link Double#toString(double)} followed by
+ * removing a trailing <code>.0</code>, which is how the interpreter used to print them.
+ * Run with <code>-prof gc</code> to see the allocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NumberFormatBenchmark {
+    private static final int VALUES = 1024;
+
+    @Param({"integers", "decimals", "any"})
+    public String kind;
+
+    private final double[] values = new double[VALUES];
+    private final byte[] buffer = new byte[NumberFormatter.MAX_LENGTH];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = switch (kind) {
+                case "integers" -> random.nextInt(10_000_000) - 5_000_000;
+                case "decimals" -> random.nextInt(1_000_000) / 100.0;
+                default -> Double.longBitsToDouble(random.nextLong() & ~(1L << 62));
+            };
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int formatter() {
+        int length = 0;
+        for (double value : values) {
+            length += NumberFormatter.format(value, buffer, 0);
+        }
+        return length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int toStringTrimmed() {
+        int length = 0;
+        for (double value : values) {
+            String text = Double.toString(value);
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            length += text.length();
+        }
+        return length;
+    }
+}
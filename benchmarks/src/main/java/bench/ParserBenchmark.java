@@ -0,0 +1,53 @@
+package bench;
+
+import language.Statement;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.Parser;
+import scanner.Lexer;
+
+import java.util.List;
+
+/**
+ * Measures how fast the parser builds syntax trees, in nodes per second (the <code>nodes</code> secondary
+ * result), over about 1MB made of the corpus programs. Tokens are pulled from the lexer as the parser
+ * goes, so lexing is part of it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+    private static final int SIZE = 1 << 20;
+
+    private String source;
+    private int nodes;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long nodes;
+    }
+
+    @Setup
+    public void setup() {
+        source = Corpus.concatenated(SIZE);
+        nodes = NodeCounter.count(new Parser(new Lexer(source)).parse());
+    }
+
+    @Benchmark
+    public List<Statement> parse(Counters counters) {
+        List<Statement> statements = new Parser(new Lexer(source)).parse();
+        counters.nodes += nodes;
+        return statements;
+    }
+}
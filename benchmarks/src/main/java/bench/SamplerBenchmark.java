@@ -0,0 +1,81 @@
+package bench;
+
+import interpreter.Input;
+import interpreter.Interpreter;
+import interpreter.Output;
+import interpreter.Resolver;
+import interpreter.Sampler;
+import interpreter.SamplingInterpreter;
+import interpreter.ShadowStack;
+import language.Statement;
+import optimizer.Optimizer;
+import optimizer.PurityAnalysis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.Parser;
+import scanner.Lexer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what sampling costs, by running the programs of the corpus with the plain interpreter and with
+ * a {@link SamplingInterpreter} sampled at the default rate. Each mode runs in its own fork, so that the
+ * plain runs don't see the sampling interpreter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SamplerBenchmark {
+    @Param({"arithmetic", "hanoi", "nested_blocks"})
+    public String program;
+
+    @Param({"plain", "sampled"})
+    public String mode;
+
+    private List<Statement> statements;
+
+    @Setup
+    public void setup() {
+        statements = new Parser(new Lexer(Corpus.read(program))).parse();
+        Interpreter interpreter = new Interpreter();
+        new Resolver(interpreter).resolve(statements);
+        new PurityAnalysis().analyze(statements, false);
+        statements = new Optimizer().optimize(statements);
+    }
+
+    @Benchmark
+    public boolean interpret() {
+        Input input = new Input(InputStream.nullInputStream(), Input.DEFAULT_CAPACITY);
+        Output output = new Output(OutputStream.nullOutputStream(), Output.DEFAULT_CAPACITY, false);
+        if (mode.equals("plain")) {
+            Interpreter interpreter = new Interpreter(input, output);
+            new Resolver(interpreter).resolve(statements);
+            interpreter.interpret(statements);
+            return interpreter.isHadError();
+        }
+
+        ShadowStack stack = new ShadowStack();
+        Sampler sampler = new Sampler(stack, Sampler.DEFAULT_RATE);
+        Interpreter interpreter = new SamplingInterpreter(input, output, stack);
+        new Resolver(interpreter).resolve(statements);
+        sampler.start();
+        interpreter.interpret(statements);
+        sampler.stop();
+        return interpreter.isHadError();
+    }
+}
@@ -0,0 +1,141 @@
+package engine;
+
+import interpreter.Environment;
+import interpreter.Input;
+import interpreter.Interpreter;
+import interpreter.Output;
+import interpreter.TimedInterpreter;
+import language.Callable;
+import language.Statement;
+import util.Message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A program {@link FunEngine#compile(CharSequence) compiled} once, to be executed many times.
+ * <br />
+ * <br />
+ * The syntax tree is shared by the executions, each of them gets its own interpreter: globals, environments,
+ * input, output and errors. Executions can therefore run on several threads, or virtual threads, at once.
+ * They only write to the tree to cache what they learn about it (the {@link interpreter.BinaryNode} of an
+ * operation, the function a call site calls), and what is cached holds for every execution.
+ */
+public class CompiledScript {
+    /**
+     * The buffers of an execution are small, since there are many short executions.
+     */
+    private static final int BUFFER_CAPACITY = 1024;
+
+    private final List<Statement> statements;
+    private final Map<String, Integer> globalSlots;
+
+    CompiledScript(List<Statement> statements, Map<String, Integer> globalSlots) {
+        this.statements = List.copyOf(statements);
+        this.globalSlots = globalSlots;
+    }
+
+    /**
+     * Execute the program, with nothing to read.
+     *
+     * @see #execute(Map, String)
+     */
+    public ScriptResult execute(Map<String, ?> bindings) {
+        return execute(bindings, "");
+    }
+
+    /**
+     * Execute the program.
+     *
+     * @param bindings The values of globals the program uses without declaring them: numbers, booleans,
+     *                 <code>null</code> or {@link Callable}s. Names the program doesn't use are ignored, the names
+     *                 of the builtin functions can't be bound: the program was optimized knowing what they do.
+     * @param input    What <code>get</code> reads.
+     * @return What the program printed, and its errors.
+     * @throws IllegalArgumentException If a value can't be given to the program, or a name is a builtin.
+     */
+    public ScriptResult execute(Map<String, ?> bindings, String input) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Interpreter interpreter = new Interpreter(
+                new Input(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), BUFFER_CAPACITY),
+                new Output(out, BUFFER_CAPACITY, false));
+        List<String> errors = run(interpreter, bindings);
+        return new ScriptResult(this, interpreter.globals, out.toString(StandardCharsets.UTF_8), errors,
+                interpreter.isHadError(), false);
+    }
+
+    /**
+     * Execute the program with streams, and stop it if it runs for too long.
+     *
+     * @param bindings The values of globals, as in {@link #execute(Map, String)}.
+     * @param input    What <code>get</code> reads.
+     * @param output   Where <code>show</code> prints, which is left open.
+     * @param timeout  How long the program can run, it is then stopped with a runtime error.
+     * @return The errors of the program, its output is in the stream.
+     * @throws IllegalArgumentException If a value can't be given to the program, or a name is a builtin.
+     * @throws java.io.UncheckedIOException If the streams fail.
+     */
+    public ScriptResult execute(Map<String, ?> bindings, InputStream input, OutputStream output, Duration timeout) {
+        TimedInterpreter interpreter = new TimedInterpreter(
+                new Input(input, Input.DEFAULT_CAPACITY),
+                new Output(output, Output.DEFAULT_CAPACITY, false),
+                timeout.toNanos());
+        List<String> errors = run(interpreter, bindings);
+        return new ScriptResult(this, interpreter.globals, null, errors,
+                interpreter.isHadError(), interpreter.isTimedOut());
+    }
+
+    /**
+     * @return The errors of the program.
+     */
+    private List<String> run(Interpreter interpreter, Map<String, ?> bindings) {
+        for (Map.Entry<String, ?> binding : bindings.entrySet()) {
+            if (Interpreter.isBuiltin(binding.getKey())) {
+                throw new IllegalArgumentException("`" + binding.getKey() + "` is a builtin function, it can't be bound.");
+            }
+            Integer slot = globalSlots.get(binding.getKey());
+            if (slot != null) {
+                interpreter.globals.define(slot, value(binding.getKey(), binding.getValue()));
+            }
+        }
+
+        List<String> errors = new ArrayList<>();
+        Message.collect(errors);
+        try {
+            interpreter.interpret(statements);
+        } finally {
+            Message.collect(null);
+        }
+        return errors;
+    }
+
+    /**
+     * @return The value of a global in the environment of an execution, <code>null</code> if there is none.
+     */
+    Object global(Environment globals, String name) {
+        Integer slot = globalSlots.get(name);
+        if (slot == null) {
+            return null;
+        }
+        Object value = globals.get(slot);
+        return value == Environment.UNDEFINED ? null : value;
+    }
+
+    private static Object value(String name, Object value) {
+        if (value == null || value instanceof Double || value instanceof Boolean || value instanceof Callable) {
+            return value;
+        }
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        throw new IllegalArgumentException("`" + name + "` can't be a " + value.getClass().getName()
+                + ", only a number, a boolean, null or a Callable.");
+    }
+}
@@ -0,0 +1,102 @@
+package engine;
+
+import interpreter.Input;
+import interpreter.Interpreter;
+import interpreter.Output;
+import interpreter.Resolver;
+import language.Statement;
+import optimizer.Optimizer;
+import optimizer.PurityAnalysis;
+import parser.Parser;
+import scanner.Lexer;
+import util.Message;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The entry point for Java programs running Fun programs.
+ * <br />
+ * <br />
+ * A source is {@link #compile(CharSequence) compiled} once, the way <code>Main</code> prepares a file (parsing,
+ * resolution, purity analysis and optimization), into a {@link CompiledScript} which can then be executed
+ * any number of times, from any thread. Errors are never printed and never stop the JVM: they are thrown
+ * as a {@link ScriptException} by the compilation, and returned in the {@link ScriptResult} of an execution.
+ * <br />
+ * <br />
+ * <pre>
+ * CompiledScript script = new FunEngine().compile("show x * 2;");
+ * ScriptResult result = script.execute(Map.of("x", 21));
+ * result.getOutput(); // "42 \n"
+ * </pre>
+ */
+public class FunEngine {
+    private final boolean optimize;
+    private final boolean memoize;
+
+    /**
+     * An engine which optimizes programs, and doesn't memoize their functions.
+     */
+    public FunEngine() {
+        this(true, false);
+    }
+
+    /**
+     * @param optimize Whether to optimize programs, like <code>Main</code> does unless <code>--no-opt</code>.
+     * @param memoize  Whether to cache the results of the functions found to be pure, like <code>--memoize</code>.
+     *                 Caches belong to an execution, they aren't shared.
+     */
+    public FunEngine(boolean optimize, boolean memoize) {
+        this.optimize = optimize;
+        this.memoize = memoize;
+    }
+
+    /**
+     * Compile a program.
+     *
+     * @param source The source of the program.
+     * @return The program, ready to be executed.
+     * @throws ScriptException If the program has errors.
+     */
+    public CompiledScript compile(CharSequence source) throws ScriptException {
+        List<String> errors = new ArrayList<>();
+        Message.collect(errors);
+        try {
+            List<Statement> statements;
+            try {
+                Parser parser = new Parser(new Lexer(source));
+                statements = parser.parse();
+                if (parser.isHadError()) {
+                    throw new ScriptException(errors);
+                }
+            } catch (Lexer.LexerError e) {
+                throw new ScriptException(errors);
+            }
+
+            // The globals are given their slots here, every execution gets its own interpreter.
+            Interpreter interpreter = new Interpreter(
+                    new Input(InputStream.nullInputStream(), 1),
+                    new Output(OutputStream.nullOutputStream(), 1, false));
+            Resolver resolver = new Resolver(interpreter);
+            resolver.resolve(statements);
+            if (resolver.isHadError()) {
+                throw new ScriptException(errors);
+            }
+
+            PurityAnalysis purity = new PurityAnalysis();
+            purity.analyze(statements, memoize);
+            if (purity.isHadError()) {
+                throw new ScriptException(errors);
+            }
+
+            if (optimize) {
+                statements = new Optimizer().optimize(statements);
+            }
+            return new CompiledScript(statements, interpreter.getGlobalSlots());
+        } finally {
+            Message.collect(null);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package engine;
+
+import java.util.List;
+
+/**
+ * Thrown by {@link FunEngine#compile(CharSequence)} when the source isn't a valid program.
+ */
+public class ScriptException extends Exception {
+    private final List<String> errors;
+
+    public ScriptException(List<String> errors) {
+        super(String.join("\n", errors));
+        this.errors = List.copyOf(errors);
+    }
+
+    /**
+     * @return The errors found, like <code>[line 3] Expected expression.</code>
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+}
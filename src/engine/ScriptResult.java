@@ -0,0 +1,63 @@
+package engine;
+
+import interpreter.Environment;
+
+import java.util.List;
+
+/**
+ * What an execution of a {@link CompiledScript} did.
+ */
+public class ScriptResult {
+    private final CompiledScript script;
+    private final Environment globals;
+    private final String output;
+    private final List<String> errors;
+    private final boolean hadError;
+    private final boolean timedOut;
+
+    ScriptResult(CompiledScript script, Environment globals, String output, List<String> errors, boolean hadError,
+                 boolean timedOut) {
+        this.script = script;
+        this.globals = globals;
+        this.output = output;
+        this.errors = List.copyOf(errors);
+        this.hadError = hadError;
+        this.timedOut = timedOut;
+    }
+
+    /**
+     * @return What <code>show</code> printed, up to the error which stopped the program if there was one,
+     *         or <code>null</code> if it printed to a stream.
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * @return The runtime errors, like <code>[line 3] Variable `x` is not defined.</code>
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return Whether the program was stopped by a runtime error.
+     */
+    public boolean isHadError() {
+        return hadError;
+    }
+
+    /**
+     * @return Whether the program was stopped because it ran for too long, which is also a runtime error.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return The value a global had when the program stopped, <code>null</code> if it had none.
+     */
+    public Object get(String name) {
+        return script.global(globals, name);
+    }
+}
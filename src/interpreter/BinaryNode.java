@@ -0,0 +1,403 @@
+package interpreter;
+
+import language.Expression;
+import scanner.TokenType;
+import util.Message;
+
+/**
+ * The implementation of a single {@link Expression.Binary}, specialized on the types its operands had so far.
+ * <br />
+ * <br />
+ * A binary expression starts without a node. The first time it is executed, the operands are evaluated
+ * generically and, depending on what they turned out to be, a specialized node like {@link DoubleAdd} or
+ * {@link DoubleLess} is stored in {@link Expression.Binary#node}. Later executions go straight to that node,
+ * which knows its operator and whether its operands can be evaluated as primitive numbers.
+ * <br />
+ * <br />
+ * When a specialized node sees an operand of another type, it replaces itself with a {@link Generic} node
+ * (which is never specialized again) and finishes the execution with the operands it already evaluated.
+ */
+public abstract class BinaryNode {
+    final Expression.Binary expression;
+
+    BinaryNode(Expression.Binary expression) {
+        this.expression = expression;
+    }
+
+    /**
+     * @return The value of the expression, boxed.
+     */
+    abstract Object execute(Interpreter interpreter);
+
+    /**
+     * Only called on arithmetic expressions, which either produce a number or fail.
+     */
+    double executeDouble(Interpreter interpreter) {
+        return (double) execute(interpreter);
+    }
+
+    boolean executeBoolean(Interpreter interpreter) {
+        return interpreter.truthy(execute(interpreter));
+    }
+
+    /**
+     * Execute an expression which hasn't been specialized yet, and specialize it.
+     */
+    static Object executeUninitialized(Interpreter interpreter, Expression.Binary expression) {
+        Object left = interpreter.evaluate(expression.left);
+        Object right = interpreter.evaluate(expression.right);
+        expression.node = specialize(expression, left, right);
+        return Generic.apply(expression, left, right);
+    }
+
+    private static BinaryNode specialize(Expression.Binary expression, Object left, Object right) {
+        if (!(left instanceof Double) || !(right instanceof Double)) {
+            return new Generic(expression);
+        }
+        return switch (expression.operator.type) {
+            case PLUS -> new DoubleAdd(expression);
+            case MINUS -> new DoubleSubtract(expression);
+            case STAR -> new DoubleMultiply(expression);
+            case SLASH -> new DoubleDivide(expression);
+            case MODULO -> new DoubleModulo(expression);
+            case DOUBLE_STAR -> new DoublePower(expression);
+            case DOUBLE_EQUAL -> new DoubleEqual(expression);
+            case GREATER -> new DoubleGreater(expression);
+            case GREATER_EQUAL -> new DoubleGreaterEqual(expression);
+            case LESS -> new DoubleLess(expression);
+            case LESS_EQUAL -> new DoubleLessEqual(expression);
+            default -> new Generic(expression);
+        };
+    }
+
+    /**
+     * Replace this node with a generic one, and let it finish the current execution.
+     *
+     * @param right          The value of the right operand, if it was evaluated already.
+     * @param rightEvaluated Whether the right operand was evaluated, otherwise it is evaluated here.
+     */
+    Object deoptimize(Interpreter interpreter, Object left, Object right, boolean rightEvaluated) {
+        expression.node = new Generic(expression);
+        if (!rightEvaluated) {
+            right = interpreter.evaluate(expression.right);
+        }
+        return Generic.apply(expression, left, right);
+    }
+
+    /**
+     * Handles any types, with the same checks as before any specialization.
+     */
+    static final class Generic extends BinaryNode {
+        Generic(Expression.Binary expression) {
+            super(expression);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object left = interpreter.evaluate(expression.left);
+            Object right = interpreter.evaluate(expression.right);
+            return apply(expression, left, right);
+        }
+
+        static Object apply(Expression.Binary expression, Object left, Object right) {
+            if (expression.operator.type == TokenType.DOUBLE_EQUAL) {
+                if (left == null)
+                    return right == null;
+                return left.equals(right);
+            }
+            if (!(left instanceof Double) || !(right instanceof Double)) {
+                Message.error(expression.operator.line, "Expected number values");
+                throw new Interpreter.RuntimeError();
+            }
+            double l = (double) left;
+            double r = (double) right;
+            switch (expression.operator.type) {
+                case PLUS -> {
+                    return l + r;
+                }
+                case MINUS -> {
+                    return l - r;
+                }
+                case STAR -> {
+                    return l * r;
+                }
+                case DOUBLE_STAR -> {
+                    return Math.pow(l, r);
+                }
+                case SLASH -> {
+                    return divide(expression, l, r);
+                }
+                case MODULO -> {
+                    return modulo(expression, l, r);
+                }
+                case GREATER -> {
+                    return l > r;
+                }
+                case GREATER_EQUAL -> {
+                    return l >= r;
+                }
+                case LESS -> {
+                    return l < r;
+                }
+                case LESS_EQUAL -> {
+                    return l <= r;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    static double divide(Expression.Binary expression, double left, double right) {
+        if (right == 0.0) {
+            Message.error(expression.operator.line, "Division by zero is not allowed");
+            throw new Interpreter.RuntimeError();
+        }
+        return left / right;
+    }
+
+    static double modulo(Expression.Binary expression, double left, double right) {
+        if (right == 0.0) {
+            Message.error(expression.operator.line, "Division by zero is not allowed");
+            throw new Interpreter.RuntimeError();
+        }
+        return left % right;
+    }
+
+    /**
+     * Base of the nodes whose operands have always been numbers.
+     * <br />
+     * <br />
+     * Operands which can only produce numbers (see {@link Interpreter#isNumeric(Expression)}) are evaluated
+     * without boxing, the others are evaluated normally and checked, except for variables holding an unboxed
+     * number (see {@link Interpreter#evaluateOperand(Expression)}).
+     */
+    abstract static class DoubleNode extends BinaryNode {
+        final boolean leftNumeric;
+        final boolean rightNumeric;
+
+        DoubleNode(Expression.Binary expression) {
+            super(expression);
+            this.leftNumeric = Interpreter.isNumeric(expression.left);
+            this.rightNumeric = Interpreter.isNumeric(expression.right);
+        }
+    }
+
+    /**
+     * Base of the arithmetic nodes, whose result stays unboxed in {@link #executeDouble(Interpreter)}.
+     */
+    abstract static class DoubleArithmetic extends DoubleNode {
+        DoubleArithmetic(Expression.Binary expression) {
+            super(expression);
+        }
+
+        @Override
+        final Object execute(Interpreter interpreter) {
+            return executeDouble(interpreter);
+        }
+
+        @Override
+        final double executeDouble(Interpreter interpreter) {
+            double left;
+            if (leftNumeric) {
+                left = interpreter.evaluateDouble(expression.left);
+            } else {
+                Object value = interpreter.evaluateOperand(expression.left);
+                if (value == Environment.NUMBER) {
+                    left = interpreter.operand;
+                } else if (!(value instanceof Double)) {
+                    return (double) deoptimize(interpreter, value, null, false);
+                } else {
+                    left = (double) value;
+                }
+            }
+            double right;
+            if (rightNumeric) {
+                right = interpreter.evaluateDouble(expression.right);
+            } else {
+                Object value = interpreter.evaluateOperand(expression.right);
+                if (value == Environment.NUMBER) {
+                    right = interpreter.operand;
+                } else if (!(value instanceof Double)) {
+                    return (double) deoptimize(interpreter, left, value, true);
+                } else {
+                    right = (double) value;
+                }
+            }
+            return calculate(left, right);
+        }
+
+        abstract double calculate(double left, double right);
+    }
+
+    /**
+     * Base of the comparison nodes, whose result stays unboxed in {@link #executeBoolean(Interpreter)}.
+     */
+    abstract static class DoubleComparison extends DoubleNode {
+        DoubleComparison(Expression.Binary expression) {
+            super(expression);
+        }
+
+        @Override
+        final Object execute(Interpreter interpreter) {
+            return executeBoolean(interpreter);
+        }
+
+        @Override
+        final boolean executeBoolean(Interpreter interpreter) {
+            double left;
+            if (leftNumeric) {
+                left = interpreter.evaluateDouble(expression.left);
+            } else {
+                Object value = interpreter.evaluateOperand(expression.left);
+                if (value == Environment.NUMBER) {
+                    left = interpreter.operand;
+                } else if (!(value instanceof Double)) {
+                    return interpreter.truthy(deoptimize(interpreter, value, null, false));
+                } else {
+                    left = (double) value;
+                }
+            }
+            double right;
+            if (rightNumeric) {
+                right = interpreter.evaluateDouble(expression.right);
+            } else {
+                Object value = interpreter.evaluateOperand(expression.right);
+                if (value == Environment.NUMBER) {
+                    right = interpreter.operand;
+                } else if (!(value instanceof Double)) {
+                    return interpreter.truthy(deoptimize(interpreter, left, value, true));
+                } else {
+                    right = (double) value;
+                }
+            }
+            return test(left, right);
+        }
+
+        abstract boolean test(double left, double right);
+    }
+
+    static final class DoubleAdd extends DoubleArithmetic {
+        DoubleAdd(Expression.Binary expression) {
+            super(expression);
+        }
+
+        @Override
+        double calculate(double left, double right) {
+            return left + right;
+        }
+    }
+
+    static final class DoubleSubtract extends DoubleArithmetic {
+        DoubleSubtract(Expression.Binary expression) {
+            super(expression);
+        }
+
+        @Override
+        double calculate(double left, double right) {
+            return left - right;
+        }
+    }
+
+    static final class DoubleMultiply extends DoubleArithmetic {
+        DoubleMultiply(Expression.Binary expression) {
+            super(expression);
+        }
+
+        @Override
+        double calculate(double left, double right) {
+            return left * right;
+        }
+    }
+
+    static final class DoubleDivide extends DoubleArithmetic {
+        DoubleDivide(Expression.Binary expression) {
+            super(expression);
+        }
+
+        @Override
+        double calculate(double left, double right) {
+            return divide(expression, left, right);
+        }
+    }
+
+    static final class DoubleModulo extends DoubleArithmetic {
+        DoubleModulo(Expression.Binary expression) {
+            super(expression);
+        }
+
+        @Override
+        double calculate(double left, double right) {
+            return modulo(expression, left, right);
+        }
+    }
+
+    static final class DoublePower extends DoubleArithmetic {
+        DoublePower(Expression.Binary expression) {
+            super(expression);
+        }
+
+        @Override
+        double calculate(double left, double right) {
+            return Math.pow(left, right);
+        }
+    }
+
+    /**
+     * Compares like {@link Double#equals(Object)}, which is what the generic <code>==</code> does.
+     */
+    static final class DoubleEqual extends DoubleComparison {
+        DoubleEqual(Expression.Binary expression) {
+            super(expression);
+        }
+
+        @Override
+        boolean test(double left, double right) {
+            return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+        }
+    }
+
+    static final class DoubleGreater extends DoubleComparison {
+        DoubleGreater(Expression.Binary expression) {
+            super(expression);
+        }
+
+        @Override
+        boolean test(double left, double right) {
+            return left > right;
+        }
+    }
+
+    static final class DoubleGreaterEqual extends DoubleComparison {
+        DoubleGreaterEqual(Expression.Binary expression) {
+            super(expression);
+        }
+
+        @Override
+        boolean test(double left, double right) {
+            return left >= right;
+        }
+    }
+
+    static final class DoubleLess extends DoubleComparison {
+        DoubleLess(Expression.Binary expression) {
+            super(expression);
+        }
+
+        @Override
+        boolean test(double left, double right) {
+            return left < right;
+        }
+    }
+
+    static final class DoubleLessEqual extends DoubleComparison {
+        DoubleLessEqual(Expression.Binary expression) {
+            super(expression);
+        }
+
+        @Override
+        boolean test(double left, double right) {
+            return left <= right;
+        }
+    }
+}
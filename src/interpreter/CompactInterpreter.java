@@ -0,0 +1,616 @@
+package interpreter;
+
+import language.Callable;
+import language.CompactTree;
+import util.Message;
+
+/**
+ * Runs a program encoded in a {@link CompactTree}, walking the nodes by their indices instead of visiting
+ * objects. It prints exactly the same output as the tree-walker, and has the same builtins and globals.
+ * <br />
+ * <br />
+ * Arithmetic and comparisons on operands which can only produce numbers are evaluated without boxing, in
+ * {@link #evaluateDouble(int)} and {@link #condition(int)}, which the kind of a node is enough to decide.
+ * <br />
+ * <br />
+ * The environments, the <code>return</code> in progress and the errors are the state of the {@link Interpreter},
+ * so that its builtins and memoization work the same way here.
+ */
+public class CompactInterpreter extends Interpreter {
+    private int[] kinds;
+    private int[] lefts;
+    private int[] rights;
+    private int[] operands;
+    private int[] lines;
+    private int[] lists;
+    private double[] numbers;
+    private Object[] constants;
+    /**
+     * The numbers of the tree, boxed once, so that reading a literal doesn't allocate.
+     */
+    private Object[] boxedNumbers;
+
+    /**
+     * A function declared in a compact tree.
+     */
+    static final class CompactFunction implements Callable {
+        final String name;
+        /**
+         * The list of the statements of the body.
+         */
+        final int body;
+        final int arity;
+        final int slots;
+        /**
+         * The cache of the results when the function is memoized, <code>null</code> otherwise.
+         */
+        final MemoCache memo;
+
+        CompactFunction(String name, int body, int arity, int slots, MemoCache memo) {
+            this.name = name;
+            this.body = body;
+            this.arity = arity;
+            this.slots = slots;
+            this.memo = memo;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            return ((CompactInterpreter) interpreter).call(this, arguments);
+        }
+
+        @Override
+        public int arity() {
+            return arity;
+        }
+
+        @Override
+        public String toString() {
+            return "<fn " + name + ">";
+        }
+    }
+
+    public CompactInterpreter(Input input, Output output) {
+        super(input, output);
+    }
+
+    /**
+     * Run a program encoded from statements resolved against this interpreter.
+     */
+    public void interpret(CompactTree tree) {
+        kinds = tree.kinds();
+        lefts = tree.lefts();
+        rights = tree.rights();
+        operands = tree.operands();
+        lines = tree.lines();
+        lists = tree.lists();
+        numbers = tree.numbers();
+        constants = tree.constants();
+        boxedNumbers = new Object[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            boxedNumbers[i] = numbers[i];
+        }
+
+        try {
+            statements(tree.program());
+        } catch (RuntimeError e) {
+            this.hadError = true;
+        } catch (StackOverflowError e) {
+            Message.error("Stack overflow.");
+            this.hadError = true;
+        } finally {
+            output.flush();
+        }
+    }
+
+    /**
+     * Report an error at the line of a node.
+     */
+    private RuntimeError error(int node, String message) {
+        Message.error(lines[node], message);
+        return new RuntimeError();
+    }
+
+    /**
+     * Execute a list of statements, until one of them returns.
+     */
+    private void statements(int list) {
+        int end = list + lists[list];
+        for (int i = list + 1; i <= end; i++) {
+            execute(lists[i]);
+            if (returning) {
+                break;
+            }
+        }
+    }
+
+    private void execute(int node) {
+        switch (kinds[node]) {
+            case CompactTree.EXPRESSION -> evaluate(lefts[node]);
+            case CompactTree.PRINT -> {
+                int list = rights[node];
+                int end = list + lists[list];
+                for (int i = list + 1; i <= end; i++) {
+                    output.print(evaluate(lists[i]));
+                }
+                output.println();
+            }
+            case CompactTree.DECLARE, CompactTree.DECLARE_MUTABLE ->
+                    environment.define(operands[node], evaluate(lefts[node]));
+            case CompactTree.BLOCK -> block(node);
+            case CompactTree.IF -> {
+                if (condition(lefts[node])) {
+                    execute(rights[node]);
+                } else if (operands[node] >= 0) {
+                    execute(operands[node]);
+                }
+            }
+            case CompactTree.WHILE -> loop(node);
+            case CompactTree.FOR -> count(node);
+            case CompactTree.FUNCTION -> declare(node);
+            case CompactTree.RETURN -> doReturn(node);
+            default -> throw new IllegalStateException("Node " + node + " isn't a statement.");
+        }
+    }
+
+    /**
+     * @see Interpreter#visitFunctionDeclarationStatement
+     */
+    private void declare(int node) {
+        int record = rights[node];
+        String name = (String) constants[lists[record]];
+        int arity = lists[record + 3];
+        MemoCache memo = null;
+        if ((lists[record + 2] & CompactTree.MEMOIZE) != 0) {
+            memo = memoCache(node, name, arity);
+        }
+        CompactFunction function = new CompactFunction(name, rights[lefts[node]], arity, lists[record + 1], memo);
+        environment.define(operands[node], function);
+    }
+
+    private void block(int node) {
+        int slots = operands[node];
+        if (slots == 0) {
+            statements(rights[node]);
+            return;
+        }
+        Environment previous = environment;
+        Environment blockEnvironment = frames.acquire(environment, slots);
+        blockEnvironment.clear(0);
+        environment = blockEnvironment;
+        try {
+            statements(rights[node]);
+        } finally {
+            environment = previous;
+            frames.release(blockEnvironment);
+        }
+    }
+
+    private void loop(int node) {
+        int condition = lefts[node];
+        int body = rights[node];
+        Object[] enclosingInvariants = invariants;
+        try {
+            if (operands[node] > 0) {
+                invariants = newInvariants(operands[node]);
+            }
+            while (condition(condition)) {
+                execute(body);
+                if (returning) {
+                    break;
+                }
+            }
+        } finally {
+            invariants = enclosingInvariants;
+        }
+    }
+
+    /**
+     * Run a <code>for</code> loop, whose counter is kept in a primitive and only stored in its environment when
+     * the loop reads it, like in {@link Interpreter#visitForStatement}.
+     */
+    private void count(int node) {
+        int record = rights[node];
+        Object lower = evaluate(lists[record]);
+        Object higher = evaluate(lists[record + 1]);
+        if (!(lower instanceof Double) || !(higher instanceof Double)) {
+            throw error(node, "Lower and upper bounds must be numbers");
+        }
+        int step = lists[record + 2];
+        int body = lists[record + 3];
+        int flags = lists[record + 4];
+        boolean assigned = (flags & CompactTree.COUNTER_ASSIGNED) != 0;
+        boolean store = (flags & (CompactTree.COUNTER_READ | CompactTree.COUNTER_ASSIGNED)) != 0;
+        boolean constant = kinds[step] == CompactTree.NUMBER;
+        double stepValue = constant ? numbers[operands[step]] : 0;
+
+        Environment previous = environment;
+        Environment forEnvironment = frames.acquire(environment, 1);
+        environment = forEnvironment;
+        forEnvironment.define(0, lower);
+        Object[] enclosingInvariants = invariants;
+        try {
+            if (operands[node] > 0) {
+                invariants = newInvariants(operands[node]);
+            }
+            double i = (double) lower;
+            double end = (double) higher;
+            while (true) {
+                execute(body);
+                if (returning) {
+                    break;
+                }
+                if (!constant) {
+                    Object value = evaluate(step);
+                    if (!(value instanceof Double)) {
+                        throw error(node, "The step should be a number.");
+                    }
+                    stepValue = (double) value;
+                }
+                if (assigned) {
+                    i = (double) forEnvironment.get(0);
+                }
+                if (stepValue > 0 && (i + stepValue) > end)
+                    break;
+                if (stepValue < 0 && (i + stepValue) < end)
+                    break;
+                if (i == end)
+                    break;
+                i += stepValue;
+                if (store) {
+                    forEnvironment.define(0, i);
+                }
+            }
+        } finally {
+            invariants = enclosingInvariants;
+            environment = previous;
+            frames.release(forEnvironment);
+        }
+    }
+
+    /**
+     * @see Interpreter#visitReturnStatement
+     */
+    private void doReturn(int node) {
+        int value = lefts[node];
+        if (value >= 0 && kinds[value] == CompactTree.CALL) {
+            // Leave the call to the caller, once this function is gone from the stack.
+            Callable function = callee(value);
+            if (function instanceof CompactFunction user) {
+                tailFrame = frame(user, value);
+            } else {
+                tailArguments = arguments(function, value);
+            }
+            tailCallee = function;
+        } else {
+            returnValue = value < 0 ? null : evaluate(value);
+        }
+        returning = true;
+    }
+
+    Object evaluate(int node) {
+        switch (kinds[node]) {
+            case CompactTree.NUMBER -> {
+                return boxedNumbers[operands[node]];
+            }
+            case CompactTree.NEGATE, CompactTree.ADD, CompactTree.SUBTRACT, CompactTree.MULTIPLY, CompactTree.DIVIDE,
+                 CompactTree.MODULO, CompactTree.POWER -> {
+                return evaluateDouble(node);
+            }
+            case CompactTree.EQUAL, CompactTree.GREATER, CompactTree.GREATER_EQUAL, CompactTree.LESS,
+                 CompactTree.LESS_EQUAL, CompactTree.NOT -> {
+                return condition(node);
+            }
+            case CompactTree.AND -> {
+                Object left = evaluate(lefts[node]);
+                return truthy(left) ? evaluate(rights[node]) : left;
+            }
+            case CompactTree.OR -> {
+                Object left = evaluate(lefts[node]);
+                return truthy(left) ? left : evaluate(rights[node]);
+            }
+            case CompactTree.TRUE -> {
+                return true;
+            }
+            case CompactTree.FALSE -> {
+                return false;
+            }
+            case CompactTree.NULL -> {
+                return null;
+            }
+            case CompactTree.CONSTANT -> {
+                return constants[operands[node]];
+            }
+            case CompactTree.GET -> {
+                output.flush();
+                return input.next();
+            }
+            case CompactTree.LOCAL -> {
+                return environment.getAt(lefts[node], operands[node]);
+            }
+            case CompactTree.GLOBAL -> {
+                return global(node);
+            }
+            case CompactTree.ASSIGN -> {
+                return assign(node);
+            }
+            case CompactTree.CALL -> {
+                return call(node);
+            }
+            case CompactTree.INVARIANT -> {
+                return invariant(node);
+            }
+            default -> throw new IllegalStateException("Node " + node + " isn't an expression.");
+        }
+    }
+
+    // The cases of evaluate(int) which don't fit in a few instructions, so that it stays small enough to compile well.
+
+    private Object global(int node) {
+        Object value = globals.get(operands[node]);
+        if (value == Environment.UNDEFINED) {
+            throw error(node, "Variable `" + constants[rights[node]] + "` is not defined.");
+        }
+        return value;
+    }
+
+    private Object assign(int node) {
+        Object value = evaluate(lefts[node]);
+        int target = rights[node];
+        if (kinds[target] == CompactTree.LOCAL) {
+            environment.updateAt(lefts[target], operands[target], value);
+        } else if (globals.get(operands[target]) == Environment.UNDEFINED) {
+            throw error(target, "Variable `" + constants[rights[target]] + "` is not defined.");
+        } else {
+            globals.define(operands[target], value);
+        }
+        return value;
+    }
+
+    private Object call(int node) {
+        Callable function = callee(node);
+        if (function instanceof CompactFunction user) {
+            return call(user, frame(user, node));
+        }
+        return function.call(this, arguments(function, node));
+    }
+
+    /**
+     * An invariant is evaluated where it is first needed, like in the tree-walker.
+     */
+    private Object invariant(int node) {
+        Object value = invariants[operands[node]];
+        if (value == NOT_EVALUATED) {
+            value = evaluate(lefts[node]);
+            invariants[operands[node]] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Evaluate a node whose kind is at most {@link CompactTree#POWER}, which produces a number or fails.
+     */
+    private double evaluateDouble(int node) {
+        int kind = kinds[node];
+        if (kind == CompactTree.NUMBER) {
+            return numbers[operands[node]];
+        }
+        if (kind == CompactTree.NEGATE) {
+            int right = lefts[node];
+            if (kinds[right] <= CompactTree.POWER) {
+                return -evaluateDouble(right);
+            }
+            Object value = evaluate(right);
+            if (!(value instanceof Double)) {
+                throw error(node, "Expected number value");
+            }
+            return -(double) value;
+        }
+        int right = rights[node];
+        double l = number(lefts[node], node, right);
+        double r = number(right, node, -1);
+        return switch (kind) {
+            case CompactTree.ADD -> l + r;
+            case CompactTree.SUBTRACT -> l - r;
+            case CompactTree.MULTIPLY -> l * r;
+            case CompactTree.DIVIDE -> {
+                if (r == 0.0) {
+                    throw error(node, "Division by zero is not allowed");
+                }
+                yield l / r;
+            }
+            case CompactTree.MODULO -> {
+                if (r == 0.0) {
+                    throw error(node, "Division by zero is not allowed");
+                }
+                yield l % r;
+            }
+            default -> Math.pow(l, r);
+        };
+    }
+
+    /**
+     * Evaluate an operand of an arithmetic or comparison <code>operator</code>. Both operands are evaluated
+     * before a value which isn't a number is reported, like in the tree-walker.
+     *
+     * @param next The right operand, still to be evaluated when this is the left one, or <code>-1</code>.
+     */
+    private double number(int node, int operator, int next) {
+        if (kinds[node] <= CompactTree.POWER) {
+            return evaluateDouble(node);
+        }
+        Object value = evaluate(node);
+        if (!(value instanceof Double)) {
+            if (next >= 0) {
+                evaluate(next);
+            }
+            throw error(operator, "Expected number values");
+        }
+        return (double) value;
+    }
+
+    /**
+     * Evaluate any node for its truthiness, without boxing the results of comparisons.
+     */
+    private boolean condition(int node) {
+        switch (kinds[node]) {
+            case CompactTree.EQUAL -> {
+                int left = lefts[node];
+                int right = rights[node];
+                if (kinds[left] <= CompactTree.POWER && kinds[right] <= CompactTree.POWER) {
+                    return Double.doubleToLongBits(evaluateDouble(left)) == Double.doubleToLongBits(evaluateDouble(right));
+                }
+                Object l = evaluate(left);
+                Object r = evaluate(right);
+                return l == null ? r == null : l.equals(r);
+            }
+            case CompactTree.GREATER, CompactTree.GREATER_EQUAL, CompactTree.LESS, CompactTree.LESS_EQUAL -> {
+                int right = rights[node];
+                double l = number(lefts[node], node, right);
+                double r = number(right, node, -1);
+                return switch (kinds[node]) {
+                    case CompactTree.GREATER -> l > r;
+                    case CompactTree.GREATER_EQUAL -> l >= r;
+                    case CompactTree.LESS -> l < r;
+                    default -> l <= r;
+                };
+            }
+            case CompactTree.AND -> {
+                // `a and b` evaluates to either `a` or `b`, so only their truthiness matters here.
+                return condition(lefts[node]) && condition(rights[node]);
+            }
+            case CompactTree.OR -> {
+                return condition(lefts[node]) || condition(rights[node]);
+            }
+            case CompactTree.NOT -> {
+                Object right = evaluate(lefts[node]);
+                if (!(right instanceof Boolean)) {
+                    throw error(node, "Expected boolean value");
+                }
+                return !(boolean) right;
+            }
+            default -> {
+                return truthy(evaluate(node));
+            }
+        }
+    }
+
+    /**
+     * Evaluate the callee of a call, and check that it can be called.
+     */
+    private Callable callee(int node) {
+        Object callee = evaluate(lefts[node]);
+        if (!(callee instanceof Callable function)) {
+            throw error(node, "You can only call functions");
+        }
+        return function;
+    }
+
+    /**
+     * Evaluate the arguments of a call to a function of the tree straight into the environment of the call.
+     */
+    private Environment frame(CompactFunction function, int node) {
+        int list = rights[node];
+        int count = lists[list];
+        if (count != function.arity) {
+            arguments(function, node);
+        }
+        Environment frame = frames.acquire(function.slots);
+        for (int i = 0; i < count; i++) {
+            frame.define(i, evaluate(lists[list + 1 + i]));
+        }
+        frame.clear(count);
+        return frame;
+    }
+
+    /**
+     * Evaluate the arguments of a call, and check that there are as many as the function expects.
+     */
+    private Object[] arguments(Callable function, int node) {
+        int list = rights[node];
+        int count = lists[list];
+        Object[] arguments = new Object[count];
+        for (int i = 0; i < count; i++) {
+            arguments[i] = evaluate(lists[list + 1 + i]);
+        }
+        if (count != function.arity()) {
+            throw error(node, "Expected " + function.arity() + " arguments but got " + count);
+        }
+        return arguments;
+    }
+
+    /**
+     * Call a function of the tree with arguments which were already evaluated.
+     */
+    Object call(CompactFunction function, Object[] arguments) {
+        Environment frame = frames.acquire(function.slots);
+        for (int i = 0; i < arguments.length; i++) {
+            frame.define(i, arguments[i]);
+        }
+        frame.clear(arguments.length);
+        return call(function, frame);
+    }
+
+    /**
+     * Call a function of the tree, whose environment holds the arguments already, going through its cache when it is
+     * memoized.
+     *
+     * @see Interpreter#callFunction(Function, Object[])
+     */
+    private Object call(CompactFunction function, Environment frame) {
+        MemoCache memo = function.memo;
+        if (memo == null) {
+            return execute(function, frame);
+        }
+        long[] key = memo.scratch;
+        if (!memo.encode(frame, key)) {
+            return execute(function, frame);
+        }
+        int entry = memo.find(key);
+        if (entry >= 0) {
+            frames.release(frame);
+            return memo.result(entry);
+        }
+        // The scratch key gets overwritten by the calls made in the body.
+        key = key.clone();
+        Object result = execute(function, frame);
+        memo.put(key, result);
+        return result;
+    }
+
+    /**
+     * Run the body of a function, and of the functions it calls in tail position, which aren't memoized.
+     */
+    private Object execute(CompactFunction function, Environment frame) {
+        while (true) {
+            Environment previous = environment;
+            environment = frame;
+            try {
+                statements(function.body);
+            } finally {
+                environment = previous;
+            }
+            frames.release(frame);
+
+            if (!returning) {
+                return null;
+            }
+            returning = false;
+            Callable callee = tailCallee;
+            if (callee == null) {
+                Object value = returnValue;
+                returnValue = null;
+                return value;
+            }
+            tailCallee = null;
+            if (tailFrame == null) {
+                Object[] arguments = tailArguments;
+                tailArguments = null;
+                return callee.call(this, arguments);
+            }
+            function = (CompactFunction) callee;
+            frame = tailFrame;
+            tailFrame = null;
+        }
+    }
+}
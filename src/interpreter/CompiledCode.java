@@ -0,0 +1,79 @@
+package interpreter;
+
+/**
+ * Base of the classes the {@link JitCompiler} generates, for a function or a loop which got hot.
+ * <br />
+ * <br />
+ * Compiled code keeps every value in a <code>double</code>, so it only runs while the values it reads are
+ * numbers. When they aren't, or when something would fail (a division by zero, a function returning
+ * <code>NULL</code>), it throws {@link #DEOPT} and the {@link JitInterpreter} goes back to the tree-walker,
+ * which does the same work again and reports the error if there is one. Compiled code doesn't show, read or
+ * declare anything, so the work it did before giving up is either thrown away (a call is made again) or
+ * written back to the environments (a loop goes on from its last iteration).
+ */
+abstract class CompiledCode {
+    /**
+     * Returned by {@link #loop} when the loop stopped on its own.
+     */
+    static final int FINISHED = 0;
+    /**
+     * Returned by {@link #loop} when the function around the loop returned {@link #result}.
+     */
+    static final int RETURNED = 1;
+    /**
+     * Returned by {@link #loop} when the function around the loop returned <code>NULL</code>.
+     */
+    static final int RETURNED_NULL = 2;
+    /**
+     * Returned by {@link #loop} when it gave up, after writing back the variables of the last iteration.
+     */
+    static final int DEOPTIMIZED = -1;
+
+    /**
+     * Thrown by compiled code which can't go on, it has no stack trace so that throwing it costs nothing.
+     */
+    static final class Deopt extends RuntimeException {
+        private Deopt() {
+            super(null, null, false, false);
+        }
+    }
+
+    static final Deopt DEOPT = new Deopt();
+
+    /**
+     * What the function around a compiled loop returned.
+     */
+    double result;
+
+    /**
+     * Run a compiled function.
+     *
+     * @param frame   The environment of the call, holding the arguments.
+     * @param globals The globals of the interpreter.
+     * @return What the function returned.
+     * @throws Deopt If the function can't be run here.
+     */
+    abstract double call(Environment frame, Environment globals);
+
+    /**
+     * Run the rest of a compiled loop, once an iteration is done.
+     *
+     * @param environment The environment the loop runs in, the one of its counter for a <code>for</code>.
+     * @param globals     The globals of the interpreter.
+     * @param higher      The upper bound of a <code>for</code>.
+     * @return {@link #FINISHED}, {@link #RETURNED}, {@link #RETURNED_NULL} or {@link #DEOPTIMIZED}.
+     * @throws Deopt If the loop can't be entered.
+     */
+    abstract int loop(Environment environment, Environment globals, double higher);
+
+    /**
+     * @return The value, if it is a number.
+     * @throws Deopt If it isn't.
+     */
+    static double number(Object value) {
+        if (value instanceof Double number) {
+            return number;
+        }
+        throw DEOPT;
+    }
+}
@@ -1,61 +1,157 @@
 package interpreter;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
 
+/**
+ * A scope holding variable values in an indexed array.
+ * <br />
+ * <br />
+ * Names are never looked up at runtime: the {@link Resolver} assigns every declaration
+ * a slot and every reference a (depth, slot) pair ahead of time.
+ * <br />
+ * <br />
+ * The interpreter can store a number without boxing it (see {@link #defineNumber(int, double)}): the slot of
+ * {@link #values} then holds {@link #NUMBER}, and the number is in the same slot of {@link #numbers}. It is only
+ * boxed when something reads it as an object, and that box is kept in the slot for the next reads.
+ */
 public class Environment {
-    private final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
-    private final Set<String> mutableVariables = new HashSet<>();
+    /**
+     * Marker for a global slot which has been referenced but not defined (yet).
+     */
+    public static final Object UNDEFINED = new Object();
 
+    /**
+     * Marker for a slot whose value is the number in the same slot of {@link #numbers}.
+     */
+    static final Object NUMBER = new Object();
+
+    private Environment enclosing;
+    private Object[] values;
+    // Only allocated once a number is stored unboxed.
+    private double[] numbers;
+
+    /**
+     * Create a growable environment without a parent, used for the globals.
+     */
     public Environment() {
         this.enclosing = null;
+        this.values = new Object[16];
+        Arrays.fill(this.values, UNDEFINED);
     }
 
-    public Environment(Environment enclosing) {
+    /**
+     * Create an environment with a fixed number of slots.
+     *
+     * @param enclosing The parent environment.
+     * @param size      The number of variables declared in this scope.
+     */
+    public Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        this.values = new Object[size];
     }
 
-    public static class EnvironmentError extends Interpreter.RuntimeError {
-        public final String message;
+    /**
+     * Give an environment from a {@link FramePool} to another scope.
+     */
+    void setEnclosing(Environment enclosing) {
+        this.enclosing = enclosing;
+    }
 
-        public EnvironmentError(String message) {
-            this.message = message;
+    public void define(int slot, Object value) {
+        if (slot >= values.length) {
+            int length = values.length;
+            values = Arrays.copyOf(values, Math.max(slot + 1, length * 2));
+            Arrays.fill(values, length, values.length, UNDEFINED);
         }
+        values[slot] = value;
     }
 
-    public void define(String name, Object value, Boolean mutable) throws EnvironmentError {
-        if (values.containsKey(name)) {
-            throw new EnvironmentError("Variable `" + name + "` is already defined.");
+    /**
+     * Store a number without boxing it.
+     */
+    void defineNumber(int slot, double value) {
+        if (slot >= values.length) {
+            define(slot, NUMBER);
+        } else {
+            values[slot] = NUMBER;
+        }
+        if (numbers == null || slot >= numbers.length) {
+            numbers = numbers == null ? new double[values.length] : Arrays.copyOf(numbers, values.length);
         }
-        if (mutable) mutableVariables.add(name);
-        values.put(name, value);
+        numbers[slot] = value;
     }
 
-    public Object get(String name) throws EnvironmentError {
-        if (values.containsKey(name)) {
-            return values.get(name);
+    /**
+     * @return The value in the slot, or {@link #UNDEFINED} if nothing was defined there.
+     */
+    public Object get(int slot) {
+        if (slot >= values.length) {
+            return UNDEFINED;
         }
-        if (enclosing != null) {
-            return enclosing.get(name);
+        return box(slot);
+    }
+
+    /**
+     * @return The value in the slot without boxing it: {@link #NUMBER} for a number stored by
+     *         {@link #defineNumber(int, double)}, which {@link #number(int)} then reads.
+     */
+    Object peek(int slot) {
+        if (slot >= values.length) {
+            return UNDEFINED;
         }
-        throw new EnvironmentError("Variable `" + name + "` is not defined.");
+        return values[slot];
+    }
+
+    /**
+     * @return The number in a slot for which {@link #peek(int)} returned {@link #NUMBER}.
+     */
+    double number(int slot) {
+        return numbers[slot];
+    }
+
+    /**
+     * @return Whether something was defined in the slot, without boxing it.
+     */
+    boolean isDefined(int slot) {
+        return slot < values.length && values[slot] != UNDEFINED;
     }
 
-    public void update(String name, Object value) throws EnvironmentError {
-        if (values.containsKey(name)) {
-            if (!mutableVariables.contains(name)) {
-                throw new EnvironmentError("Variable `" + name + "` is not mutable.");
-            }
-            values.put(name, value);
-            return;
+    private Object box(int slot) {
+        Object value = values[slot];
+        if (value == NUMBER) {
+            value = numbers[slot];
+            values[slot] = value;
         }
-        if (enclosing != null) {
-            enclosing.update(name, value);
-            return;
+        return value;
+    }
+
+    /**
+     * Reset the slots starting at <code>from</code> to <code>null</code>, for an environment which is reused.
+     */
+    public void clear(int from) {
+        Arrays.fill(values, from, values.length, null);
+    }
+
+    /**
+     * @return The number of slots, some of which may be {@link #UNDEFINED} in the globals.
+     */
+    public int size() {
+        return values.length;
+    }
+
+    public Object getAt(int depth, int slot) {
+        return ancestor(depth).box(slot);
+    }
+
+    public void updateAt(int depth, int slot, Object value) {
+        ancestor(depth).values[slot] = value;
+    }
+
+    Environment ancestor(int depth) {
+        Environment environment = this;
+        for (int i = 0; i < depth; i++) {
+            environment = environment.enclosing;
         }
-        throw new EnvironmentError("Variable `" + name + "` is not defined.");
+        return environment;
     }
 }
@@ -0,0 +1,70 @@
+package interpreter;
+
+import java.util.Arrays;
+
+/**
+ * Recycles the environments of function calls, blocks and <code>for</code> loops.
+ * <br />
+ * <br />
+ * Functions don't capture the scope they are called in, so nothing can refer to the environment of a
+ * call or a block once it is over, and they end in the reverse order they started. The environments are
+ * therefore kept on one stack per size, and a call only allocates one when recursing deeper than before,
+ * a block when nested deeper than before (not at every iteration of a loop).
+ */
+class FramePool {
+    /**
+     * How many environments of each size are kept, deeper recursions allocate the rest.
+     */
+    private static final int CAPACITY = 1024;
+
+    private final Environment globals;
+    private Environment[][] frames = new Environment[8][];
+    private int[] counts = new int[8];
+
+    FramePool(Environment globals) {
+        this.globals = globals;
+    }
+
+    /**
+     * @return An environment child of the globals with <code>size</code> slots, holding stale values.
+     */
+    Environment acquire(int size) {
+        return acquire(globals, size);
+    }
+
+    /**
+     * @return An environment child of <code>enclosing</code> with <code>size</code> slots, holding stale values.
+     */
+    Environment acquire(Environment enclosing, int size) {
+        if (size < counts.length && counts[size] > 0) {
+            Environment environment = frames[size][--counts[size]];
+            environment.setEnclosing(enclosing);
+            return environment;
+        }
+        return new Environment(enclosing, size);
+    }
+
+    /**
+     * Give back an environment obtained from {@link #acquire} which isn't used anymore.
+     */
+    void release(Environment frame) {
+        int size = frame.size();
+        if (size >= counts.length) {
+            frames = Arrays.copyOf(frames, size + 1);
+            counts = Arrays.copyOf(counts, size + 1);
+        }
+        Environment[] stack = frames[size];
+        if (stack == null) {
+            stack = frames[size] = new Environment[16];
+        }
+        int count = counts[size];
+        if (count == stack.length) {
+            if (count == CAPACITY) {
+                return;
+            }
+            stack = frames[size] = Arrays.copyOf(stack, count * 2);
+        }
+        stack[count] = frame;
+        counts[size] = count + 1;
+    }
+}
@@ -0,0 +1,294 @@
+package interpreter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Where <code>get</code> reads numbers from, a buffer in front of the standard input.
+ * <br />
+ * <br />
+ * The input is a sequence of words separated by whitespaces. A word is a number when it is a decimal like
+ * <code>-12</code>, <code>.5</code> or <code>6.02e23</code>, or <code>NaN</code> or <code>Infinity</code>.
+ * Other words are read as <code>NULL</code>.
+ * <br />
+ * <br />
+ * Numbers are parsed from the bytes of the buffer: when the digits fit in a <code>long</code> which is an
+ * exact double, and the power of ten is exact too, a single multiplication or division rounds correctly.
+ * Longer numbers go through {@link Double#parseDouble(String)}.
+ */
+public class Input {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final long MAX_EXACT = 1L << 53;
+    private static final int MAX_DIGITS = 18;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final byte[] NAN = {'N', 'a', 'N'};
+    private static final byte[] INFINITY = {'I', 'n', 'f', 'i', 'n', 'i', 't', 'y'};
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    private boolean ended = false;
+
+    /**
+     * @param in       Where the input comes from.
+     * @param capacity How many bytes are read at once, and the longest word which can be a number.
+     */
+    public Input(InputStream in, int capacity) {
+        this.in = in;
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * @return An input from the standard input of the process.
+     */
+    public static Input standard() {
+        return new Input(System.in, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Read the next word.
+     *
+     * @return The number it is, or <code>null</code> if it isn't one or if the input ended.
+     */
+    public Double next() {
+        if (!skipWhitespaces()) {
+            return null;
+        }
+        int end = wordEnd();
+        if (end < 0) {
+            return null;
+        }
+        int start = position;
+        position = end;
+        if (!parse(start, end)) {
+            return null;
+        }
+        return parsed;
+    }
+
+    /**
+     * Read as many numbers as possible at once.
+     * Stops at the end of the input, or before a word which isn't a number (the next {@link #next()} reads it,
+     * unless it is longer than the buffer, these are skipped).
+     *
+     * @param numbers Where to put the numbers.
+     * @param offset  Where to put the first number.
+     * @param count   How many numbers to read at most.
+     * @return How many numbers were read.
+     */
+    public int next(double[] numbers, int offset, int count) {
+        int read = 0;
+        while (read < count && skipWhitespaces()) {
+            int end = wordEnd();
+            if (end < 0 || !parse(position, end)) {
+                break;
+            }
+            position = end;
+            numbers[offset + read++] = parsed;
+        }
+        return read;
+    }
+
+    // The number found by the last parse(), kept in a field so that it doesn't need to be boxed.
+    private double parsed;
+
+    /**
+     * Parse the word between two positions of the buffer into {@link #parsed}.
+     *
+     * @return Whether the word is a number.
+     */
+    private boolean parse(int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (buffer[i] == '-' || buffer[i] == '+') {
+            negative = buffer[i] == '-';
+            i++;
+        }
+
+        long digits = 0;
+        int significant = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        boolean exact = true;
+        boolean dot = false;
+        for (; i < to; i++) {
+            byte b = buffer[i];
+            if (b == '.' && !dot) {
+                dot = true;
+                continue;
+            }
+            if (b < '0' || b > '9') {
+                break;
+            }
+            anyDigit = true;
+            if (significant < MAX_DIGITS) {
+                digits = digits * 10 + (b - '0');
+                if (digits != 0) {
+                    significant++;
+                }
+                if (dot) {
+                    exponent--;
+                }
+            } else {
+                exact = false;
+                if (!dot) {
+                    exponent++;
+                }
+            }
+        }
+        if (!anyDigit) {
+            if (dot) {
+                return false;
+            }
+            if (matches(INFINITY, i, to)) {
+                parsed = negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+                return true;
+            }
+            parsed = Double.NaN;
+            return matches(NAN, i, to);
+        }
+
+        if (i < to && (buffer[i] == 'e' || buffer[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (buffer[i] == '-' || buffer[i] == '+')) {
+                negativeExponent = buffer[i] == '-';
+                i++;
+            }
+            if (i == to) {
+                return false;
+            }
+            int value = 0;
+            for (; i < to && buffer[i] >= '0' && buffer[i] <= '9'; i++) {
+                // Past this, the number is zero or infinite anyway.
+                if (value < 100_000) {
+                    value = value * 10 + (buffer[i] - '0');
+                }
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (i != to) {
+            return false;
+        }
+
+        double value;
+        if (exact && digits < MAX_EXACT && -POWERS_OF_TEN.length < exponent && exponent < POWERS_OF_TEN.length) {
+            value = exponent < 0 ? digits / POWERS_OF_TEN[-exponent] : digits * POWERS_OF_TEN[exponent];
+            parsed = negative ? -value : value;
+        } else {
+            parsed = Double.parseDouble(new String(buffer, from, to - from, StandardCharsets.ISO_8859_1));
+        }
+        return true;
+    }
+
+    private boolean matches(byte[] word, int from, int to) {
+        if (to - from != word.length) {
+            return false;
+        }
+        for (int i = 0; i < word.length; i++) {
+            if (buffer[from + i] != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skip the whitespaces before the next word.
+     *
+     * @return Whether there is a next word, <code>false</code> at the end of the input.
+     */
+    private boolean skipWhitespaces() {
+        while (true) {
+            while (position < limit) {
+                if (buffer[position] > ' ') {
+                    return true;
+                }
+                position++;
+            }
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Find the end of the word starting at {@link #position}, reading more input until it is in the buffer.
+     *
+     * @return The position after the last byte of the word, or <code>-1</code> if it is longer than the
+     *         buffer, in which case it is skipped.
+     */
+    private int wordEnd() {
+        int end = position;
+        while (true) {
+            while (end < limit) {
+                if (buffer[end] <= ' ') {
+                    return end;
+                }
+                end++;
+            }
+            int length = end - position;
+            if (ended) {
+                return end;
+            }
+            if (length == buffer.length) {
+                while (skipWord()) {
+                    if (!fill()) {
+                        break;
+                    }
+                }
+                return -1;
+            }
+            fill();
+            end = position + length;
+        }
+    }
+
+    /**
+     * Skip the bytes of a word until a whitespace.
+     *
+     * @return Whether the word goes on past the buffer.
+     */
+    private boolean skipWord() {
+        while (position < limit) {
+            if (buffer[position] <= ' ') {
+                return false;
+            }
+            position++;
+        }
+        return true;
+    }
+
+    /**
+     * Read more input, keeping the bytes from {@link #position} at the start of the buffer.
+     *
+     * @return Whether anything was read.
+     */
+    private boolean fill() {
+        if (ended) {
+            return false;
+        }
+        int kept = limit - position;
+        System.arraycopy(buffer, position, buffer, 0, kept);
+        position = 0;
+        limit = kept;
+        try {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                ended = true;
+                return false;
+            }
+            limit += read;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
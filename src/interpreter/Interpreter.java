@@ -7,20 +7,56 @@ import language.Statement;
 import scanner.TokenType;
 import util.Message;
 
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
 
 public class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void> {
 
     public final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Scanner scanner = new Scanner(System.in);
+    private final Map<String, Integer> globalSlots = new HashMap<>();
+    protected Environment environment = globals;
+    protected final Input input;
+    protected final Output output;
 
     public Interpreter() {
-        globals.define("time", new Callable() {
+        this(Input.standard(), Output.standard(false));
+    }
+
+    /**
+     * @param input  Where <code>get</code> reads from.
+     * @param output Where <code>show</code> prints.
+     */
+    public Interpreter(Input input, Output output) {
+        this.input = input;
+        this.output = output;
+        for (Map.Entry<String, Callable> builtin : BUILTINS.entrySet()) {
+            defineNative(builtin.getKey(), builtin.getValue());
+        }
+    }
+
+    /**
+     * The native functions every program can call. They don't keep any state, so interpreters share them,
+     * and they are defined in this order, in the same slots in every interpreter.
+     */
+    static final Map<String, Callable> BUILTINS = builtins();
+
+    /**
+     * @return Whether the name is the one of a native function every program can call.
+     */
+    public static boolean isBuiltin(String name) {
+        return BUILTINS.containsKey(name);
+    }
+
+    private static Map<String, Callable> builtins() {
+        Map<String, Callable> builtins = new LinkedHashMap<>();
+        builtins.put("time", new Callable() {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call(Interpreter interpreter, Object[] arguments) {
                 return (double) System.currentTimeMillis() / 1000.0;
             }
 
@@ -33,15 +69,15 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
             public String toString() {
                 return "<fn time>";
             }
-        }, false);
-        globals.define("sin", new Callable() {
+        });
+        builtins.put("sin", new Callable() {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                if (!(arguments.get(0) instanceof Double)) {
+            public Object call(Interpreter interpreter, Object[] arguments) {
+                if (!(arguments[0] instanceof Double)) {
                     Message.error("Expected a number value");
                     throw new RuntimeError();
                 }
-                return Math.sin((double) arguments.get(0));
+                return Math.sin((double) arguments[0]);
             }
 
             @Override
@@ -53,15 +89,15 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
             public String toString() {
                 return "<fn sin>";
             }
-        }, false);
-        globals.define("cos", new Callable() {
+        });
+        builtins.put("cos", new Callable() {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                if (!(arguments.get(0) instanceof Double)) {
+            public Object call(Interpreter interpreter, Object[] arguments) {
+                if (!(arguments[0] instanceof Double)) {
                     Message.error("Expected a number value");
                     throw new RuntimeError();
                 }
-                return Math.cos((double) arguments.get(0));
+                return Math.cos((double) arguments[0]);
             }
 
             @Override
@@ -73,15 +109,15 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
             public String toString() {
                 return "<fn cos>";
             }
-        }, false);
-        globals.define("tan", new Callable() {
+        });
+        builtins.put("tan", new Callable() {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                if (!(arguments.get(0) instanceof Double)) {
+            public Object call(Interpreter interpreter, Object[] arguments) {
+                if (!(arguments[0] instanceof Double)) {
                     Message.error("Expected a number value");
                     throw new RuntimeError();
                 }
-                return Math.tan((double) arguments.get(0));
+                return Math.tan((double) arguments[0]);
             }
 
             @Override
@@ -93,15 +129,15 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
             public String toString() {
                 return "<fn tan>";
             }
-        }, false);
-        globals.define("log", new Callable() {
+        });
+        builtins.put("log", new Callable() {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                if (!(arguments.get(0) instanceof Double)) {
+            public Object call(Interpreter interpreter, Object[] arguments) {
+                if (!(arguments[0] instanceof Double)) {
                     Message.error("Expected a number value");
                     throw new RuntimeError();
                 }
-                return Math.log((double) arguments.get(0));
+                return Math.log((double) arguments[0]);
             }
 
             @Override
@@ -113,15 +149,15 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
             public String toString() {
                 return "<fn log>";
             }
-        }, false);
-        globals.define("round", new Callable() {
+        });
+        builtins.put("round", new Callable() {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                if (!(arguments.get(0) instanceof Double)) {
+            public Object call(Interpreter interpreter, Object[] arguments) {
+                if (!(arguments[0] instanceof Double)) {
                     Message.error("Expected a number value");
                     throw new RuntimeError();
                 }
-                return (double) Math.round((double) arguments.get(0));
+                return (double) Math.round((double) arguments[0]);
             }
 
             @Override
@@ -133,18 +169,99 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
             public String toString() {
                 return "<fn round>";
             }
-        }, false);
+        });
+        return Collections.unmodifiableMap(builtins);
+    }
+
+    public static class RuntimeError extends RuntimeException {
+    }
+
+    private void defineNative(String name, Callable function) {
+        globals.define(globalSlot(name), function);
+    }
+
+    /**
+     * Get the slot of a global variable in {@link #globals}, allocating one if the name is new.
+     */
+    int globalSlot(String name) {
+        return globalSlots.computeIfAbsent(name, k -> globalSlots.size());
     }
 
-    static class RuntimeError extends RuntimeException {
+    /**
+     * @return The names of the globals known so far, i.e. the builtins before any program was resolved.
+     */
+    Iterable<String> globalNames() {
+        return globalSlots.keySet();
     }
 
-    private boolean hadError = false;
+    /**
+     * @return The slots of the globals known so far in {@link #globals}, by name. Another interpreter has
+     *         the builtins in the same slots, so a program resolved here can run there.
+     */
+    public Map<String, Integer> getGlobalSlots() {
+        return Map.copyOf(globalSlots);
+    }
+
+    protected boolean hadError = false;
+
+    /**
+     * Set by a <code>return</code> statement, so that the enclosing blocks and loops stop executing,
+     * and cleared by the call which is returning.
+     */
+    protected boolean returning = false;
+    protected Object returnValue = null;
+    /**
+     * A call in tail position, made by {@link #callFunction(Function, Environment)} once the returning
+     * function has unwound, so that tail calls don't grow the Java stack. User defined functions get
+     * their environment ready in {@link #tailFrame}, other callables their arguments in {@link #tailArguments}.
+     */
+    protected Callable tailCallee = null;
+    protected Environment tailFrame = null;
+    protected Object[] tailArguments = null;
+    final FramePool frames = new FramePool(globals);
+    /**
+     * The values of the {@link Expression.Invariant} of the innermost loop running which has some, an
+     * invariant which wasn't evaluated yet holds {@link #NOT_EVALUATED}.
+     */
+    protected Object[] invariants = null;
+    static final Object NOT_EVALUATED = new Object();
+    /**
+     * The number read by {@link #evaluateOperand(Expression)} when it returned {@link Environment#NUMBER}.
+     */
+    double operand;
+    /**
+     * The cache of every memoized declaration executed so far, shared by all the functions it declared, since they
+     * compute the same results. Declarations are {@link Statement.FunctionDeclaration}s compared by identity, or
+     * the nodes of a {@link language.CompactTree}.
+     */
+    private final Map<Object, MemoCache> memoCaches = new LinkedHashMap<>();
+
+    /**
+     * @return The cache of a memoized declaration, created the first time it is executed.
+     */
+    MemoCache memoCache(Object declaration, String name, int arity) {
+        return memoCaches.computeIfAbsent(declaration, d -> new MemoCache(name, arity, MemoCache.DEFAULT_CAPACITY));
+    }
+
+    /**
+     * @return The caches of the memoized functions declared so far, for their statistics.
+     */
+    public List<MemoCache> getMemoCaches() {
+        return List.copyOf(memoCaches.values());
+    }
 
     public boolean isHadError() {
         return this.hadError;
     }
 
+    public Input getInput() {
+        return this.input;
+    }
+
+    public Output getOutput() {
+        return this.output;
+    }
+
     public void interpret(List<Statement> statements) {
         try {
             for (Statement statement : statements) {
@@ -152,10 +269,18 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
             }
         } catch (RuntimeError e) {
             this.hadError = true;
+        } catch (StackOverflowError e) {
+            Message.error("Stack overflow.");
+            this.hadError = true;
+        } finally {
+            output.flush();
         }
     }
 
-    private void execute(Statement statement) {
+    /**
+     * Execute a statement, every statement of the program goes through here.
+     */
+    void execute(Statement statement) {
         statement.accept(this);
     }
 
@@ -165,21 +290,131 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
             this.environment = environment;
             for (Statement statement : block.statements) {
                 execute(statement);
+                if (returning) {
+                    break;
+                }
             }
         } finally {
             this.environment = previous;
         }
     }
 
-    private String stringify(Object value) {
+    /**
+     * Call a user defined function with arguments which were already evaluated.
+     */
+    public Object callFunction(Function function, Object[] arguments) {
+        Environment frame = frames.acquire(function.declaration.slots);
+        for (int i = 0; i < arguments.length; i++) {
+            frame.define(i, arguments[i]);
+        }
+        frame.clear(arguments.length);
+        return callFunction(function, frame);
+    }
+
+    /**
+     * Call a user defined function, whose environment holds the arguments already.
+     * <br />
+     * <br />
+     * When the function ends with a call in tail position, the callee is run by the loop in
+     * {@link #execute(Function, Environment)} instead of on top of the current call, which is what
+     * keeps tail recursion in constant stack. Memoized functions reached that way aren't cached.
+     */
+    private Object callFunction(Function function, Environment frame) {
+        MemoCache memo = function.memo;
+        if (memo == null) {
+            return execute(function, frame);
+        }
+        long[] key = memo.scratch;
+        if (!memo.encode(frame, key)) {
+            return execute(function, frame);
+        }
+        int entry = memo.find(key);
+        if (entry >= 0) {
+            frames.release(frame);
+            return memo.result(entry);
+        }
+        // The scratch key gets overwritten by the calls made in the body.
+        key = key.clone();
+        Object result = execute(function, frame);
+        memo.put(key, result);
+        return result;
+    }
+
+    /**
+     * Run the body of a function, and of the functions it calls in tail position.
+     */
+    private Object execute(Function function, Environment frame) {
+        while (true) {
+            executeBody(function, frame);
+            frames.release(frame);
+
+            if (!returning) {
+                return null;
+            }
+            returning = false;
+            Callable callee = tailCallee;
+            if (callee == null) {
+                Object value = returnValue;
+                returnValue = null;
+                return value;
+            }
+            tailCallee = null;
+            if (tailFrame == null) {
+                Object[] arguments = tailArguments;
+                tailArguments = null;
+                return callee.call(this, arguments);
+            }
+            function = (Function) callee;
+            frame = tailFrame;
+            tailFrame = null;
+        }
+    }
+
+    /**
+     * Make the function being executed return a value, for code running a function body without
+     * <code>return</code> statements.
+     */
+    void setReturn(Object value) {
+        returnValue = value;
+        returning = true;
+    }
+
+    /**
+     * Called at the end of every iteration of a loop, once its body executed without returning. The tree-walker
+     * goes on with the loop, other engines may run the rest of it.
+     *
+     * @param loop        A <code>while</code> or <code>for</code> statement.
+     * @param environment The environment the loop runs in, the one of its counter for a <code>for</code>.
+     * @param higher      The upper bound of a <code>for</code>.
+     * @return Whether the rest of the loop was run.
+     */
+    boolean loopBack(Statement loop, Environment environment, double higher) {
+        return false;
+    }
+
+    /**
+     * @return Whether {@link #loopBack} looks at the loops, which then need the variable of a <code>for</code>
+     *         in its environment at every iteration, and may change it.
+     */
+    boolean watchesLoops() {
+        return false;
+    }
+
+    /**
+     * Execute the body of a function once its environment is ready, every call of a user defined function
+     * goes through here (but not the memoized calls which are found in the cache).
+     */
+    void executeBody(Function function, Environment frame) {
+        executeBlock(function.declaration.body, frame);
+    }
+
+    public static String stringify(Object value) {
         if (value == null)
             return "NULL";
-        if (value instanceof Double) {
-            String text = value.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
+        if (value instanceof Double number) {
+            byte[] text = new byte[NumberFormatter.MAX_LENGTH];
+            int length = NumberFormatter.format(number, text, 0);
+            return new String(text, 0, length, StandardCharsets.US_ASCII);
         }
 
         return value.toString();
@@ -187,44 +422,50 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
     @Override
     public Void visitExpressionStatement(Statement.ExpressionStatement expressionStatement) {
-        evaluate(expressionStatement.expression);
+        if (expressionStatement.expression instanceof Expression.Assignment assignment
+                && isNumeric(assignment.expression)) {
+            assignNumber(assignment);
+        } else {
+            evaluate(expressionStatement.expression);
+        }
         return null;
     }
 
     @Override
     public Void visitPrintStatement(Statement.PrintStatement printStatement) {
         for (Expression expression : printStatement.expressions) {
-            Object value = evaluate(expression);
-            System.out.print(stringify(value) + " ");
+            output.print(evaluate(expression));
         }
-        System.out.println();
+        output.println();
         return null;
     }
 
     @Override
-    public Void visitVariableDeclarationStatement(Statement.VariableDeclaration variableDeclaration)
-            throws RuntimeError {
-        try {
-            environment.define(
-                    variableDeclaration.identifier.lexeme,
-                    evaluate(variableDeclaration.expression),
-                    variableDeclaration.mutable);
-        } catch (Environment.EnvironmentError e) {
-            Message.error(variableDeclaration.identifier.line, e.message);
-            throw new RuntimeError();
-        }
+    public Void visitVariableDeclarationStatement(Statement.VariableDeclaration variableDeclaration) {
+        environment.define(variableDeclaration.slot, evaluate(variableDeclaration.expression));
         return null;
     }
 
     @Override
     public Void visitBlockStatement(Statement.Block blockStatement) {
-        executeBlock(blockStatement, new Environment(environment));
+        if (blockStatement.slots == 0) {
+            // Nothing is declared in the block, it runs in the environment around it.
+            executeBlock(blockStatement, environment);
+            return null;
+        }
+        Environment blockEnvironment = frames.acquire(environment, blockStatement.slots);
+        blockEnvironment.clear(0);
+        try {
+            executeBlock(blockStatement, blockEnvironment);
+        } finally {
+            frames.release(blockEnvironment);
+        }
         return null;
     }
 
     @Override
     public Void visitIfStatement(Statement.IfStatement ifStatement) {
-        if (truthy(evaluate(ifStatement.condition))) {
+        if (evaluateBoolean(ifStatement.condition)) {
             execute(ifStatement.thenBranch);
         } else if (ifStatement.elseBranch != null) {
             execute(ifStatement.elseBranch);
@@ -234,176 +475,252 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
     @Override
     public Void visitWhileStatement(Statement.WhileStatement whileStatement) {
-        while (truthy(evaluate(whileStatement.condition))) {
-            execute(whileStatement.body);
+        Object[] enclosingInvariants = invariants;
+        try {
+            if (whileStatement.invariants > 0) {
+                invariants = newInvariants(whileStatement.invariants);
+            }
+            while (evaluateBoolean(whileStatement.condition)) {
+                execute(whileStatement.body);
+                if (returning || loopBack(whileStatement, environment, 0)) {
+                    break;
+                }
+            }
+        } finally {
+            invariants = enclosingInvariants;
         }
         return null;
     }
 
+    /**
+     * @return The values of the invariants of a loop which starts, none of which is evaluated yet.
+     */
+    static Object[] newInvariants(int count) {
+        Object[] values = new Object[count];
+        Arrays.fill(values, NOT_EVALUATED);
+        return values;
+    }
+
     @Override
     public Void visitForStatement(Statement.ForStatement forStatement) throws RuntimeError {
         Object lower = evaluate(forStatement.lower);
         Object higher = evaluate(forStatement.higher);
-        Environment previous = environment;
-        Environment forEnvironment = new Environment(environment);
-        this.environment = forEnvironment;
         if (!(lower instanceof Double) || !(higher instanceof Double)) {
             Message.error(forStatement.identifier.line, "Lower and upper bounds must be numbers");
             throw new RuntimeError();
         }
-        forEnvironment.define(forStatement.identifier.lexeme, lower, true);
+        Environment previous = environment;
+        Environment forEnvironment = frames.acquire(environment, 1);
+        this.environment = forEnvironment;
+        forEnvironment.define(0, lower);
+        Object[] enclosingInvariants = invariants;
+        try {
+            if (forStatement.invariants > 0) {
+                invariants = newInvariants(forStatement.invariants);
+            }
+            if (forStatement.counterAssigned || watchesLoops()) {
+                countInEnvironment(forStatement, forEnvironment, (double) higher);
+            } else {
+                count(forStatement, forEnvironment, (double) lower, (double) higher);
+            }
+        } finally {
+            invariants = enclosingInvariants;
+            this.environment = previous;
+            frames.release(forEnvironment);
+        }
+        return null;
+    }
+
+    /**
+     * Run a loop whose variable may be assigned by its body (or by {@link #loopBack}), reading it back from the
+     * environment every time.
+     */
+    private void countInEnvironment(Statement.ForStatement forStatement, Environment forEnvironment, double higher) {
         while (true) {
             execute(forStatement.body);
-            Object step = evaluate(forStatement.step);
-            if (!(step instanceof Double)) {
-                Message.error(forStatement.identifier.line, "The step should be a number.");
-                throw new RuntimeError();
+            if (returning || loopBack(forStatement, forEnvironment, higher)) {
+                break;
             }
-            double i = (double) forEnvironment.get(forStatement.identifier.lexeme);
-            if ((double) step > 0 && (i + (double) step) > (double) higher)
+            double step = step(forStatement);
+            double i = (double) forEnvironment.get(0);
+            if (step > 0 && (i + step) > higher)
                 break;
-            if ((double) step < 0 && (i + (double) step) < (double) higher)
+            if (step < 0 && (i + step) < higher)
                 break;
-            if (i == (double) higher)
+            if (i == higher)
                 break;
-            forEnvironment.update(
-                    forStatement.identifier.lexeme,
-                    (double) forEnvironment.get(forStatement.identifier.lexeme) + (double) step);
+            forEnvironment.define(0, i + step);
         }
+    }
 
-        this.environment = previous;
-        return null;
+    /**
+     * Run a loop whose variable is only moved by the loop, so that it can be kept in a primitive. It is only
+     * boxed into the environment when the body or the step read it, and a constant step is evaluated once. A step
+     * which isn't constant, like <code>by i</code>, is still evaluated at every iteration, after the body.
+     */
+    private void count(Statement.ForStatement forStatement, Environment forEnvironment, double i, double higher) {
+        boolean store = forStatement.counterRead;
+        boolean constant = forStatement.step instanceof Expression.Literal literal && literal.value instanceof Double;
+        double step = constant ? (double) ((Expression.Literal) forStatement.step).value : 0;
+        while (true) {
+            execute(forStatement.body);
+            if (returning) {
+                break;
+            }
+            if (loopBack(forStatement, forEnvironment, higher)) {
+                break;
+            }
+            if (!constant) {
+                step = step(forStatement);
+            }
+            if (step > 0 && (i + step) > higher)
+                break;
+            if (step < 0 && (i + step) < higher)
+                break;
+            if (i == higher)
+                break;
+            i += step;
+            if (store) {
+                forEnvironment.defineNumber(0, i);
+            }
+        }
+    }
+
+    private double step(Statement.ForStatement forStatement) throws RuntimeError {
+        Object step = evaluate(forStatement.step);
+        if (!(step instanceof Double)) {
+            Message.error(forStatement.identifier.line, "The step should be a number.");
+            throw new RuntimeError();
+        }
+        return (double) step;
     }
 
     @Override
     public Void visitFunctionDeclarationStatement(Statement.FunctionDeclaration functionDeclarationStatement) {
-        Function function = new Function(functionDeclarationStatement);
-        try {
-            environment.define(functionDeclarationStatement.identifier.lexeme, function, false);
-        } catch (Environment.EnvironmentError e) {
-            Message.error(functionDeclarationStatement.identifier.line, e.message);
-            throw new RuntimeError();
+        MemoCache memo = null;
+        if (functionDeclarationStatement.memoize) {
+            memo = memoCache(functionDeclarationStatement, functionDeclarationStatement.identifier.lexeme,
+                    functionDeclarationStatement.parameters.size());
+        }
+        Function function = new Function(functionDeclarationStatement, memo);
+        environment.define(functionDeclarationStatement.slot, function);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.ReturnStatement returnStatement) {
+        Expression value = returnStatement.value;
+        while (value instanceof Expression.Grouping grouping) {
+            value = grouping.expression;
+        }
+        if (value instanceof Expression.Call call) {
+            // Leave the call to the caller, once this function is gone from the stack.
+            Callable function = callee(call);
+            if (function instanceof Function user) {
+                tailFrame = frame(user, call);
+            } else {
+                tailArguments = arguments(function, call);
+            }
+            tailCallee = function;
+        } else {
+            returnValue = value == null ? null : evaluate(value);
         }
+        returning = true;
         return null;
     }
 
     @Override
     public Object visitBinaryExpression(Expression.Binary expression) throws RuntimeError {
-        Object left = evaluate(expression.left);
-        Object right = evaluate(expression.right);
-        switch (expression.operator.type) {
-            case MINUS -> {
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left - (double) right;
-                } else {
-                    Message.error(expression.operator.line, "Expected number values");
-                    throw new RuntimeError();
-                }
-            }
-            case PLUS -> {
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
-                } else {
-                    Message.error(expression.operator.line, "Expected number values");
-                    throw new RuntimeError();
-                }
-            }
-            case STAR -> {
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left * (double) right;
-                } else {
-                    Message.error(expression.operator.line, "Expected number values");
-                    throw new RuntimeError();
-                }
-            }
-            case DOUBLE_STAR -> {
-                if (left instanceof Double && right instanceof Double) {
-                    return Math.pow((double) left, (double) right);
-                } else {
-                    Message.error(expression.operator.line, "Expected number values");
-                    throw new RuntimeError();
-                }
-            }
-            case SLASH -> {
-                if (left instanceof Double && right instanceof Double) {
-                    if ((double) right == 0.0) {
-                        Message.error(expression.operator.line, "Division by zero is not allowed");
-                        throw new RuntimeError();
-                    }
-                    return (double) left / (double) right;
-                } else {
-                    Message.error(expression.operator.line, "Expected number values");
-                    throw new RuntimeError();
-                }
-            }
-            case MODULO -> {
-                if (left instanceof Double && right instanceof Double) {
-                    if ((double) right == 0.0) {
-                        Message.error(expression.operator.line, "Division by zero is not allowed");
-                        throw new RuntimeError();
-                    }
-                    return (double) left % (double) right;
-                } else {
-                    Message.error(expression.operator.line, "Expected number values");
-                    throw new RuntimeError();
-                }
-            }
-            case DOUBLE_EQUAL -> {
-                if (left == null && right == null)
-                    return true;
-                if (left == null)
-                    return false;
-                // System.out.println("INFO: cmp: " + left + " " + right);
-                return left.equals(right);
-            }
-            case GREATER -> {
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left > (double) right;
-                } else {
-                    Message.error(expression.operator.line, "Expected number values");
-                    throw new RuntimeError();
-                }
-            }
-            case GREATER_EQUAL -> {
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left >= (double) right;
-                } else {
-                    Message.error(expression.operator.line, "Expected number values");
-                    throw new RuntimeError();
-                }
-            }
-            case LESS -> {
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left < (double) right;
-                } else {
-                    Message.error(expression.operator.line, "Expected number values");
-                    throw new RuntimeError();
-                }
-            }
-            case LESS_EQUAL -> {
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left <= (double) right;
-                } else {
-                    Message.error(expression.operator.line, "Expected number values");
-                    throw new RuntimeError();
-                }
-            }
+        BinaryNode node = expression.node;
+        if (node == null) {
+            return BinaryNode.executeUninitialized(this, expression);
         }
+        return node.execute(this);
+    }
 
-        return null;
+    /**
+     * Evaluate an expression which is known to produce a number, without boxing the intermediate results.
+     * Only {@link #isNumeric(Expression) numeric} expressions may be passed here.
+     */
+    double evaluateDouble(Expression expression) throws RuntimeError {
+        if (expression instanceof Expression.Binary binary) {
+            BinaryNode node = binary.node;
+            if (node == null) {
+                return (double) BinaryNode.executeUninitialized(this, binary);
+            }
+            return node.executeDouble(this);
+        }
+        if (expression instanceof Expression.Literal literal) {
+            return (double) literal.value;
+        }
+        if (expression instanceof Expression.Grouping grouping) {
+            return evaluateDouble(grouping.expression);
+        }
+
+        Expression.Unary unary = (Expression.Unary) expression;
+        if (isNumeric(unary.right)) {
+            return -evaluateDouble(unary.right);
+        }
+        Object value = evaluate(unary.right);
+        if (!(value instanceof Double)) {
+            Message.error(unary.operator.line, "Expected number value");
+            throw new RuntimeError();
+        }
+        return -(double) value;
+    }
+
+    /**
+     * Evaluate an expression for its truthiness, without boxing the intermediate results.
+     * Any expression may be passed here.
+     */
+    private boolean evaluateBoolean(Expression expression) throws RuntimeError {
+        if (expression instanceof Expression.Binary binary) {
+            BinaryNode node = binary.node;
+            if (node == null) {
+                return truthy(BinaryNode.executeUninitialized(this, binary));
+            }
+            return node.executeBoolean(this);
+        } else if (expression instanceof Expression.Logical logical) {
+            // `a or b` evaluates to either `a` or `b`, so only their truthiness matters here.
+            if (logical.operator.type == TokenType.OR) {
+                return evaluateBoolean(logical.left) || evaluateBoolean(logical.right);
+            }
+            return evaluateBoolean(logical.left) && evaluateBoolean(logical.right);
+        } else if (expression instanceof Expression.Grouping grouping) {
+            return evaluateBoolean(grouping.expression);
+        }
+
+        return truthy(evaluate(expression));
+    }
+
+    /**
+     * @return Whether the expression always evaluates to a number (or fails on its own), so
+     * that it can be passed to {@link #evaluateDouble(Expression)}.
+     */
+    static boolean isNumeric(Expression expression) {
+        if (expression instanceof Expression.Binary binary) {
+            return switch (binary.operator.type) {
+                case PLUS, MINUS, STAR, SLASH, MODULO, DOUBLE_STAR -> true;
+                default -> false;
+            };
+        }
+        if (expression instanceof Expression.Unary unary) {
+            return unary.operator.type == TokenType.MINUS;
+        }
+        if (expression instanceof Expression.Literal literal) {
+            return literal.value instanceof Double;
+        }
+        if (expression instanceof Expression.Grouping grouping) {
+            return isNumeric(grouping.expression);
+        }
+        return false;
     }
 
     @Override
     public Object visitUnaryExpression(Expression.Unary expression) {
         switch (expression.operator.type) {
             case MINUS -> {
-                Object right = evaluate(expression.right);
-                if (right instanceof Double)
-                    return -(double) right;
-                else {
-                    Message.error(expression.operator.line, "Expected number value");
-                    throw new RuntimeError();
-                }
+                return evaluateDouble(expression);
             }
             case NOT -> {
                 Object right = evaluate(expression.right);
@@ -426,13 +743,8 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
     @Override
     public Object visitGetExpression(Expression.Get expression) {
-        double value;
-        try {
-            value = scanner.nextDouble();
-        } catch (Exception e) {
-            return null;
-        }
-        return value;
+        output.flush();
+        return input.next();
     }
 
     @Override
@@ -440,24 +752,78 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         return evaluate(expression.expression);
     }
 
+    /**
+     * An invariant is evaluated where it is first needed, so that it fails at the same place if it fails,
+     * and its value is then reused until the loop ends.
+     */
+    @Override
+    public Object visitInvariantExpression(Expression.Invariant expression) {
+        Object value = invariants[expression.index];
+        if (value == NOT_EVALUATED) {
+            value = evaluate(expression.expression);
+            invariants[expression.index] = value;
+        }
+        return value;
+    }
+
     @Override
     public Object visitVariableExpression(Expression.Variable expression) throws RuntimeError {
-        try {
-            return environment.get(expression.identifier.lexeme);
-        } catch (Environment.EnvironmentError e) {
-            Message.error(expression.identifier.line, e.message);
+        if (expression.depth >= 0) {
+            return environment.getAt(expression.depth, expression.slot);
+        }
+        Object value = globals.get(expression.slot);
+        if (value == Environment.UNDEFINED) {
+            Message.error(expression.identifier.line, "Variable `" + expression.identifier.lexeme + "` is not defined.");
+            throw new RuntimeError();
+        }
+        return value;
+    }
+
+    /**
+     * Evaluate an operand of a {@link BinaryNode} specialized on numbers which isn't known to be
+     * {@link #isNumeric(Expression) numeric}. A variable holding an unboxed number isn't boxed for it:
+     * {@link Environment#NUMBER} is returned, and the number is left in {@link #operand}.
+     */
+    Object evaluateOperand(Expression expression) throws RuntimeError {
+        if (!(expression instanceof Expression.Variable variable)) {
+            return evaluate(expression);
+        }
+        Environment holder = variable.depth >= 0 ? environment.ancestor(variable.depth) : globals;
+        Object value = holder.peek(variable.slot);
+        if (value == Environment.NUMBER) {
+            operand = holder.number(variable.slot);
+        } else if (value == Environment.UNDEFINED) {
+            Message.error(variable.identifier.line, "Variable `" + variable.identifier.lexeme + "` is not defined.");
             throw new RuntimeError();
         }
+        return value;
+    }
+
+    /**
+     * Assign a number whose value isn't used afterwards, like in <code>i = i + 1;</code>, without boxing it.
+     */
+    void assignNumber(Expression.Assignment assignment) throws RuntimeError {
+        double value = evaluateDouble(assignment.expression);
+        if (assignment.depth >= 0) {
+            environment.ancestor(assignment.depth).defineNumber(assignment.slot, value);
+        } else if (!globals.isDefined(assignment.slot)) {
+            Message.error(assignment.identifier.line, "Variable `" + assignment.identifier.lexeme + "` is not defined.");
+            throw new RuntimeError();
+        } else {
+            globals.defineNumber(assignment.slot, value);
+        }
     }
 
     @Override
     public Object visitAssignmentExpression(Expression.Assignment assignment) {
         Object value = evaluate(assignment.expression);
-        try {
-            environment.update(assignment.identifier.lexeme, value);
-        } catch (Environment.EnvironmentError e) {
-            Message.error(assignment.identifier.line, e.message);
+        if (assignment.depth >= 0) {
+            environment.updateAt(assignment.depth, assignment.slot, value);
+        } else if (globals.get(assignment.slot) == Environment.UNDEFINED) {
+            Message.error(assignment.identifier.line, "Variable `" + assignment.identifier.lexeme + "` is not defined.");
             throw new RuntimeError();
+        } else {
+            globals.define(assignment.slot, value);
         }
         return value;
     }
@@ -478,28 +844,75 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
     @Override
     public Object visitCallExpression(Expression.Call expression) throws RuntimeError {
+        Callable function = callee(expression);
+        if (function instanceof Function user) {
+            return callFunction(user, frame(user, expression));
+        }
+        return function.call(this, arguments(function, expression));
+    }
+
+    /**
+     * Evaluate the callee of a call, and check that it can be called.
+     */
+    private Callable callee(Expression.Call expression) throws RuntimeError {
         Object callee = evaluate(expression.callee);
         if (!(callee instanceof Callable function)) {
             Message.error(expression.token.line, "You can only call functions");
             throw new RuntimeError();
         }
-        List<Object> arguments = new ArrayList<>();
-        for (Expression argument : expression.arguments) {
-            arguments.add(evaluate(argument));
+        return function;
+    }
+
+    /**
+     * Evaluate the arguments of a call to a user defined function straight into the environment of the call.
+     */
+    private Environment frame(Function function, Expression.Call expression) throws RuntimeError {
+        int count = expression.arguments.size();
+        if (function.declaration != expression.target) {
+            if (count != function.arity()) {
+                arguments(function, expression);
+            }
+            expression.target = function.declaration;
         }
-        if (arguments.size() != function.arity()) {
-            Message.error(expression.token.line,
-                    "Expected " + function.arity() + " arguments but got " + arguments.size());
-            throw new RuntimeError();
+        Environment frame = frames.acquire(function.declaration.slots);
+        for (int i = 0; i < count; i++) {
+            frame.define(i, evaluate(expression.arguments.get(i)));
+        }
+        frame.clear(count);
+        return frame;
+    }
+
+    /**
+     * Evaluate the arguments of a call, and check that there are as many as the function expects.
+     * The checks are skipped when this function was already called at this site.
+     * <br />
+     * <br />
+     * A site remembers the declaration of a user defined function rather than the function, which only lives as
+     * long as its interpreter, so that interpreters running the same program on several threads agree on it
+     * and stop writing to it once it is known.
+     */
+    private Object[] arguments(Callable function, Expression.Call expression) throws RuntimeError {
+        int count = expression.arguments.size();
+        Object[] arguments = new Object[count];
+        for (int i = 0; i < count; i++) {
+            arguments[i] = evaluate(expression.arguments.get(i));
+        }
+        Object target = function instanceof Function user ? user.declaration : function;
+        if (target != expression.target) {
+            if (count != function.arity()) {
+                Message.error(expression.token.line, "Expected " + function.arity() + " arguments but got " + count);
+                throw new RuntimeError();
+            }
+            expression.target = target;
         }
-        return function.call(this, arguments);
+        return arguments;
     }
 
-    private Object evaluate(Expression expression) {
+    Object evaluate(Expression expression) {
         return expression.accept(this);
     }
 
-    private Boolean truthy(Object object) {
+    boolean truthy(Object object) {
         if (object == null)
             return false;
         if (object instanceof Boolean)
@@ -0,0 +1,852 @@
+package interpreter;
+
+import jit.ClassWriter;
+import jit.Opcodes;
+import language.Callable;
+import language.Expression;
+import language.Function;
+import language.Statement;
+import scanner.TokenType;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Compiles hot functions and loops to JVM classes, where every variable is a <code>double</code> local
+ * which the JIT of the JVM can keep in a register.
+ * <br />
+ * <br />
+ * Only code working on numbers is compiled: arithmetic, comparisons, variables, <code>if</code>, loops,
+ * <code>return</code>, and calls to <code>sin</code>, <code>cos</code>, <code>tan</code>, <code>log</code>,
+ * <code>round</code> and to user defined functions which can be compiled too. The functions called from a
+ * compiled function or loop become methods of the same class, a call in tail position to the function itself
+ * becomes a jump. Anything else (<code>show</code>, <code>get</code>, booleans or <code>NULL</code> in
+ * variables, memoized functions...) leaves the code to the tree-walker.
+ * <br />
+ * <br />
+ * Globals live in fields of the generated class, read when the code is entered. A compiled loop keeps the
+ * variables of the environments around it in locals, and writes back the ones it assigned when it stops.
+ * It also keeps their values from the start of the iteration, to write back those when it gives up
+ * (see {@link CompiledCode}), so that the tree-walker goes on from the start of that iteration.
+ */
+final class JitCompiler {
+    private static final String NAME = "interpreter/CompiledRegion";
+    private static final String CODE = "interpreter/CompiledCode";
+    private static final String DEOPT = "interpreter/CompiledCode$Deopt";
+    private static final String ENVIRONMENT = "interpreter/Environment";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String CALL = "(L" + ENVIRONMENT + ";L" + ENVIRONMENT + ";)D";
+    private static final String LOOP = "(L" + ENVIRONMENT + ";L" + ENVIRONMENT + ";D)I";
+    private static final String ENTER = "(L" + ENVIRONMENT + ";)V";
+
+    /**
+     * Thrown when the code uses something which isn't compiled.
+     */
+    private static final class NotCompilable extends RuntimeException {
+        NotCompilable() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final NotCompilable NOT_COMPILABLE = new NotCompilable();
+
+    private final Interpreter interpreter;
+
+    JitCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * @param frame The environment of the call which made the function hot, whose arguments should be numbers.
+     * @return The compiled function, or <code>null</code> if it can't be compiled.
+     */
+    CompiledCode compile(Function function, Environment frame) {
+        if (function.memo != null) {
+            return null;
+        }
+        for (int i = 0; i < function.arity(); i++) {
+            if (!(frame.get(i) instanceof Double)) {
+                return null;
+            }
+        }
+        try {
+            Region region = new Region();
+            String method = region.method(function.declaration);
+            region.compileFunctions();
+            region.call(method, function.arity());
+            region.stub("loop", LOOP);
+            return region.define();
+        } catch (NotCompilable | IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param loop        A <code>while</code> or <code>for</code> statement.
+     * @param environment The environment the loop runs in, the one of its counter for a <code>for</code>.
+     * @return The compiled loop, or <code>null</code> if it can't be compiled.
+     */
+    CompiledCode compile(Statement loop, Environment environment) {
+        try {
+            Region region = new Region();
+            new Body(region, null, environment).loop(loop);
+            region.compileFunctions();
+            region.stub("call", CALL);
+            return region.define();
+        } catch (NotCompilable | IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A class being generated, with its methods and the globals they use.
+     */
+    private final class Region {
+        final ClassWriter writer = new ClassWriter(NAME, CODE);
+        final Map<Statement.FunctionDeclaration, String> methods = new HashMap<>();
+        final Queue<Statement.FunctionDeclaration> pending = new ArrayDeque<>();
+        /**
+         * The fields of the globals used, by slot.
+         */
+        final Map<Integer, String> globals = new TreeMap<>();
+
+        /**
+         * @return The name of the method of a function, which is compiled later if it is new.
+         */
+        String method(Statement.FunctionDeclaration declaration) {
+            String name = methods.get(declaration);
+            if (name == null) {
+                name = "f" + methods.size();
+                methods.put(declaration, name);
+                pending.add(declaration);
+            }
+            return name;
+        }
+
+        String global(int slot) {
+            Object value = interpreter.globals.get(slot);
+            if (!(value instanceof Double)) {
+                throw NOT_COMPILABLE;
+            }
+            return globals.computeIfAbsent(slot, s -> "g" + s);
+        }
+
+        void compileFunctions() {
+            while (!pending.isEmpty()) {
+                Statement.FunctionDeclaration declaration = pending.remove();
+                new Body(this, declaration, null).function();
+            }
+        }
+
+        /**
+         * Generate <code>call</code>, which runs the method of a function on the arguments in the frame.
+         */
+        void call(String method, int arity) {
+            ClassWriter.Method code = writer.method(0, "call", CALL);
+            code.local(Opcodes.ALOAD, 0, 1);
+            code.local(Opcodes.ALOAD, 2, 1);
+            code.invoke(Opcodes.INVOKEVIRTUAL, NAME, "enter", ENTER);
+            code.local(Opcodes.ALOAD, 0, 1);
+            for (int i = 0; i < arity; i++) {
+                code.local(Opcodes.ALOAD, 1, 1);
+                code.pushInt(i);
+                code.invoke(Opcodes.INVOKEVIRTUAL, ENVIRONMENT, "get", "(I)" + OBJECT);
+                code.invoke(Opcodes.INVOKESTATIC, CODE, "number", "(" + OBJECT + ")D");
+            }
+            code.invoke(Opcodes.INVOKEVIRTUAL, NAME, method, descriptor(arity));
+            code.op(Opcodes.DRETURN, -2);
+            code.maxLocals(3);
+        }
+
+        /**
+         * Generate a method which always gives up, for the kind of code this class isn't.
+         */
+        void stub(String name, String descriptor) {
+            ClassWriter.Method code = writer.method(0, name, descriptor);
+            code.field(Opcodes.GETSTATIC, CODE, "DEOPT", "L" + DEOPT + ";");
+            code.op(Opcodes.ATHROW, -1);
+            code.maxLocals(5);
+        }
+
+        /**
+         * Generate the fields of the globals, <code>enter</code> which reads them, the constructor, and load
+         * the class.
+         */
+        CompiledCode define() {
+            ClassWriter.Method enter = writer.method(0, "enter", ENTER);
+            for (Map.Entry<Integer, String> global : globals.entrySet()) {
+                writer.field(ClassWriter.ACC_PRIVATE, global.getValue(), "D");
+                enter.local(Opcodes.ALOAD, 0, 1);
+                enter.local(Opcodes.ALOAD, 1, 1);
+                enter.pushInt(global.getKey());
+                enter.invoke(Opcodes.INVOKEVIRTUAL, ENVIRONMENT, "get", "(I)" + OBJECT);
+                enter.invoke(Opcodes.INVOKESTATIC, CODE, "number", "(" + OBJECT + ")D");
+                enter.field(Opcodes.PUTFIELD, NAME, global.getValue(), "D");
+            }
+            enter.op(Opcodes.RETURN, 0);
+            enter.maxLocals(2);
+
+            ClassWriter.Method constructor = writer.method(0, "<init>", "()V");
+            constructor.local(Opcodes.ALOAD, 0, 1);
+            constructor.invoke(Opcodes.INVOKESPECIAL, CODE, "<init>", "()V");
+            constructor.op(Opcodes.RETURN, 0);
+            constructor.maxLocals(1);
+
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(writer.toByteArray(), true);
+                return (CompiledCode) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+                        .invoke();
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static String descriptor(int arity) {
+        return "(" + "D".repeat(arity) + ")D";
+    }
+
+    /**
+     * The code of one method: a function, or the loop the class was generated for.
+     */
+    private final class Body {
+        final Region region;
+        final ClassWriter.Method code;
+        /**
+         * The function compiled, <code>null</code> for the loop.
+         */
+        final Statement.FunctionDeclaration function;
+        /**
+         * The environment the loop runs in, to check the types of the variables around it.
+         */
+        final Environment environment;
+        /**
+         * The locals of the variables of every scope inside the method, by slot.
+         */
+        final List<int[]> scopes = new ArrayList<>();
+        /**
+         * The locals of the variables of the environments around the loop, by depth and slot.
+         */
+        final Map<Long, Integer> externals = new LinkedHashMap<>();
+        final TreeSet<Long> assignedExternals = new TreeSet<>();
+        final TreeSet<Integer> assignedGlobals = new TreeSet<>();
+        final List<Integer> internals = new ArrayList<>();
+        int nextLocal;
+        final ClassWriter.Label start = new ClassWriter.Label();
+        final ClassWriter.Label returned = new ClassWriter.Label();
+        final ClassWriter.Label returnedNull = new ClassWriter.Label();
+
+        Body(Region region, Statement.FunctionDeclaration function, Environment environment) {
+            this.region = region;
+            this.function = function;
+            this.environment = environment;
+            this.code = function == null
+                    ? region.writer.method(0, "loop", LOOP)
+                    : region.writer.method(0, region.methods.get(function), descriptor(function.parameters.size()));
+        }
+
+        /**
+         * Compile a function, whose parameters come in the first locals.
+         */
+        void function() {
+            int arity = function.parameters.size();
+            int[] frame = new int[function.slots];
+            for (int i = 0; i < arity; i++) {
+                frame[i] = 1 + 2 * i;
+            }
+            scopes.add(frame);
+            nextLocal = 1 + 2 * arity;
+
+            ClassWriter.Label prologue = new ClassWriter.Label();
+            code.jump(Opcodes.GOTO, prologue);
+            code.label(start);
+            for (Statement statement : function.body.statements) {
+                statement(statement);
+            }
+            // Falling off the end returns NULL.
+            deoptimize();
+
+            code.label(prologue);
+            initializeInternals();
+            code.jump(Opcodes.GOTO, start);
+            code.maxLocals(nextLocal);
+        }
+
+        /**
+         * Compile the rest of a loop, from the end of an iteration.
+         */
+        void loop(Statement loop) {
+            nextLocal = 5;
+            ClassWriter.Label save = new ClassWriter.Label();
+            ClassWriter.Label body = new ClassWriter.Label();
+            ClassWriter.Label exit = new ClassWriter.Label();
+            ClassWriter.Label handler = new ClassWriter.Label();
+            ClassWriter.Label finished = new ClassWriter.Label();
+            ClassWriter.Label prologue = new ClassWriter.Label();
+
+            code.jump(Opcodes.GOTO, prologue);
+            code.label(start);
+            code.jump(Opcodes.GOTO, save);
+            code.label(body);
+            if (loop instanceof Statement.WhileStatement whileStatement) {
+                branch(whileStatement.condition, exit, false);
+                statement(whileStatement.body);
+            } else {
+                Statement.ForStatement forStatement = (Statement.ForStatement) loop;
+                // The counter is in the environment given, and the upper bound in the arguments.
+                int counter = external(0, 0);
+                assignedExternals.add(key(0, 0));
+                step(forStatement, counter, 3, exit);
+                statement(forStatement.body);
+            }
+            code.jump(Opcodes.GOTO, start);
+            code.label(exit);
+            code.jump(Opcodes.GOTO, finished);
+
+            // The variables assigned get back the values they had at the start of the iteration.
+            code.label(handler);
+            code.stack(1);
+            code.op(Opcodes.POP, -1);
+            Map<Long, Integer> shadows = new LinkedHashMap<>();
+            for (Long key : assignedExternals) {
+                shadows.put(key, allocate());
+            }
+            Map<Integer, Integer> globalShadows = new LinkedHashMap<>();
+            for (Integer slot : assignedGlobals) {
+                globalShadows.put(slot, allocate());
+            }
+            for (Map.Entry<Long, Integer> shadow : shadows.entrySet()) {
+                code.local(Opcodes.DLOAD, shadow.getValue(), 2);
+                code.local(Opcodes.DSTORE, externals.get(shadow.getKey()), -2);
+            }
+            for (Map.Entry<Integer, Integer> shadow : globalShadows.entrySet()) {
+                code.local(Opcodes.ALOAD, 0, 1);
+                code.local(Opcodes.DLOAD, shadow.getValue(), 2);
+                code.field(Opcodes.PUTFIELD, NAME, region.globals.get(shadow.getKey()), "D");
+            }
+            writeBack(CompiledCode.DEOPTIMIZED);
+            code.handler(body, exit, handler, DEOPT);
+
+            code.label(finished);
+            writeBack(CompiledCode.FINISHED);
+            code.label(returned);
+            writeBack(CompiledCode.RETURNED);
+            code.label(returnedNull);
+            writeBack(CompiledCode.RETURNED_NULL);
+
+            code.label(save);
+            for (Map.Entry<Long, Integer> shadow : shadows.entrySet()) {
+                code.local(Opcodes.DLOAD, externals.get(shadow.getKey()), 2);
+                code.local(Opcodes.DSTORE, shadow.getValue(), -2);
+            }
+            for (Map.Entry<Integer, Integer> shadow : globalShadows.entrySet()) {
+                code.local(Opcodes.ALOAD, 0, 1);
+                code.field(Opcodes.GETFIELD, NAME, region.globals.get(shadow.getKey()), "D");
+                code.local(Opcodes.DSTORE, shadow.getValue(), -2);
+            }
+            code.jump(Opcodes.GOTO, body);
+
+            code.label(prologue);
+            code.local(Opcodes.ALOAD, 0, 1);
+            code.local(Opcodes.ALOAD, 2, 1);
+            code.invoke(Opcodes.INVOKEVIRTUAL, NAME, "enter", ENTER);
+            for (Map.Entry<Long, Integer> external : externals.entrySet()) {
+                code.local(Opcodes.ALOAD, 1, 1);
+                code.pushInt((int) (external.getKey() >> 32));
+                code.pushInt((int) (long) external.getKey());
+                code.invoke(Opcodes.INVOKEVIRTUAL, ENVIRONMENT, "getAt", "(II)" + OBJECT);
+                code.invoke(Opcodes.INVOKESTATIC, CODE, "number", "(" + OBJECT + ")D");
+                code.local(Opcodes.DSTORE, external.getValue(), -2);
+            }
+            initializeInternals();
+            code.jump(Opcodes.GOTO, start);
+            code.maxLocals(nextLocal);
+        }
+
+        /**
+         * Write back the variables the loop assigned, and return.
+         */
+        private void writeBack(int status) {
+            for (Long key : assignedExternals) {
+                code.local(Opcodes.ALOAD, 1, 1);
+                code.pushInt((int) (key >> 32));
+                code.pushInt((int) (long) key);
+                code.local(Opcodes.DLOAD, externals.get(key), 2);
+                box();
+                code.invoke(Opcodes.INVOKEVIRTUAL, ENVIRONMENT, "updateAt", "(II" + OBJECT + ")V");
+            }
+            for (Integer slot : assignedGlobals) {
+                code.local(Opcodes.ALOAD, 2, 1);
+                code.pushInt(slot);
+                code.local(Opcodes.ALOAD, 0, 1);
+                code.field(Opcodes.GETFIELD, NAME, region.globals.get(slot), "D");
+                box();
+                code.invoke(Opcodes.INVOKEVIRTUAL, ENVIRONMENT, "define", "(I" + OBJECT + ")V");
+            }
+            code.pushInt(status);
+            code.op(Opcodes.IRETURN, -1);
+        }
+
+        /**
+         * The locals which aren't arguments or read from an environment start at 0, as the verifier wants
+         * every local to have a value.
+         */
+        private void initializeInternals() {
+            for (int local : internals) {
+                code.op(Opcodes.DCONST_0, 2);
+                code.local(Opcodes.DSTORE, local, -2);
+            }
+        }
+
+        private int allocate() {
+            int local = nextLocal;
+            nextLocal += 2;
+            internals.add(local);
+            return local;
+        }
+
+        private long key(int depth, int slot) {
+            return ((long) depth << 32) | slot;
+        }
+
+        /**
+         * @return The local of a variable of the environments around the loop.
+         */
+        private int external(int depth, int slot) {
+            Long key = key(depth, slot);
+            Integer local = externals.get(key);
+            if (local == null) {
+                if (!(environment.getAt(depth, slot) instanceof Double)) {
+                    throw NOT_COMPILABLE;
+                }
+                local = nextLocal;
+                nextLocal += 2;
+                externals.put(key, local);
+            }
+            return local;
+        }
+
+        private void statement(Statement statement) {
+            if (statement instanceof Statement.ExpressionStatement expressionStatement) {
+                number(expressionStatement.expression);
+                code.op(Opcodes.POP2, -2);
+            } else if (statement instanceof Statement.VariableDeclaration declaration) {
+                number(declaration.expression);
+                int local = allocate();
+                code.local(Opcodes.DSTORE, local, -2);
+                scopes.get(scopes.size() - 1)[declaration.slot] = local;
+            } else if (statement instanceof Statement.Block block) {
+                // A block which declares nothing has no scope of its own.
+                if (block.slots > 0) {
+                    scopes.add(new int[block.slots]);
+                }
+                for (Statement inner : block.statements) {
+                    statement(inner);
+                }
+                if (block.slots > 0) {
+                    scopes.remove(scopes.size() - 1);
+                }
+            } else if (statement instanceof Statement.IfStatement ifStatement) {
+                ClassWriter.Label otherwise = new ClassWriter.Label();
+                ClassWriter.Label end = new ClassWriter.Label();
+                branch(ifStatement.condition, otherwise, false);
+                statement(ifStatement.thenBranch);
+                code.jump(Opcodes.GOTO, end);
+                code.label(otherwise);
+                if (ifStatement.elseBranch != null) {
+                    statement(ifStatement.elseBranch);
+                }
+                code.label(end);
+            } else if (statement instanceof Statement.WhileStatement whileStatement) {
+                ClassWriter.Label top = new ClassWriter.Label();
+                ClassWriter.Label end = new ClassWriter.Label();
+                code.label(top);
+                branch(whileStatement.condition, end, false);
+                statement(whileStatement.body);
+                code.jump(Opcodes.GOTO, top);
+                code.label(end);
+            } else if (statement instanceof Statement.ForStatement forStatement) {
+                number(forStatement.lower);
+                int counter = allocate();
+                code.local(Opcodes.DSTORE, counter, -2);
+                number(forStatement.higher);
+                int higher = allocate();
+                code.local(Opcodes.DSTORE, higher, -2);
+                scopes.add(new int[]{counter});
+                ClassWriter.Label top = new ClassWriter.Label();
+                ClassWriter.Label end = new ClassWriter.Label();
+                code.label(top);
+                statement(forStatement.body);
+                step(forStatement, counter, higher, end);
+                code.jump(Opcodes.GOTO, top);
+                code.label(end);
+                scopes.remove(scopes.size() - 1);
+            } else if (statement instanceof Statement.ReturnStatement returnStatement) {
+                returnStatement(returnStatement);
+            } else {
+                throw NOT_COMPILABLE;
+            }
+        }
+
+        /**
+         * Move the counter of a <code>for</code> by its step, or jump out when it went past the upper bound,
+         * like {@link Interpreter#visitForStatement}. The counter is in the innermost scope.
+         */
+        private void step(Statement.ForStatement forStatement, int counter, int higher, ClassWriter.Label end) {
+            number(forStatement.step);
+            int step = allocate();
+            code.local(Opcodes.DSTORE, step, -2);
+
+            ClassWriter.Label notIncreasing = new ClassWriter.Label();
+            code.local(Opcodes.DLOAD, step, 2);
+            code.op(Opcodes.DCONST_0, 2);
+            code.op(Opcodes.DCMPL, -3);
+            code.jump(Opcodes.IFLE, notIncreasing);
+            code.local(Opcodes.DLOAD, counter, 2);
+            code.local(Opcodes.DLOAD, step, 2);
+            code.op(Opcodes.DADD, -2);
+            code.local(Opcodes.DLOAD, higher, 2);
+            code.op(Opcodes.DCMPL, -3);
+            code.jump(Opcodes.IFGT, end);
+            code.label(notIncreasing);
+
+            ClassWriter.Label notDecreasing = new ClassWriter.Label();
+            code.local(Opcodes.DLOAD, step, 2);
+            code.op(Opcodes.DCONST_0, 2);
+            code.op(Opcodes.DCMPG, -3);
+            code.jump(Opcodes.IFGE, notDecreasing);
+            code.local(Opcodes.DLOAD, counter, 2);
+            code.local(Opcodes.DLOAD, step, 2);
+            code.op(Opcodes.DADD, -2);
+            code.local(Opcodes.DLOAD, higher, 2);
+            code.op(Opcodes.DCMPG, -3);
+            code.jump(Opcodes.IFLT, end);
+            code.label(notDecreasing);
+
+            code.local(Opcodes.DLOAD, counter, 2);
+            code.local(Opcodes.DLOAD, higher, 2);
+            code.op(Opcodes.DCMPL, -3);
+            code.jump(Opcodes.IFEQ, end);
+
+            code.local(Opcodes.DLOAD, counter, 2);
+            code.local(Opcodes.DLOAD, step, 2);
+            code.op(Opcodes.DADD, -2);
+            code.local(Opcodes.DSTORE, counter, -2);
+        }
+
+        private void returnStatement(Statement.ReturnStatement returnStatement) {
+            Expression value = returnStatement.value;
+            while (value instanceof Expression.Grouping grouping) {
+                value = grouping.expression;
+            }
+            if (function == null) {
+                if (value == null) {
+                    code.jump(Opcodes.GOTO, returnedNull);
+                } else {
+                    code.local(Opcodes.ALOAD, 0, 1);
+                    number(value);
+                    code.field(Opcodes.PUTFIELD, CODE, "result", "D");
+                    code.jump(Opcodes.GOTO, returned);
+                }
+                return;
+            }
+            if (value == null) {
+                // NULL isn't a number.
+                deoptimize();
+                return;
+            }
+            if (value instanceof Expression.Call call && callee(call) == function) {
+                // A call to itself in tail position starts over with new arguments.
+                int arity = function.parameters.size();
+                int[] arguments = new int[arity];
+                for (int i = 0; i < arity; i++) {
+                    number(call.arguments.get(i));
+                    arguments[i] = allocate();
+                    code.local(Opcodes.DSTORE, arguments[i], -2);
+                }
+                for (int i = 0; i < arity; i++) {
+                    code.local(Opcodes.DLOAD, arguments[i], 2);
+                    code.local(Opcodes.DSTORE, 1 + 2 * i, -2);
+                }
+                code.jump(Opcodes.GOTO, start);
+                return;
+            }
+            number(value);
+            code.op(Opcodes.DRETURN, -2);
+        }
+
+        private void deoptimize() {
+            code.field(Opcodes.GETSTATIC, CODE, "DEOPT", "L" + DEOPT + ";");
+            code.op(Opcodes.ATHROW, -1);
+        }
+
+        private void box() {
+            code.invoke(Opcodes.INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+        }
+
+        /**
+         * Jump to <code>target</code> if the truthiness of the expression is <code>when</code>, like
+         * {@link Interpreter#truthy(Object)} would say.
+         */
+        private void branch(Expression expression, ClassWriter.Label target, boolean when) {
+            if (expression instanceof Expression.Grouping grouping) {
+                branch(grouping.expression, target, when);
+            } else if (expression instanceof Expression.Invariant invariant) {
+                branch(invariant.expression, target, when);
+            } else if (expression instanceof Expression.Literal literal && !(literal.value instanceof Double)) {
+                if (literal.value != null && !(literal.value instanceof Boolean)) {
+                    throw NOT_COMPILABLE;
+                }
+                if (Boolean.TRUE.equals(literal.value) == when) {
+                    code.jump(Opcodes.GOTO, target);
+                }
+            } else if (expression instanceof Expression.Logical logical) {
+                boolean or = logical.operator.type == TokenType.OR;
+                if (or == when) {
+                    branch(logical.left, target, when);
+                    branch(logical.right, target, when);
+                } else {
+                    ClassWriter.Label skip = new ClassWriter.Label();
+                    branch(logical.left, skip, !when);
+                    branch(logical.right, target, when);
+                    code.label(skip);
+                }
+            } else if (expression instanceof Expression.Unary unary && unary.operator.type == TokenType.NOT) {
+                if (!isBoolean(unary.right)) {
+                    throw NOT_COMPILABLE;
+                }
+                branch(unary.right, target, !when);
+            } else if (expression instanceof Expression.Binary binary && isComparison(binary)) {
+                compare(binary, target, when);
+            } else {
+                number(expression);
+                code.op(Opcodes.DCONST_0, 2);
+                code.op(Opcodes.DCMPL, -3);
+                code.jump(when ? Opcodes.IFNE : Opcodes.IFEQ, target);
+            }
+        }
+
+        /**
+         * @return Whether the expression always produces a boolean, which <code>not</code> needs.
+         */
+        private boolean isBoolean(Expression expression) {
+            if (expression instanceof Expression.Grouping grouping) {
+                return isBoolean(grouping.expression);
+            }
+            if (expression instanceof Expression.Invariant invariant) {
+                return isBoolean(invariant.expression);
+            }
+            if (expression instanceof Expression.Literal literal) {
+                return literal.value instanceof Boolean;
+            }
+            if (expression instanceof Expression.Logical logical) {
+                return isBoolean(logical.left) && isBoolean(logical.right);
+            }
+            if (expression instanceof Expression.Unary unary) {
+                return unary.operator.type == TokenType.NOT && isBoolean(unary.right);
+            }
+            return expression instanceof Expression.Binary binary && isComparison(binary);
+        }
+
+        private boolean isComparison(Expression.Binary binary) {
+            return switch (binary.operator.type) {
+                case DOUBLE_EQUAL, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL -> true;
+                default -> false;
+            };
+        }
+
+        /**
+         * Compare two numbers, where a comparison with NaN is false.
+         */
+        private void compare(Expression.Binary binary, ClassWriter.Label target, boolean when) {
+            if (binary.operator.type == TokenType.DOUBLE_EQUAL) {
+                // Like Double.equals, which is what the tree-walker compares with.
+                number(binary.left);
+                code.invoke(Opcodes.INVOKESTATIC, "java/lang/Double", "doubleToLongBits", "(D)J");
+                number(binary.right);
+                code.invoke(Opcodes.INVOKESTATIC, "java/lang/Double", "doubleToLongBits", "(D)J");
+                code.op(Opcodes.LCMP, -3);
+                code.jump(when ? Opcodes.IFEQ : Opcodes.IFNE, target);
+                return;
+            }
+            number(binary.left);
+            number(binary.right);
+            switch (binary.operator.type) {
+                case LESS -> {
+                    code.op(Opcodes.DCMPG, -3);
+                    code.jump(when ? Opcodes.IFLT : Opcodes.IFGE, target);
+                }
+                case LESS_EQUAL -> {
+                    code.op(Opcodes.DCMPG, -3);
+                    code.jump(when ? Opcodes.IFLE : Opcodes.IFGT, target);
+                }
+                case GREATER -> {
+                    code.op(Opcodes.DCMPL, -3);
+                    code.jump(when ? Opcodes.IFGT : Opcodes.IFLE, target);
+                }
+                default -> {
+                    code.op(Opcodes.DCMPL, -3);
+                    code.jump(when ? Opcodes.IFGE : Opcodes.IFLT, target);
+                }
+            }
+        }
+
+        /**
+         * Push the value of an expression which produces a number.
+         */
+        private void number(Expression expression) {
+            if (expression instanceof Expression.Literal literal && literal.value instanceof Double value) {
+                code.pushDouble(value);
+            } else if (expression instanceof Expression.Grouping grouping) {
+                number(grouping.expression);
+            } else if (expression instanceof Expression.Invariant invariant) {
+                // The JVM hoists it itself.
+                number(invariant.expression);
+            } else if (expression instanceof Expression.Unary unary && unary.operator.type == TokenType.MINUS) {
+                number(unary.right);
+                code.op(Opcodes.DNEG, 0);
+            } else if (expression instanceof Expression.Binary binary) {
+                arithmetic(binary);
+            } else if (expression instanceof Expression.Variable variable) {
+                load(variable.depth, variable.slot);
+            } else if (expression instanceof Expression.Assignment assignment) {
+                assign(assignment);
+            } else if (expression instanceof Expression.Call call) {
+                call(call);
+            } else {
+                throw NOT_COMPILABLE;
+            }
+        }
+
+        private void arithmetic(Expression.Binary binary) {
+            number(binary.left);
+            number(binary.right);
+            switch (binary.operator.type) {
+                case PLUS -> code.op(Opcodes.DADD, -2);
+                case MINUS -> code.op(Opcodes.DSUB, -2);
+                case STAR -> code.op(Opcodes.DMUL, -2);
+                case SLASH -> {
+                    checkDivisor();
+                    code.op(Opcodes.DDIV, -2);
+                }
+                case MODULO -> {
+                    checkDivisor();
+                    code.op(Opcodes.DREM, -2);
+                }
+                case DOUBLE_STAR -> code.invoke(Opcodes.INVOKESTATIC, "java/lang/Math", "pow", "(DD)D");
+                default -> throw NOT_COMPILABLE;
+            }
+        }
+
+        /**
+         * Give up on a division by zero, for the tree-walker to report it.
+         */
+        private void checkDivisor() {
+            ClassWriter.Label nonZero = new ClassWriter.Label();
+            code.op(Opcodes.DUP2, 2);
+            code.op(Opcodes.DCONST_0, 2);
+            code.op(Opcodes.DCMPL, -3);
+            code.jump(Opcodes.IFNE, nonZero);
+            deoptimize();
+            code.label(nonZero);
+        }
+
+        private void load(int depth, int slot) {
+            if (depth < 0) {
+                code.local(Opcodes.ALOAD, 0, 1);
+                code.field(Opcodes.GETFIELD, NAME, region.global(slot), "D");
+            } else if (depth < scopes.size()) {
+                code.local(Opcodes.DLOAD, scopes.get(scopes.size() - 1 - depth)[slot], 2);
+            } else if (function == null) {
+                code.local(Opcodes.DLOAD, external(depth - scopes.size(), slot), 2);
+            } else {
+                throw NOT_COMPILABLE;
+            }
+        }
+
+        private void assign(Expression.Assignment assignment) {
+            int depth = assignment.depth;
+            int slot = assignment.slot;
+            if (depth < 0) {
+                // Only loops write globals, which they write back.
+                if (function != null) {
+                    throw NOT_COMPILABLE;
+                }
+                String field = region.global(slot);
+                assignedGlobals.add(slot);
+                code.local(Opcodes.ALOAD, 0, 1);
+                number(assignment.expression);
+                code.op(Opcodes.DUP2_X1, 2);
+                code.field(Opcodes.PUTFIELD, NAME, field, "D");
+                return;
+            }
+            int local;
+            if (depth < scopes.size()) {
+                local = scopes.get(scopes.size() - 1 - depth)[slot];
+            } else if (function == null) {
+                local = external(depth - scopes.size(), slot);
+                assignedExternals.add(key(depth - scopes.size(), slot));
+            } else {
+                throw NOT_COMPILABLE;
+            }
+            number(assignment.expression);
+            code.op(Opcodes.DUP2, 2);
+            code.local(Opcodes.DSTORE, local, -2);
+        }
+
+        /**
+         * @return What a call calls: the declaration of a user defined function, or a builtin. It is bound when
+         *         compiling, so the callee has to be a global which can't be assigned.
+         */
+        private Object callee(Expression.Call call) {
+            if (!(call.callee instanceof Expression.Variable variable) || variable.depth >= 0 || variable.mutable) {
+                throw NOT_COMPILABLE;
+            }
+            Object value = interpreter.globals.get(variable.slot);
+            if (value instanceof Function user) {
+                if (user.memo != null || user.arity() != call.arguments.size()) {
+                    throw NOT_COMPILABLE;
+                }
+                return user.declaration;
+            }
+            if (value instanceof Callable builtin && call.arguments.size() == 1
+                    && Interpreter.BUILTINS.get(variable.identifier.lexeme) == builtin) {
+                return builtin;
+            }
+            throw NOT_COMPILABLE;
+        }
+
+        private void call(Expression.Call call) {
+            Object callee = callee(call);
+            if (callee instanceof Statement.FunctionDeclaration declaration) {
+                String method = region.method(declaration);
+                code.local(Opcodes.ALOAD, 0, 1);
+                for (Expression argument : call.arguments) {
+                    number(argument);
+                }
+                code.invoke(Opcodes.INVOKEVIRTUAL, NAME, method, descriptor(call.arguments.size()));
+                return;
+            }
+            number(call.arguments.get(0));
+            String name = ((Expression.Variable) call.callee).identifier.lexeme;
+            switch (name) {
+                case "sin", "cos", "tan", "log" ->
+                        code.invoke(Opcodes.INVOKESTATIC, "java/lang/Math", name, "(D)D");
+                case "round" -> {
+                    code.invoke(Opcodes.INVOKESTATIC, "java/lang/Math", "round", "(D)J");
+                    code.op(Opcodes.L2D, 0);
+                }
+                default -> throw NOT_COMPILABLE;
+            }
+        }
+    }
+}
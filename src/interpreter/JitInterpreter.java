@@ -0,0 +1,134 @@
+package interpreter;
+
+import language.Function;
+import language.Statement;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A tiered interpreter: functions and loops start in the tree-walker, which counts the calls of every function
+ * and the iterations of every loop. Once a function or a loop gets hot, it is compiled by the {@link JitCompiler}
+ * to a JVM class, which the JVM then optimizes like any Java code.
+ * <br />
+ * <br />
+ * Compiled code only runs while its assumptions hold (numbers everywhere). When they don't, it gives up and
+ * the tree-walker goes on, see {@link CompiledCode}. Code which gives up too often, or can't be compiled,
+ * stays in the tree-walker.
+ */
+public class JitInterpreter extends Interpreter {
+    /**
+     * How many calls make a function hot.
+     */
+    static final int CALL_THRESHOLD = 1000;
+    /**
+     * How many iterations make a loop hot.
+     */
+    static final int LOOP_THRESHOLD = 1000;
+    /**
+     * How many times compiled code can give up before it is thrown away.
+     */
+    static final int DEOPT_LIMIT = 16;
+
+    /**
+     * What is known about a function or a loop.
+     */
+    private static final class Counter {
+        int count = 0;
+        CompiledCode code = null;
+        boolean failed = false;
+        int deopts = 0;
+    }
+
+    private final JitCompiler compiler = new JitCompiler(this);
+    private final Map<Statement, Counter> counters = new IdentityHashMap<>();
+    /**
+     * The loop of the last iteration, since a loop goes through many iterations in a row.
+     */
+    private Statement lastLoop = null;
+    private Counter lastCounter = null;
+
+    public JitInterpreter(Input input, Output output) {
+        super(input, output);
+    }
+
+    private Counter counter(Statement statement) {
+        return counters.computeIfAbsent(statement, s -> new Counter());
+    }
+
+    private void deoptimized(Counter counter) {
+        if (++counter.deopts >= DEOPT_LIMIT) {
+            counter.code = null;
+            counter.failed = true;
+        }
+    }
+
+    @Override
+    void executeBody(Function function, Environment frame) {
+        Counter counter = counter(function.declaration);
+        if (counter.code == null && !counter.failed && ++counter.count >= CALL_THRESHOLD) {
+            counter.code = compiler.compile(function, frame);
+            counter.failed = counter.code == null;
+        }
+        CompiledCode code = counter.code;
+        if (code != null) {
+            try {
+                setReturn(code.call(frame, globals));
+                return;
+            } catch (CompiledCode.Deopt e) {
+                deoptimized(counter);
+            }
+        }
+        super.executeBody(function, frame);
+    }
+
+    @Override
+    boolean watchesLoops() {
+        return true;
+    }
+
+    @Override
+    boolean loopBack(Statement loop, Environment environment, double higher) {
+        Counter counter = lastCounter;
+        if (loop != lastLoop) {
+            counter = counter(loop);
+            lastLoop = loop;
+            lastCounter = counter;
+        }
+        if (counter.code == null) {
+            if (counter.failed || ++counter.count < LOOP_THRESHOLD) {
+                return false;
+            }
+            counter.code = compiler.compile(loop, environment);
+            counter.failed = counter.code == null;
+            if (counter.failed) {
+                return false;
+            }
+        }
+
+        CompiledCode code = counter.code;
+        int status;
+        try {
+            status = code.loop(environment, globals, higher);
+        } catch (CompiledCode.Deopt e) {
+            status = CompiledCode.DEOPTIMIZED;
+        }
+        switch (status) {
+            case CompiledCode.FINISHED -> {
+                return true;
+            }
+            case CompiledCode.RETURNED -> {
+                setReturn(code.result);
+                return true;
+            }
+            case CompiledCode.RETURNED_NULL -> {
+                setReturn(null);
+                return true;
+            }
+            default -> {
+                deoptimized(counter);
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package interpreter;
+
+import java.util.Arrays;
+
+/**
+ * The results of a pure function, for the argument tuples it was called with most recently.
+ * <br />
+ * <br />
+ * Arguments are encoded as <code>long</code>s: numbers by their bits (like {@link Double#equals(Object)}
+ * compares them), and booleans and <code>NULL</code> by NaN patterns which
+ * {@link Double#doubleToLongBits(double)} never produces. Other values (functions) can't be keys,
+ * calls with those are not cached.
+ * <br />
+ * <br />
+ * Entries live in parallel arrays, chained into hash buckets and into a list ordered by last use.
+ * The arrays start small and double as entries arrive, up to the capacity. Once the cache is full, the least
+ * recently used entry makes room for the new one.
+ */
+public class MemoCache {
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+    /**
+     * The number of entries the arrays have room for before they first grow.
+     */
+    static final int INITIAL_LENGTH = 16;
+
+    private static final long TRUE = 0x7ff8000000000001L;
+    private static final long FALSE = 0x7ff8000000000002L;
+    private static final long NULL = 0x7ff8000000000003L;
+    private static final int NONE = -1;
+
+    private final String name;
+    private final int arity;
+    private final int capacity;
+
+    private long[] keys;
+    private Object[] results;
+    private int[] hashes;
+    private int[] buckets;
+    private int[] chain;
+    // The list of entries by last use, from the eldest to the most recent one.
+    private int[] older;
+    private int[] newer;
+    private int eldest = NONE;
+    private int newest = NONE;
+    private int size = 0;
+
+    /**
+     * Holds the key of the call being looked up, it must be copied to be kept.
+     */
+    final long[] scratch;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    public MemoCache(String name, int arity, int capacity) {
+        this.name = name;
+        this.arity = arity;
+        this.capacity = capacity;
+        int length = Math.min(capacity, INITIAL_LENGTH);
+        this.keys = new long[length * arity];
+        this.results = new Object[length];
+        this.hashes = new int[length];
+        this.chain = new int[length];
+        this.older = new int[length];
+        this.newer = new int[length];
+        this.buckets = newBuckets(length);
+        this.scratch = new long[arity];
+    }
+
+    private static int[] newBuckets(int length) {
+        int[] buckets = new int[Integer.highestOneBit(length) * 2];
+        Arrays.fill(buckets, NONE);
+        return buckets;
+    }
+
+    /**
+     * Double the room for entries (without going over the capacity), and spread them over more buckets.
+     */
+    private void grow() {
+        int length = Math.min(capacity, results.length * 2);
+        keys = Arrays.copyOf(keys, length * arity);
+        results = Arrays.copyOf(results, length);
+        hashes = Arrays.copyOf(hashes, length);
+        chain = Arrays.copyOf(chain, length);
+        older = Arrays.copyOf(older, length);
+        newer = Arrays.copyOf(newer, length);
+        buckets = newBuckets(length);
+        for (int entry = 0; entry < size; entry++) {
+            int bucket = hashes[entry] & (buckets.length - 1);
+            chain[entry] = buckets[bucket];
+            buckets[bucket] = entry;
+        }
+    }
+
+    /**
+     * Encode the arguments of a call into <code>key</code>.
+     *
+     * @return Whether all the arguments could be encoded, which counts as a miss if not.
+     */
+    boolean encode(Environment frame, long[] key) {
+        for (int i = 0; i < arity; i++) {
+            Object value = frame.get(i);
+            if (value instanceof Double number) {
+                key[i] = Double.doubleToLongBits(number);
+            } else if (value instanceof Boolean bool) {
+                key[i] = bool ? TRUE : FALSE;
+            } else if (value == null) {
+                key[i] = NULL;
+            } else {
+                misses++;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The index of the entry for the key, or <code>-1</code> (a miss).
+     */
+    int find(long[] key) {
+        int hash = hash(key);
+        for (int entry = buckets[hash & (buckets.length - 1)]; entry != NONE; entry = chain[entry]) {
+            if (hashes[entry] == hash && matches(entry, key)) {
+                hits++;
+                touch(entry);
+                return entry;
+            }
+        }
+        misses++;
+        return NONE;
+    }
+
+    Object result(int entry) {
+        return results[entry];
+    }
+
+    /**
+     * Remember the result for a key which was just missed.
+     */
+    void put(long[] key, Object result) {
+        int entry;
+        if (size < capacity) {
+            if (size == results.length) {
+                grow();
+            }
+            entry = size++;
+        } else {
+            entry = eldest;
+            unlink(entry);
+            removeFromBucket(entry);
+        }
+        int hash = hash(key);
+        System.arraycopy(key, 0, keys, entry * arity, arity);
+        results[entry] = result;
+        hashes[entry] = hash;
+        int bucket = hash & (buckets.length - 1);
+        chain[entry] = buckets[bucket];
+        buckets[bucket] = entry;
+        append(entry);
+    }
+
+    private boolean matches(int entry, long[] key) {
+        int offset = entry * arity;
+        for (int i = 0; i < arity; i++) {
+            if (keys[offset + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int hash(long[] key) {
+        long hash = 0;
+        for (int i = 0; i < arity; i++) {
+            hash = (hash + key[i]) * 0x9E3779B97F4A7C15L;
+        }
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private void touch(int entry) {
+        if (entry != newest) {
+            unlink(entry);
+            append(entry);
+        }
+    }
+
+    private void append(int entry) {
+        older[entry] = newest;
+        newer[entry] = NONE;
+        if (newest != NONE) {
+            newer[newest] = entry;
+        } else {
+            eldest = entry;
+        }
+        newest = entry;
+    }
+
+    private void unlink(int entry) {
+        if (older[entry] != NONE) {
+            newer[older[entry]] = newer[entry];
+        } else {
+            eldest = newer[entry];
+        }
+        if (newer[entry] != NONE) {
+            older[newer[entry]] = older[entry];
+        } else {
+            newest = older[entry];
+        }
+    }
+
+    private void removeFromBucket(int entry) {
+        int bucket = hashes[entry] & (buckets.length - 1);
+        if (buckets[bucket] == entry) {
+            buckets[bucket] = chain[entry];
+            return;
+        }
+        int previous = buckets[bucket];
+        while (chain[previous] != entry) {
+            previous = chain[previous];
+        }
+        chain[previous] = chain[entry];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public int getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,90 @@
+package interpreter;
+
+import language.Expression;
+import language.Function;
+import language.Statement;
+
+import java.util.List;
+
+/**
+ * An interpreter counting what the program does in {@link Metrics}.
+ * <br />
+ * <br />
+ * Like profiling, metrics are a subclass so that the plain {@link Interpreter} runs without them at full speed.
+ */
+public class MeteredInterpreter extends Interpreter {
+    private final Metrics metrics;
+
+    public MeteredInterpreter(Input input, Output output, Metrics metrics) {
+        super(input, output);
+        this.metrics = metrics;
+        output.countWritten(metrics.showBytes);
+    }
+
+    @Override
+    public void interpret(List<Statement> statements) {
+        super.interpret(statements);
+        if (isHadError()) {
+            metrics.runtimeErrors.increment();
+        }
+    }
+
+    @Override
+    void execute(Statement statement) {
+        metrics.statements.increment();
+        super.execute(statement);
+    }
+
+    @Override
+    void executeBody(Function function, Environment frame) {
+        metrics.calls.increment();
+        metrics.environments.increment();
+        super.executeBody(function, frame);
+    }
+
+    @Override
+    public Void visitBlockStatement(Statement.Block blockStatement) {
+        if (blockStatement.slots > 0) {
+            metrics.environments.increment();
+        }
+        return super.visitBlockStatement(blockStatement);
+    }
+
+    @Override
+    public Void visitForStatement(Statement.ForStatement forStatement) {
+        metrics.environments.increment();
+        return super.visitForStatement(forStatement);
+    }
+
+    @Override
+    public Object visitVariableExpression(Expression.Variable expression) {
+        metrics.lookup(expression.depth);
+        return super.visitVariableExpression(expression);
+    }
+
+    @Override
+    public Object visitAssignmentExpression(Expression.Assignment assignment) {
+        metrics.lookup(assignment.depth);
+        return super.visitAssignmentExpression(assignment);
+    }
+
+    @Override
+    Object evaluateOperand(Expression expression) {
+        if (expression instanceof Expression.Variable variable) {
+            metrics.lookup(variable.depth);
+        }
+        return super.evaluateOperand(expression);
+    }
+
+    @Override
+    void assignNumber(Expression.Assignment assignment) {
+        metrics.lookup(assignment.depth);
+        super.assignNumber(assignment);
+    }
+
+    @Override
+    public Object visitGetExpression(Expression.Get expression) {
+        metrics.getReads.increment();
+        return super.visitGetExpression(expression);
+    }
+}
@@ -0,0 +1,147 @@
+package interpreter;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of what running programs do, for a {@link MeteredInterpreter}.
+ * <br />
+ * <br />
+ * Counters are {@link LongAdder}s, so that interpreters on several threads can share them and they can be read
+ * while the programs run, by {@link #register() JMX} for example. Nothing is counted when there are no metrics:
+ * the plain {@link Interpreter} doesn't know about them.
+ */
+public class Metrics implements MetricsMBean {
+    /**
+     * The name the metrics are published with.
+     */
+    public static final String OBJECT_NAME = "fun:type=Metrics";
+
+    /**
+     * How many depths of lookups are told apart, deeper ones are counted with the last.
+     */
+    public static final int LOOKUP_DEPTHS = 8;
+
+    final LongAdder statements = new LongAdder();
+    final LongAdder calls = new LongAdder();
+    final LongAdder environments = new LongAdder();
+    final LongAdder[] lookups = new LongAdder[LOOKUP_DEPTHS];
+    final LongAdder globalLookups = new LongAdder();
+    final LongAdder showBytes = new LongAdder();
+    final LongAdder getReads = new LongAdder();
+    final LongAdder runtimeErrors = new LongAdder();
+
+    public Metrics() {
+        for (int i = 0; i < LOOKUP_DEPTHS; i++) {
+            lookups[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Count a lookup of a variable.
+     *
+     * @param depth How many scopes up the variable is, <code>-1</code> for a global.
+     */
+    void lookup(int depth) {
+        if (depth < 0) {
+            globalLookups.increment();
+        } else {
+            lookups[Math.min(depth, LOOKUP_DEPTHS - 1)].increment();
+        }
+    }
+
+    /**
+     * Publish the metrics on the platform MBean server, as {@link #OBJECT_NAME}.
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Print every counter on its own line.
+     */
+    public void print(PrintStream out) {
+        print(out, "statements executed", getStatements());
+        print(out, "function calls", getCalls());
+        print(out, "environments", getEnvironments());
+        long[] lookups = getLookups();
+        for (int depth = 0; depth < lookups.length; depth++) {
+            String more = depth == lookups.length - 1 ? "+" : "";
+            print(out, "lookups at depth " + depth + more, lookups[depth]);
+        }
+        print(out, "lookups of globals", getGlobalLookups());
+        print(out, "show bytes written", getShowBytes());
+        print(out, "get reads", getGetReads());
+        print(out, "runtime errors", getRuntimeErrors());
+    }
+
+    private static void print(PrintStream out, String name, long value) {
+        out.printf("%-24s %d%n", name, value);
+    }
+
+    /**
+     * @return How many statements were executed.
+     */
+    @Override
+    public long getStatements() {
+        return statements.sum();
+    }
+
+    /**
+     * @return How many times the body of a user defined function was executed.
+     */
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    /**
+     * @return How many environments were needed, for the blocks declaring variables, <code>for</code> loops
+     *         and calls (whose environments come from a pool).
+     */
+    @Override
+    public long getEnvironments() {
+        return environments.sum();
+    }
+
+    @Override
+    public long[] getLookups() {
+        long[] sums = new long[LOOKUP_DEPTHS];
+        for (int i = 0; i < LOOKUP_DEPTHS; i++) {
+            sums[i] = lookups[i].sum();
+        }
+        return sums;
+    }
+
+    @Override
+    public long getGlobalLookups() {
+        return globalLookups.sum();
+    }
+
+    /**
+     * @return How many bytes <code>show</code> wrote out.
+     */
+    @Override
+    public long getShowBytes() {
+        return showBytes.sum();
+    }
+
+    /**
+     * @return How many words <code>get</code> read.
+     */
+    @Override
+    public long getGetReads() {
+        return getReads.sum();
+    }
+
+    /**
+     * @return How many programs stopped on a runtime error.
+     */
+    @Override
+    public long getRuntimeErrors() {
+        return runtimeErrors.sum();
+    }
+}
@@ -0,0 +1,26 @@
+package interpreter;
+
+/**
+ * The counters of {@link Metrics}, as they are seen through JMX.
+ */
+public interface MetricsMBean {
+    long getStatements();
+
+    long getCalls();
+
+    long getEnvironments();
+
+    /**
+     * @return The lookups of local variables, by how many scopes up they are found, the last one counting
+     *         those at least that deep.
+     */
+    long[] getLookups();
+
+    long getGlobalLookups();
+
+    long getShowBytes();
+
+    long getGetReads();
+
+    long getRuntimeErrors();
+}
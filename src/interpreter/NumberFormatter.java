@@ -0,0 +1,297 @@
+package interpreter;
+
+import java.math.BigInteger;
+
+/**
+ * Writes numbers the way {@link Interpreter#stringify(Object)} spells them, into a byte array, without allocating.
+ * <br />
+ * <br />
+ * The text is the one of {@link Double#toString(double)} without a trailing <code>.0</code>: the shortest
+ * decimal which reads back as the same number, written plainly from <code>0.001</code> to <code>10^7</code>
+ * and with an exponent (like <code>1.5E-7</code>) otherwise.
+ * <br />
+ * <br />
+ * Integers which fit in the 53 bits of a double are their own shortest decimal. Other numbers go through
+ * the <a href="https://github.com/c4f7fcce9cb06515/Schubfach">Schubfach</a> algorithm, which is also what
+ * the JDK uses, so that both always agree.
+ */
+public class NumberFormatter {
+    /**
+     * The longest text of a number, like <code>-2.2250738585072014E-308</code>.
+     */
+    public static final int MAX_LENGTH = 24;
+
+    private static final int PRECISION = 53;
+    private static final int MIN_EXPONENT = -1074;
+    private static final int EXPONENT_MASK = (1 << 11) - 1;
+    private static final long SIGNIFICAND_MASK = (1L << PRECISION - 1) - 1;
+    private static final long HIDDEN_BIT = 1L << PRECISION - 1;
+    // Subnormal significands below this get one more digit, to be long enough to be rounded.
+    private static final long TINY = 3;
+    private static final long MASK_63 = (1L << 63) - 1;
+
+    private static final int MIN_K = -324;
+    private static final int MAX_K = 292;
+    // The powers of ten 10^-k, as 126 bit approximations from above, split in the high and low 63 bits.
+    private static final long[] POWERS_HIGH = new long[MAX_K - MIN_K + 1];
+    private static final long[] POWERS_LOW = new long[MAX_K - MIN_K + 1];
+
+    static {
+        BigInteger low = BigInteger.ONE.shiftLeft(63).subtract(BigInteger.ONE);
+        for (int k = MIN_K; k <= MAX_K; k++) {
+            int shift = 125 - floorLog2Pow10(-k);
+            BigInteger g;
+            if (k <= 0) {
+                BigInteger power = BigInteger.TEN.pow(-k);
+                g = shift >= 0 ? power.shiftLeft(shift) : power.shiftRight(-shift);
+            } else {
+                g = BigInteger.ONE.shiftLeft(shift).divide(BigInteger.TEN.pow(k));
+            }
+            g = g.add(BigInteger.ONE);
+            POWERS_HIGH[k - MIN_K] = g.shiftRight(63).longValueExact();
+            POWERS_LOW[k - MIN_K] = g.and(low).longValueExact();
+        }
+    }
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L,
+            1_000_000_000L, 10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L, 10_000_000_000_000L,
+            100_000_000_000_000L, 1_000_000_000_000_000L, 10_000_000_000_000_000L, 100_000_000_000_000_000L
+    };
+
+    // "00", "01", ... "99", to write two digits at a time.
+    private static final byte[] DIGIT_PAIRS = new byte[200];
+
+    static {
+        for (int i = 0; i < 100; i++) {
+            DIGIT_PAIRS[2 * i] = (byte) ('0' + i / 10);
+            DIGIT_PAIRS[2 * i + 1] = (byte) ('0' + i % 10);
+        }
+    }
+
+    private static final byte[] NAN = {'N', 'a', 'N'};
+    private static final byte[] INFINITY = {'I', 'n', 'f', 'i', 'n', 'i', 't', 'y'};
+
+    private NumberFormatter() {
+    }
+
+    /**
+     * Write a number.
+     *
+     * @param value  The number.
+     * @param buffer Where to write it, with at least {@link #MAX_LENGTH} bytes left from <code>offset</code>.
+     * @param offset Where to start writing.
+     * @return The position after the last byte written.
+     */
+    public static int format(double value, byte[] buffer, int offset) {
+        long bits = Double.doubleToRawLongBits(value);
+        long significand = bits & SIGNIFICAND_MASK;
+        int biasedExponent = (int) (bits >>> PRECISION - 1) & EXPONENT_MASK;
+
+        if (biasedExponent == EXPONENT_MASK) {
+            if (significand != 0) {
+                return copy(NAN, buffer, offset);
+            }
+            if (bits < 0) {
+                buffer[offset++] = '-';
+            }
+            return copy(INFINITY, buffer, offset);
+        }
+
+        if (bits < 0) {
+            buffer[offset++] = '-';
+        }
+        if (biasedExponent != 0) {
+            int shift = -MIN_EXPONENT + 1 - biasedExponent;
+            long c = HIDDEN_BIT | significand;
+            if (0 < shift && shift < PRECISION) {
+                long integer = c >> shift;
+                if (integer << shift == c) {
+                    return write(integer, 0, buffer, offset);
+                }
+            }
+            return shortest(-shift, c, 0, buffer, offset);
+        }
+        if (significand != 0) {
+            return significand < TINY
+                    ? shortest(MIN_EXPONENT, 10 * significand, -1, buffer, offset)
+                    : shortest(MIN_EXPONENT, significand, 0, buffer, offset);
+        }
+        buffer[offset] = '0';
+        return offset + 1;
+    }
+
+    /**
+     * Find the shortest decimal <code>d 10^k</code> in the rounding interval of <code>c 2^q</code>,
+     * the closest one if there are several, and write it.
+     */
+    private static int shortest(int q, long c, int dk, byte[] buffer, int offset) {
+        int out = (int) c & 1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != HIDDEN_BIT | q == MIN_EXPONENT) {
+            cbl = cb - 2;
+            k = floorLog10Pow2(q);
+        } else {
+            // The interval is asymmetric below powers of two.
+            cbl = cb - 1;
+            k = floorLog10ThreeQuartersPow2(q);
+        }
+        int h = q + floorLog2Pow10(-k) + 2;
+
+        long g1 = POWERS_HIGH[k - MIN_K];
+        long g0 = POWERS_LOW[k - MIN_K];
+
+        long vb = roundToOdd(g1, g0, cb << h);
+        long vbl = roundToOdd(g1, g0, cbl << h);
+        long vbr = roundToOdd(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 100) {
+            // Try with one digit less first: s' = floor(s / 10).
+            long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                return write(upin ? sp10 : tp10, k, buffer, offset);
+            }
+        }
+
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            return write(uin ? s : t, k + dk, buffer, offset);
+        }
+        long cmp = vb - (s + t << 1);
+        return write(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k + dk, buffer, offset);
+    }
+
+    private static long roundToOdd(long g1, long g0, long cp) {
+        long x1 = Math.multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = Math.multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+    }
+
+    /**
+     * Write <code>f 10^e</code>, where <code>f</code> is positive.
+     */
+    private static int write(long f, int e, byte[] buffer, int offset) {
+        // The shortest decimal is found among 16 or 17 digit ones, most end with zeros.
+        while (f % 100_000_000 == 0) {
+            f /= 100_000_000;
+            e += 8;
+        }
+        if (f % 10_000 == 0) {
+            f /= 10_000;
+            e += 4;
+        }
+        if (f % 100 == 0) {
+            f /= 100;
+            e += 2;
+        }
+        if (f % 10 == 0) {
+            f /= 10;
+            e += 1;
+        }
+        int length = digitCount(f);
+        // The number is 0.digits 10^exponent.
+        int exponent = e + length;
+
+        if (0 < exponent && exponent <= 7) {
+            if (length <= exponent) {
+                offset = digits(f, length, buffer, offset);
+                for (int i = length; i < exponent; i++) {
+                    buffer[offset++] = '0';
+                }
+                return offset;
+            }
+            long divisor = POWERS_OF_TEN[length - exponent];
+            offset = digits(f / divisor, exponent, buffer, offset);
+            buffer[offset++] = '.';
+            return digits(f % divisor, length - exponent, buffer, offset);
+        }
+        if (-3 < exponent && exponent <= 0) {
+            buffer[offset++] = '0';
+            buffer[offset++] = '.';
+            for (int i = exponent; i < 0; i++) {
+                buffer[offset++] = '0';
+            }
+            return digits(f, length, buffer, offset);
+        }
+
+        long divisor = POWERS_OF_TEN[length - 1];
+        buffer[offset++] = (byte) ('0' + f / divisor);
+        buffer[offset++] = '.';
+        if (length > 1) {
+            offset = digits(f % divisor, length - 1, buffer, offset);
+        } else {
+            buffer[offset++] = '0';
+        }
+        buffer[offset++] = 'E';
+        int power = exponent - 1;
+        if (power < 0) {
+            buffer[offset++] = '-';
+            power = -power;
+        }
+        return digits(power, digitCount(power), buffer, offset);
+    }
+
+    /**
+     * Write the last <code>count</code> digits of a number, with leading zeros if it is shorter.
+     */
+    private static int digits(long value, int count, byte[] buffer, int offset) {
+        int end = offset + count;
+        int position = end;
+        while (value > Integer.MAX_VALUE) {
+            int pair = (int) (value % 100);
+            value /= 100;
+            buffer[--position] = DIGIT_PAIRS[2 * pair + 1];
+            buffer[--position] = DIGIT_PAIRS[2 * pair];
+        }
+        int small = (int) value;
+        while (position - offset >= 2) {
+            int pair = small % 100;
+            small /= 100;
+            buffer[--position] = DIGIT_PAIRS[2 * pair + 1];
+            buffer[--position] = DIGIT_PAIRS[2 * pair];
+        }
+        if (position > offset) {
+            buffer[--position] = (byte) ('0' + small % 10);
+        }
+        return end;
+    }
+
+    /**
+     * @return The number of digits of a positive number.
+     */
+    private static int digitCount(long value) {
+        int count = floorLog10Pow2(Long.SIZE - Long.numberOfLeadingZeros(value));
+        return value >= POWERS_OF_TEN[count] ? count + 1 : count;
+    }
+
+    private static int copy(byte[] text, byte[] buffer, int offset) {
+        System.arraycopy(text, 0, buffer, offset, text.length);
+        return offset + text.length;
+    }
+
+    // floor(log10(2^e)), floor(log10(3/4 2^e)) and floor(log2(10^e)), for the exponents of doubles.
+
+    private static int floorLog10Pow2(int e) {
+        return (int) (e * 661_971_961_083L >> 41);
+    }
+
+    private static int floorLog10ThreeQuartersPow2(int e) {
+        return (int) (e * 661_971_961_083L + -274_743_187_321L >> 41);
+    }
+
+    private static int floorLog2Pow10(int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+}
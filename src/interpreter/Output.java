@@ -0,0 +1,161 @@
+package interpreter;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where <code>show</code> prints, a buffer in front of the standard output.
+ * <br />
+ * <br />
+ * Values are written straight into the buffer the way {@link Interpreter#stringify(Object)} spells them
+ * (numbers by the {@link NumberFormatter}), and the buffer is written out once it is full, before reading
+ * the input (so that prompts are seen), and when the program stops. An unbuffered output also writes out every line as soon as it ends.
+ */
+public class Output implements Flushable {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final byte[] NULL = {'N', 'U', 'L', 'L'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private final boolean unbuffered;
+    private int count = 0;
+    private LongAdder written = null;
+
+    /**
+     * @param out        Where the output goes.
+     * @param capacity   How many bytes are kept before writing them out.
+     * @param unbuffered Whether to write out every line as soon as it ends.
+     */
+    public Output(OutputStream out, int capacity, boolean unbuffered) {
+        this.out = out;
+        this.buffer = new byte[capacity];
+        this.unbuffered = unbuffered;
+    }
+
+    /**
+     * @return An output to the standard output of the process.
+     */
+    public static Output standard(boolean unbuffered) {
+        return new Output(new FileOutputStream(FileDescriptor.out), DEFAULT_CAPACITY, unbuffered);
+    }
+
+    /**
+     * Count the bytes written out from now on, as they are written out.
+     */
+    void countWritten(LongAdder written) {
+        this.written = written;
+    }
+
+    /**
+     * Print a value followed by a space, like <code>show</code> does for each of its values.
+     */
+    public void print(Object value) {
+        if (value == null) {
+            write(NULL);
+        } else if (value instanceof Boolean bool) {
+            write(bool ? TRUE : FALSE);
+        } else if (value instanceof Double number) {
+            print(number.doubleValue());
+        } else {
+            write(value.toString());
+        }
+        write(' ');
+    }
+
+    private void print(double value) {
+        ensure(NumberFormatter.MAX_LENGTH);
+        count = NumberFormatter.format(value, buffer, count);
+    }
+
+    /**
+     * End the line of a <code>show</code> statement.
+     */
+    public void println() {
+        write('\n');
+        if (unbuffered) {
+            flush();
+        }
+    }
+
+    private void write(char c) {
+        ensure(1);
+        buffer[count++] = (byte) c;
+    }
+
+    private void write(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void write(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                writeLarge(text.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        if (text.length() > buffer.length) {
+            writeLarge(text.getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        ensure(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[count++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void writeLarge(byte[] bytes) {
+        if (bytes.length <= buffer.length) {
+            write(bytes);
+            return;
+        }
+        flush();
+        try {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (written != null) {
+            written.add(bytes.length);
+        }
+    }
+
+    /**
+     * Make room for some bytes, writing out the buffer if they don't fit.
+     */
+    private void ensure(int size) {
+        if (count + size > buffer.length) {
+            flush();
+        }
+    }
+
+    /**
+     * Write out everything printed so far.
+     */
+    @Override
+    public void flush() {
+        if (count == 0) {
+            return;
+        }
+        try {
+            out.write(buffer, 0, count);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (written != null) {
+            written.add(count);
+        }
+        count = 0;
+    }
+}
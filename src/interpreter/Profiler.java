@@ -0,0 +1,233 @@
+package interpreter;
+
+import language.Statement;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects where a program spends its time, for the {@link ProfilingInterpreter}.
+ * <br />
+ * <br />
+ * The program is seen as nested frames: the statements, by the line they start at, and the calls of user
+ * defined functions. For each line and each function, the profiler counts how many times it ran, its self time
+ * (spent in it but not in the frames inside it), its total time (including them, counted once for recursive
+ * frames) and the bytes allocated by the thread meanwhile, as an estimate of its allocations.
+ * <br />
+ * <br />
+ * It also keeps the tree of the stacks of frames, to write the self time of each stack in the collapsed format
+ * of <a href="https://github.com/brendangregg/FlameGraph">flame graph</a> tools. Only the outermost frames of a
+ * stack are kept in the tree, the frames deeper than them all count for a single one, so that a deep recursion
+ * costs the same for every call and doesn't write a line as long as its stack for every level.
+ */
+public class Profiler {
+    /**
+     * How many of the outermost frames of a stack are kept in the tree, the others are merged into a single frame.
+     */
+    private static final int MAX_DEPTH = 2048;
+    private static final Stats TRUNCATED = new Stats("[truncated]");
+
+    /**
+     * What is known about a line or a function.
+     */
+    private static class Stats {
+        final String name;
+        long count = 0;
+        long self = 0;
+        long total = 0;
+        long selfBytes = 0;
+        // How many frames of this line or function are on the stack, the total is only counted for the outermost.
+        int active = 0;
+
+        Stats(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A stack of frames, in the tree of all the stacks seen.
+     */
+    private static class Node {
+        final Stats stats;
+        final Node parent;
+        final Map<Stats, Node> children = new HashMap<>();
+        long self = 0;
+
+        Node(Stats stats, Node parent) {
+            this.stats = stats;
+            this.parent = parent;
+        }
+
+        Node child(Stats stats) {
+            Node child = children.get(stats);
+            if (child == null) {
+                child = new Node(stats, this);
+                children.put(stats, child);
+            }
+            return child;
+        }
+    }
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final boolean allocations;
+
+    private Stats[] lines = new Stats[256];
+    private final Map<Statement.FunctionDeclaration, Stats> functions = new IdentityHashMap<>();
+    private final Node root = new Node(null, null);
+    private Node current = root;
+
+    // The frames on the stack, in parallel arrays.
+    private int depth = 0;
+    private Stats[] frames = new Stats[64];
+    private long[] startTimes = new long[64];
+    private long[] startBytes = new long[64];
+    private long[] childTimes = new long[64];
+    private long[] childBytes = new long[64];
+    private boolean[] outermost = new boolean[64];
+
+    public Profiler() {
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        this.allocations = threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * Enter the frame of a statement.
+     */
+    void enter(Statement statement) {
+        int line = statement.line;
+        if (line >= lines.length) {
+            lines = Arrays.copyOf(lines, Math.max(line + 1, lines.length * 2));
+        }
+        Stats stats = lines[line];
+        if (stats == null) {
+            stats = lines[line] = new Stats("line " + line);
+        }
+        enter(stats);
+    }
+
+    /**
+     * Enter the frame of a call of a user defined function.
+     */
+    void enter(Statement.FunctionDeclaration declaration) {
+        Stats stats = functions.get(declaration);
+        if (stats == null) {
+            stats = new Stats(declaration.identifier.lexeme);
+            functions.put(declaration, stats);
+        }
+        enter(stats);
+    }
+
+    private void enter(Stats stats) {
+        if (depth == startTimes.length) {
+            int capacity = depth * 2;
+            frames = Arrays.copyOf(frames, capacity);
+            startTimes = Arrays.copyOf(startTimes, capacity);
+            startBytes = Arrays.copyOf(startBytes, capacity);
+            childTimes = Arrays.copyOf(childTimes, capacity);
+            childBytes = Arrays.copyOf(childBytes, capacity);
+            outermost = Arrays.copyOf(outermost, capacity);
+        }
+        if (depth < MAX_DEPTH) {
+            current = current.child(stats);
+        } else if (depth == MAX_DEPTH) {
+            current = current.child(TRUNCATED);
+        }
+        frames[depth] = stats;
+        stats.count++;
+        outermost[depth] = stats.active++ == 0;
+        childTimes[depth] = 0;
+        childBytes[depth] = 0;
+        startBytes[depth] = allocatedBytes();
+        startTimes[depth] = System.nanoTime();
+        depth++;
+    }
+
+    /**
+     * Leave the frame entered last.
+     */
+    void exit() {
+        long now = System.nanoTime();
+        long bytes = allocatedBytes();
+        depth--;
+        long elapsed = now - startTimes[depth];
+        long allocated = bytes - startBytes[depth];
+
+        Stats stats = frames[depth];
+        long self = elapsed - childTimes[depth];
+        stats.self += self;
+        stats.selfBytes += allocated - childBytes[depth];
+        current.self += self;
+        stats.active--;
+        if (outermost[depth]) {
+            stats.total += elapsed;
+        }
+        if (depth > 0) {
+            childTimes[depth - 1] += elapsed;
+            childBytes[depth - 1] += allocated;
+        }
+        if (depth <= MAX_DEPTH) {
+            current = current.parent;
+        }
+    }
+
+    private long allocatedBytes() {
+        return allocations ? threads.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    /**
+     * Print the lines and the functions, from the one with the most self time.
+     */
+    public void printFlatProfile(PrintStream out) {
+        List<Stats> lineStats = new ArrayList<>();
+        for (Stats stats : lines) {
+            if (stats != null) {
+                lineStats.add(stats);
+            }
+        }
+        print(out, "line", lineStats);
+        out.println();
+        print(out, "function", new ArrayList<>(functions.values()));
+    }
+
+    private void print(PrintStream out, String kind, List<Stats> stats) {
+        stats.sort(Comparator.comparingLong((Stats s) -> s.self).reversed());
+        out.printf("%10s %10s %12s %12s  %s%n", "self ms", "total ms", "count", "alloc KB", kind);
+        for (Stats s : stats) {
+            out.printf("%10.2f %10.2f %12d %12s  %s%n", s.self / 1e6, s.total / 1e6, s.count,
+                    allocations ? Long.toString(s.selfBytes / 1024) : "-", s.name);
+        }
+    }
+
+    /**
+     * Write one line per stack of frames: the frames from the outermost one separated by <code>;</code>,
+     * and the self time of the stack in nanoseconds.
+     */
+    public void printCollapsedStacks(PrintStream out) {
+        StringBuilder stack = new StringBuilder();
+        for (Node child : root.children.values()) {
+            printCollapsedStacks(out, child, stack);
+        }
+    }
+
+    private void printCollapsedStacks(PrintStream out, Node node, StringBuilder stack) {
+        int length = stack.length();
+        if (length > 0) {
+            stack.append(';');
+        }
+        stack.append(node.stats.name);
+        if (node.self > 0) {
+            out.append(stack).append(' ').println(node.self);
+        }
+        for (Node child : node.children.values()) {
+            printCollapsedStacks(out, child, stack);
+        }
+        stack.setLength(length);
+    }
+}
@@ -0,0 +1,40 @@
+package interpreter;
+
+import language.Function;
+import language.Statement;
+
+/**
+ * An interpreter recording every statement and function call in a {@link Profiler}.
+ * <br />
+ * <br />
+ * Profiling is a subclass rather than a flag so that the plain {@link Interpreter} doesn't pay anything
+ * for it: when this class isn't used, the JIT sees a single implementation of the hooks and inlines them.
+ */
+public class ProfilingInterpreter extends Interpreter {
+    private final Profiler profiler;
+
+    public ProfilingInterpreter(Input input, Output output, Profiler profiler) {
+        super(input, output);
+        this.profiler = profiler;
+    }
+
+    @Override
+    void execute(Statement statement) {
+        profiler.enter(statement);
+        try {
+            super.execute(statement);
+        } finally {
+            profiler.exit();
+        }
+    }
+
+    @Override
+    void executeBody(Function function, Environment frame) {
+        profiler.enter(function.declaration);
+        try {
+            super.executeBody(function, frame);
+        } finally {
+            profiler.exit();
+        }
+    }
+}
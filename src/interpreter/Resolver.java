@@ -0,0 +1,348 @@
+package interpreter;
+
+import language.Expression;
+import language.Statement;
+import scanner.Token;
+import util.Message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class performs a static pass over the syntax tree, between parsing and interpreting.
+ * <br />
+ * <br />
+ * Every variable reference gets the (depth, slot) pair of the declaration it refers to,
+ * and every scope gets the number of slots its {@link Environment} needs. Blocks which don't declare
+ * anything don't get a scope, so that they don't need an environment either.
+ * Redefinitions and assignments to immutable variables are reported here instead of at runtime.
+ * <br />
+ * <br />
+ * Functions don't capture the scope they are declared in, a call only sees its own
+ * parameters and the globals. Globals are resolved to a slot of {@link Interpreter#globals},
+ * whether they are defined yet is checked at runtime.
+ */
+public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+    private final Interpreter interpreter;
+    private List<Scope> scopes = new ArrayList<>();
+    private final Set<String> definedGlobals = new HashSet<>();
+    private final Map<String, Boolean> mutableGlobals = new HashMap<>();
+    private boolean inFunction = false;
+    private boolean hadError = false;
+
+    private static class Scope {
+        final Map<String, Integer> slots = new HashMap<>();
+        final Set<String> mutableVariables = new HashSet<>();
+        /**
+         * The loop whose variable is the only one of this scope, <code>null</code> for other scopes.
+         */
+        Statement.ForStatement loop = null;
+    }
+
+    public Resolver(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        for (String name : interpreter.globalNames()) {
+            definedGlobals.add(name);
+            mutableGlobals.put(name, false);
+        }
+    }
+
+    public boolean isHadError() {
+        return this.hadError;
+    }
+
+    public void resolve(List<Statement> statements) {
+        // Functions may refer to globals declared further down, so collect those first.
+        for (Statement statement : statements) {
+            if (statement instanceof Statement.VariableDeclaration declaration) {
+                mutableGlobals.putIfAbsent(declaration.identifier.lexeme, declaration.mutable);
+            } else if (statement instanceof Statement.FunctionDeclaration declaration) {
+                mutableGlobals.putIfAbsent(declaration.identifier.lexeme, false);
+            }
+        }
+        for (Statement statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Statement statement) {
+        statement.accept(this);
+    }
+
+    private void resolve(Expression expression) {
+        expression.accept(this);
+    }
+
+    private void beginScope() {
+        scopes.add(new Scope());
+    }
+
+    private int endScope() {
+        return scopes.remove(scopes.size() - 1).slots.size();
+    }
+
+    private int declare(Token identifier, boolean mutable) {
+        String name = identifier.lexeme;
+        if (scopes.isEmpty()) {
+            if (!definedGlobals.add(name)) {
+                error(identifier, "Variable `" + name + "` is already defined.");
+            }
+            return interpreter.globalSlot(name);
+        }
+
+        Scope scope = scopes.get(scopes.size() - 1);
+        if (scope.slots.containsKey(name)) {
+            error(identifier, "Variable `" + name + "` is already defined.");
+            return scope.slots.get(name);
+        }
+        int slot = scope.slots.size();
+        scope.slots.put(name, slot);
+        if (mutable) scope.mutableVariables.add(name);
+        return slot;
+    }
+
+    /**
+     * Find the declaration a name refers to.
+     *
+     * @return The depth of the scope holding it, or -1 for a global.
+     */
+    private int lookup(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).slots.containsKey(name)) {
+                return scopes.size() - 1 - i;
+            }
+        }
+        return -1;
+    }
+
+    private void error(Token token, String message) {
+        Message.error(token.line, message);
+        hadError = true;
+    }
+
+    @Override
+    public Void visitExpressionStatement(Statement.ExpressionStatement expressionStatement) {
+        resolve(expressionStatement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.PrintStatement printStatement) {
+        for (Expression expression : printStatement.expressions) {
+            resolve(expression);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableDeclarationStatement(Statement.VariableDeclaration variableDeclaration) {
+        // The initializer still sees an outer variable with the same name.
+        resolve(variableDeclaration.expression);
+        variableDeclaration.slot = declare(variableDeclaration.identifier, variableDeclaration.mutable);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStatement(Statement.Block blockStatement) {
+        boolean scoped = false;
+        for (Statement statement : blockStatement.statements) {
+            scoped |= declares(statement);
+        }
+        if (!scoped) {
+            for (Statement statement : blockStatement.statements) {
+                resolve(statement);
+            }
+            blockStatement.slots = 0;
+            return null;
+        }
+        beginScope();
+        for (Statement statement : blockStatement.statements) {
+            resolve(statement);
+        }
+        blockStatement.slots = endScope();
+        return null;
+    }
+
+    /**
+     * @return Whether the statement declares something in the scope it is in, which branches that aren't
+     *         blocks do too.
+     */
+    private static boolean declares(Statement statement) {
+        if (statement instanceof Statement.VariableDeclaration || statement instanceof Statement.FunctionDeclaration) {
+            return true;
+        }
+        if (statement instanceof Statement.IfStatement ifStatement) {
+            return declares(ifStatement.thenBranch)
+                    || (ifStatement.elseBranch != null && declares(ifStatement.elseBranch));
+        }
+        if (statement instanceof Statement.WhileStatement whileStatement) {
+            return declares(whileStatement.body);
+        }
+        return false;
+    }
+
+    @Override
+    public Void visitIfStatement(Statement.IfStatement ifStatement) {
+        resolve(ifStatement.condition);
+        resolve(ifStatement.thenBranch);
+        if (ifStatement.elseBranch != null) {
+            resolve(ifStatement.elseBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.WhileStatement whileStatement) {
+        resolve(whileStatement.condition);
+        resolve(whileStatement.body);
+        return null;
+    }
+
+    @Override
+    public Void visitForStatement(Statement.ForStatement forStatement) {
+        resolve(forStatement.lower);
+        resolve(forStatement.higher);
+        // The loop variable lives alone in slot 0 of its own environment, the step can refer to it.
+        beginScope();
+        scopes.get(scopes.size() - 1).loop = forStatement;
+        forStatement.counterRead = false;
+        forStatement.counterAssigned = false;
+        declare(forStatement.identifier, true);
+        resolve(forStatement.step);
+        resolve(forStatement.body);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionDeclarationStatement(Statement.FunctionDeclaration functionDeclarationStatement) {
+        functionDeclarationStatement.slot = declare(functionDeclarationStatement.identifier, false);
+
+        List<Scope> enclosing = scopes;
+        boolean enclosingInFunction = inFunction;
+        scopes = new ArrayList<>();
+        inFunction = true;
+        beginScope();
+        for (Token parameter : functionDeclarationStatement.parameters) {
+            declare(parameter, true);
+        }
+        // The body shares the environment of the parameters.
+        for (Statement statement : functionDeclarationStatement.body.statements) {
+            resolve(statement);
+        }
+        functionDeclarationStatement.slots = endScope();
+        scopes = enclosing;
+        inFunction = enclosingInFunction;
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.ReturnStatement returnStatement) {
+        if (!inFunction) {
+            error(returnStatement.keyword, "Can't return from outside a function.");
+        }
+        if (returnStatement.value != null) {
+            resolve(returnStatement.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(Expression.Binary expression) {
+        resolve(expression.left);
+        resolve(expression.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpression(Expression.Unary expression) {
+        resolve(expression.right);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpression(Expression.Literal expression) {
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpression(Expression.Get expression) {
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(Expression.Grouping expression) {
+        resolve(expression.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpression(Expression.Variable expression) {
+        String name = expression.identifier.lexeme;
+        int depth = lookup(name);
+        expression.depth = depth;
+        if (depth < 0) {
+            expression.slot = interpreter.globalSlot(name);
+            expression.mutable = mutableGlobals.getOrDefault(name, true);
+        } else {
+            Scope scope = scopes.get(scopes.size() - 1 - depth);
+            expression.slot = scope.slots.get(name);
+            expression.mutable = scope.mutableVariables.contains(name);
+            if (scope.loop != null) {
+                scope.loop.counterRead = true;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignmentExpression(Expression.Assignment expression) {
+        resolve(expression.expression);
+        String name = expression.identifier.lexeme;
+        int depth = lookup(name);
+        expression.depth = depth;
+        if (depth < 0) {
+            expression.slot = interpreter.globalSlot(name);
+            // Unknown globals are reported as undefined when the assignment runs.
+            if (!mutableGlobals.getOrDefault(name, true)) {
+                error(expression.identifier, "Variable `" + name + "` is not mutable.");
+            }
+        } else {
+            Scope scope = scopes.get(scopes.size() - 1 - depth);
+            expression.slot = scope.slots.get(name);
+            if (!scope.mutableVariables.contains(name)) {
+                error(expression.identifier, "Variable `" + name + "` is not mutable.");
+            }
+            if (scope.loop != null) {
+                scope.loop.counterAssigned = true;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpression(Expression.Logical expression) {
+        resolve(expression.left);
+        resolve(expression.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpression(Expression.Call expression) {
+        resolve(expression.callee);
+        for (Expression argument : expression.arguments) {
+            resolve(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitInvariantExpression(Expression.Invariant expression) {
+        resolve(expression.expression);
+        return null;
+    }
+}
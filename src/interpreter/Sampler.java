@@ -0,0 +1,162 @@
+package interpreter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A profiler which looks at the {@link ShadowStack} of a {@link SamplingInterpreter} at a fixed rate,
+ * from a daemon thread, and counts how many times each stack of frames was seen.
+ * <br />
+ * <br />
+ * The samples go through a ring buffer: the sampling thread adds them without ever taking a lock, and they are
+ * counted when the buffer is full or when the profile is written, which can happen while the program runs.
+ * The counts are written in the collapsed format of
+ * <a href="https://github.com/brendangregg/FlameGraph">flame graph</a> tools, like the {@link Profiler} does.
+ */
+public class Sampler {
+    /**
+     * The default number of samples per second.
+     */
+    public static final int DEFAULT_RATE = 1000;
+
+    /**
+     * How many of the innermost calls of a stack are kept, the others are replaced by a single frame.
+     */
+    private static final int MAX_DEPTH = 1024;
+    private static final int MAX_FRAMES = 2 * MAX_DEPTH + 1;
+    private static final String TRUNCATED = "[truncated]";
+
+    private static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+
+    private final ShadowStack stack;
+    private final long period;
+    private final Thread thread;
+    private volatile boolean running = false;
+
+    private final int[][] samples = new int[CAPACITY][];
+    // How many samples were ever added to the ring buffer, and taken from it.
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong taken = new AtomicLong();
+
+    private final Map<String, Long> counts = new HashMap<>();
+
+    /**
+     * @param stack The stack to sample.
+     * @param rate  How many samples to take per second.
+     */
+    public Sampler(ShadowStack stack, int rate) {
+        this.stack = stack;
+        this.period = 1_000_000_000L / rate;
+        this.thread = new Thread(this::run, "fun-sampler");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stop sampling, and wait for the last sample to be in the ring buffer.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        while (running) {
+            next += period;
+            long delay = next - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+                // Woken up early, by stop() or for no reason.
+                if (System.nanoTime() - next < 0) {
+                    next -= period;
+                    continue;
+                }
+            } else {
+                // Running late, skip the samples which were missed rather than taking them all at once.
+                next = System.nanoTime();
+            }
+            sample();
+        }
+    }
+
+    private void sample() {
+        // One call more than kept, to know whether there were more.
+        int[] frames = stack.snapshot(MAX_DEPTH + 1);
+        if (frames.length == 0) {
+            return;
+        }
+        long index = added.get();
+        if (index - taken.get() == CAPACITY) {
+            count();
+        }
+        samples[(int) index & MASK] = frames;
+        added.lazySet(index + 1);
+    }
+
+    /**
+     * Take the samples out of the ring buffer and count them.
+     */
+    private synchronized void count() {
+        long index = taken.get();
+        long end = added.get();
+        StringBuilder key = new StringBuilder();
+        for (; index < end; index++) {
+            int slot = (int) index & MASK;
+            int[] frames = samples[slot];
+            samples[slot] = null;
+
+            key.setLength(0);
+            int first = 0;
+            if (frames.length > MAX_FRAMES) {
+                key.append(TRUNCATED);
+                first = frames.length - MAX_FRAMES;
+            }
+            for (int i = first; i < frames.length; i++) {
+                if (!key.isEmpty()) {
+                    key.append(';');
+                }
+                key.append(stack.name(frames[i]));
+            }
+            counts.merge(key.toString(), 1L, Long::sum);
+        }
+        taken.lazySet(end);
+    }
+
+    /**
+     * Write one line per stack of frames seen: the frames from the outermost one separated by <code>;</code>,
+     * and the number of samples it was seen in.
+     * <br />
+     * <br />
+     * It can be called while sampling, to look at the profile so far.
+     */
+    public synchronized void printCollapsedStacks(PrintStream out) {
+        count();
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            out.append(entry.getKey()).append(' ').println(entry.getValue());
+        }
+    }
+
+    /**
+     * Write the profile so far to a file, as {@link #printCollapsedStacks(PrintStream)} does.
+     */
+    public synchronized void write(String path) throws IOException {
+        try (PrintStream out = new PrintStream(path)) {
+            printCollapsedStacks(out);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package interpreter;
+
+import language.Function;
+import language.Statement;
+
+/**
+ * An interpreter keeping its statements and function calls on a {@link ShadowStack}, for a {@link Sampler}.
+ * <br />
+ * <br />
+ * Unlike the {@link ProfilingInterpreter}, it doesn't measure anything itself: a statement writes its line
+ * in an array, and a call adds a frame to it, which keeps it cheap enough for programs which run for hours.
+ */
+public class SamplingInterpreter extends Interpreter {
+    private final ShadowStack stack;
+
+    public SamplingInterpreter(Input input, Output output, ShadowStack stack) {
+        super(input, output);
+        this.stack = stack;
+    }
+
+    @Override
+    void execute(Statement statement) {
+        stack.line(statement);
+        super.execute(statement);
+    }
+
+    @Override
+    public Void visitFunctionDeclarationStatement(Statement.FunctionDeclaration functionDeclarationStatement) {
+        stack.declare(functionDeclarationStatement);
+        return super.visitFunctionDeclarationStatement(functionDeclarationStatement);
+    }
+
+    @Override
+    void executeBody(Function function, Environment frame) {
+        int depth = stack.push(function.declaration);
+        try {
+            super.executeBody(function, frame);
+        } finally {
+            stack.pop(depth);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package interpreter;
+
+import language.Statement;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The function calls the {@link SamplingInterpreter} is in, and the line each of them is at, kept so that
+ * a {@link Sampler} can look at them from another thread.
+ * <br />
+ * <br />
+ * Running a statement only writes its line in the frame of the current call, there is nothing to undo when
+ * it ends: the line is the one of the last statement which started, which can be one nested in it. Calls are
+ * numbers rather than the declarations they run, because storing references in an array costs the interpreter
+ * a GC barrier every time, a call is the position of the name of the function in the source.
+ * <br />
+ * <br />
+ * Only the interpreter changes the stack, and it never waits for the sampler: a frame is written before
+ * the depth which includes it is published, so the sampler sees every frame below the depth it reads, unless
+ * they were replaced meanwhile. Samples can be slightly off that way, which is fine for a profile.
+ */
+public class ShadowStack {
+    private static final VarHandle DEPTH;
+
+    static {
+        try {
+            DEPTH = MethodHandles.lookup().findVarHandle(ShadowStack.class, "depth", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // The frame 0 is the top level of the program, which isn't a call.
+    private int[] calls = new int[256];
+    private int[] lines = new int[256];
+    @SuppressWarnings("unused") // Accessed through DEPTH.
+    private int depth = 0;
+
+    private final Map<Integer, String> functions = new ConcurrentHashMap<>();
+
+    /**
+     * Start running a statement in the current call.
+     */
+    void line(Statement statement) {
+        lines[(int) DEPTH.get(this)] = statement.line;
+    }
+
+    /**
+     * Enter a call of a function, which must have been {@link #declare(Statement.FunctionDeclaration) declared}.
+     *
+     * @return The depth before, to give back to {@link #pop(int)}.
+     */
+    int push(Statement.FunctionDeclaration declaration) {
+        int depth = (int) DEPTH.get(this);
+        if (depth + 1 == calls.length) {
+            calls = Arrays.copyOf(calls, calls.length * 2);
+            lines = Arrays.copyOf(lines, lines.length * 2);
+        }
+        calls[depth + 1] = declaration.identifier.offset;
+        // Until its first statement starts, the call is at the line it was declared.
+        lines[depth + 1] = declaration.line;
+        DEPTH.setOpaque(this, depth + 1);
+        return depth;
+    }
+
+    /**
+     * Leave the calls entered since the depth was the given one.
+     */
+    void pop(int depth) {
+        DEPTH.setOpaque(this, depth);
+    }
+
+    /**
+     * Remember the name of a function, to name its calls.
+     */
+    void declare(Statement.FunctionDeclaration declaration) {
+        functions.putIfAbsent(declaration.identifier.offset, declaration.identifier.lexeme);
+    }
+
+    /**
+     * Copy the frames, from the outermost one, possibly while they change: the line of the top level,
+     * then each call followed by its line. Calls are <code>-1 - offset</code> to tell them from lines.
+     *
+     * @param max How many of the innermost calls to copy at most.
+     */
+    int[] snapshot(int max) {
+        int depth = (int) DEPTH.getAcquire(this);
+        int[] calls = this.calls;
+        int[] lines = this.lines;
+        depth = Math.min(depth, Math.min(calls.length, lines.length) - 1);
+        int from = Math.max(0, depth - max);
+
+        int[] frames = new int[2 * (depth - from) + 1];
+        int i = 0;
+        frames[i++] = lines[from];
+        for (int call = from + 1; call <= depth; call++) {
+            frames[i++] = -1 - calls[call];
+            frames[i++] = lines[call];
+        }
+        return frames;
+    }
+
+    /**
+     * @return The name of a frame from a {@link #snapshot(int)}, <code>line N</code> for a line and the name of
+     *         the function for a call.
+     */
+    String name(int frame) {
+        if (frame >= 0) {
+            return "line " + frame;
+        }
+        return functions.getOrDefault(-1 - frame, "?");
+    }
+}
@@ -0,0 +1,50 @@
+package interpreter;
+
+import language.Statement;
+import util.Message;
+
+/**
+ * An interpreter which stops the program with a runtime error once it ran for too long.
+ * <br />
+ * <br />
+ * Every loop and every call executes statements, so checking the clock every so many statements is enough
+ * to stop any program, without asking another thread to interrupt it.
+ */
+public class TimedInterpreter extends Interpreter {
+    /**
+     * How many statements are executed between two looks at the clock.
+     */
+    private static final int CHECK_INTERVAL = 1024;
+
+    private final long deadline;
+    private int countdown = CHECK_INTERVAL;
+    private boolean timedOut = false;
+
+    /**
+     * @param timeout How many nanoseconds the program can run, from now.
+     */
+    public TimedInterpreter(Input input, Output output, long timeout) {
+        super(input, output);
+        this.deadline = System.nanoTime() + timeout;
+    }
+
+    /**
+     * @return Whether the program was stopped because it ran for too long.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    @Override
+    void execute(Statement statement) {
+        if (--countdown == 0) {
+            countdown = CHECK_INTERVAL;
+            if (System.nanoTime() - deadline > 0) {
+                timedOut = true;
+                Message.error(statement.line, "Timed out.");
+                throw new RuntimeError();
+            }
+        }
+        super.execute(statement);
+    }
+}
@@ -0,0 +1,426 @@
+package jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the bytes of a JVM class, for the classes generated at runtime.
+ * <br />
+ * <br />
+ * Only what the generated code needs is there: fields, methods, jumps and exception handlers, without
+ * interfaces, attributes or debug information. The classes are written in the version of Java 5, which is
+ * verified by inferring the types of the stack and locals, so no stack map frames have to be computed.
+ * <br />
+ * <br />
+ * The <a href="https://docs.oracle.com/javase/specs/jvms/se21/html/jvms-4.html">class file format</a> has
+ * the details. Names are internal names, like <code>java/lang/Object</code>.
+ */
+public final class ClassWriter {
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+    private int fieldCount = 0;
+    private final List<Method> methods = new ArrayList<>();
+
+    /**
+     * @param name      The name of the class.
+     * @param superName The name of the class it extends.
+     */
+    public ClassWriter(String name, String superName) {
+        this.thisClass = classConstant(name);
+        this.superClass = classConstant(superName);
+    }
+
+    public void field(int access, String name, String descriptor) {
+        DataOutputStream out = new DataOutputStream(fieldBytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        fieldCount++;
+    }
+
+    /**
+     * Start a method, whose code is then emitted through the returned {@link Method}.
+     */
+    public Method method(int access, String name, String descriptor) {
+        Method method = new Method(access, utf8(name), utf8(descriptor));
+        methods.add(method);
+        return method;
+    }
+
+    /**
+     * @return The class file.
+     * @throws IllegalStateException If a method is too large for the jumps of the class file format.
+     */
+    public byte[] toByteArray() {
+        int code = utf8("Code");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.flush();
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(fieldCount);
+            fieldBytes.writeTo(out);
+            out.writeShort(methods.size());
+            for (Method method : methods) {
+                method.write(out, code);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private int utf8(String value) {
+        Integer index = constants.get("U" + value);
+        if (index != null) {
+            return index;
+        }
+        try {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return add("U" + value, 1);
+    }
+
+    private int classConstant(String name) {
+        Integer index = constants.get("C" + name);
+        if (index != null) {
+            return index;
+        }
+        int utf8 = utf8(name);
+        write(CONSTANT_CLASS, utf8);
+        return add("C" + name, 1);
+    }
+
+    private int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        Integer index = constants.get("D" + bits);
+        if (index != null) {
+            return index;
+        }
+        try {
+            pool.writeByte(CONSTANT_DOUBLE);
+            pool.writeLong(bits);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // A double takes two entries of the pool.
+        return add("D" + bits, 2);
+    }
+
+    private int memberConstant(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + ":" + descriptor;
+        Integer index = constants.get(key);
+        if (index != null) {
+            return index;
+        }
+        int ownerIndex = classConstant(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        String nameAndTypeKey = "N" + name + ":" + descriptor;
+        Integer nameAndType = constants.get(nameAndTypeKey);
+        if (nameAndType == null) {
+            write(CONSTANT_NAME_AND_TYPE, nameIndex, descriptorIndex);
+            nameAndType = add(nameAndTypeKey, 1);
+        }
+        write(tag, ownerIndex, nameAndType);
+        return add(key, 1);
+    }
+
+    private void write(int tag, int... indexes) {
+        try {
+            pool.writeByte(tag);
+            for (int index : indexes) {
+                pool.writeShort(index);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int add(String key, int size) {
+        int index = poolCount;
+        constants.put(key, index);
+        poolCount += size;
+        return index;
+    }
+
+    /**
+     * @return How many stack slots the arguments of a method take, and its result.
+     */
+    private static int[] sizes(String descriptor) {
+        int arguments = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char type = descriptor.charAt(i);
+            arguments += type == 'D' || type == 'J' ? 2 : 1;
+            while (descriptor.charAt(i) == '[') {
+                i++;
+            }
+            i = descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+        }
+        char result = descriptor.charAt(i + 1);
+        return new int[]{arguments, result == 'V' ? 0 : result == 'D' || result == 'J' ? 2 : 1};
+    }
+
+    /**
+     * A position in the code of a method, which jumps can go to before it is placed.
+     */
+    public static final class Label {
+        private int position = -1;
+        private boolean listed = false;
+        private final List<int[]> jumps = new ArrayList<>();
+    }
+
+    /**
+     * The code of a method. The maximum depth of the stack is counted as instructions are emitted,
+     * the number of locals is given by whoever allocated them.
+     */
+    public final class Method {
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final List<int[]> handlers = new ArrayList<>();
+        private final List<Label> labels = new ArrayList<>();
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals = 0;
+
+        private Method(int access, int name, int descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        /**
+         * Emit an instruction without operands.
+         *
+         * @param effect How many stack slots it pushes, or pops if negative.
+         */
+        public void op(int opcode, int effect) {
+            code.write(opcode);
+            grow(effect);
+        }
+
+        /**
+         * Emit an instruction with a local variable as operand, like <code>dload</code> or <code>astore</code>.
+         */
+        public void local(int opcode, int local, int effect) {
+            if (local > 255) {
+                throw new IllegalStateException("Too many locals.");
+            }
+            code.write(opcode);
+            code.write(local);
+            grow(effect);
+        }
+
+        public void pushDouble(double value) {
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                op(Opcodes.DCONST_0, 2);
+            } else if (value == 1.0) {
+                op(Opcodes.DCONST_1, 2);
+            } else {
+                code.write(Opcodes.LDC2_W);
+                writeShort(doubleConstant(value));
+                grow(2);
+            }
+        }
+
+        public void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(Opcodes.ICONST_0 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.write(Opcodes.BIPUSH);
+                code.write(value);
+                grow(1);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                code.write(Opcodes.SIPUSH);
+                writeShort(value);
+                grow(1);
+            } else {
+                throw new IllegalStateException("Integer constant too large.");
+            }
+        }
+
+        /**
+         * Emit <code>getfield</code>, <code>putfield</code>, <code>getstatic</code> or <code>putstatic</code>.
+         */
+        public void field(int opcode, String owner, String name, String descriptor) {
+            code.write(opcode);
+            writeShort(memberConstant(CONSTANT_FIELDREF, owner, name, descriptor));
+            int size = descriptor.equals("D") || descriptor.equals("J") ? 2 : 1;
+            grow(switch (opcode) {
+                case Opcodes.GETSTATIC -> size;
+                case Opcodes.PUTSTATIC -> -size;
+                case Opcodes.GETFIELD -> size - 1;
+                default -> -size - 1;
+            });
+        }
+
+        /**
+         * Emit <code>invokevirtual</code>, <code>invokespecial</code> or <code>invokestatic</code>.
+         */
+        public void invoke(int opcode, String owner, String name, String descriptor) {
+            code.write(opcode);
+            writeShort(memberConstant(CONSTANT_METHODREF, owner, name, descriptor));
+            int[] sizes = sizes(descriptor);
+            grow(sizes[1] - sizes[0] - (opcode == Opcodes.INVOKESTATIC ? 0 : 1));
+        }
+
+        public void type(int opcode, String type) {
+            code.write(opcode);
+            writeShort(classConstant(type));
+            grow(opcode == Opcodes.NEW ? 1 : 0);
+        }
+
+        /**
+         * Emit a jump, <code>goto</code> or a conditional one, which pops what it tests.
+         */
+        public void jump(int opcode, Label label) {
+            int position = code.size();
+            code.write(opcode);
+            label.jumps.add(new int[]{position, code.size()});
+            writeShort(0);
+            list(label);
+            grow(switch (opcode) {
+                case Opcodes.GOTO -> 0;
+                case Opcodes.IF_ICMPEQ, Opcodes.IF_ICMPNE, Opcodes.IF_ACMPEQ, Opcodes.IF_ACMPNE -> -2;
+                default -> -1;
+            });
+        }
+
+        /**
+         * Place a label at the next instruction.
+         */
+        public void label(Label label) {
+            label.position = code.size();
+            list(label);
+        }
+
+        private void list(Label label) {
+            if (!label.listed) {
+                label.listed = true;
+                labels.add(label);
+            }
+        }
+
+        /**
+         * Catch the exceptions of a type thrown between two labels, the handler starts with the exception on the
+         * stack.
+         */
+        public void handler(Label start, Label end, Label handler, String type) {
+            list(start);
+            list(end);
+            list(handler);
+            handlers.add(new int[]{labels.indexOf(start), labels.indexOf(end), labels.indexOf(handler),
+                    classConstant(type)});
+        }
+
+        /**
+         * Set the depth of the stack, for code reached by jumps only (like exception handlers) rather than
+         * from the instruction before.
+         */
+        public void stack(int depth) {
+            stack = depth;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        /**
+         * @param maxLocals The number of local slots the method uses, its arguments (and <code>this</code>)
+         *                  included.
+         */
+        public void maxLocals(int maxLocals) {
+            this.maxLocals = maxLocals;
+        }
+
+        private void grow(int effect) {
+            stack = Math.max(stack + effect, 0);
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void writeShort(int value) {
+            code.write(value >> 8);
+            code.write(value);
+        }
+
+        private void write(DataOutputStream out, int codeName) throws IOException {
+            byte[] bytes = code.toByteArray();
+            if (bytes.length > Short.MAX_VALUE) {
+                throw new IllegalStateException("Method too large.");
+            }
+            for (Label label : labels) {
+                if (label.position < 0) {
+                    throw new IllegalStateException("Label never placed.");
+                }
+                for (int[] jump : label.jumps) {
+                    int offset = label.position - jump[0];
+                    bytes[jump[1]] = (byte) (offset >> 8);
+                    bytes[jump[1] + 1] = (byte) offset;
+                }
+            }
+
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + bytes.length + 8 * handlers.size());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeShort(handlers.size());
+            for (int[] handler : handlers) {
+                out.writeShort(labels.get(handler[0]).position);
+                out.writeShort(labels.get(handler[1]).position);
+                out.writeShort(labels.get(handler[2]).position);
+                out.writeShort(handler[3]);
+            }
+            out.writeShort(0);
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package language;
 
 import interpreter.Interpreter;
-import java.util.List;
 
 public interface Callable {
-    Object call (Interpreter interpreter, List<Object> arguments);
+    /**
+     * @param arguments The values of the arguments, exactly {@link #arity()} of them.
+     *                  The array belongs to the caller, it must not be kept after returning.
+     */
+    Object call (Interpreter interpreter, Object[] arguments);
     int arity();
 }
@@ -0,0 +1,307 @@
+package language;
+
+import scanner.Token;
+import scanner.TokenType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class flattens a resolved (and possibly optimized) syntax tree into a {@link CompactTree}.
+ * <br />
+ * <br />
+ * The children of a node are encoded before it, so the nodes of an expression end up in the order they
+ * are evaluated in, and the code of a loop in one piece of the arrays.
+ */
+public class CompactEncoder implements Expression.Visitor<Integer>, Statement.Visitor<Integer> {
+    // The arrays of the tree being encoded, which grow as needed.
+    private int[] kinds = new int[64];
+    private int[] lefts = new int[64];
+    private int[] rights = new int[64];
+    private int[] operands = new int[64];
+    private int[] lines = new int[64];
+    private int count = 0;
+    private double[] numbers = new double[8];
+    private int numberCount = 0;
+    private final Map<Double, Integer> numberIndices = new HashMap<>();
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+    private int[] lists = new int[64];
+    private int listCount = 0;
+
+    /**
+     * Encode a program once it went through the {@link interpreter.Resolver}. An encoder is used once.
+     */
+    public CompactTree encode(List<Statement> statements) {
+        int program = statementList(statements);
+        return new CompactTree(Arrays.copyOf(kinds, count), Arrays.copyOf(lefts, count), Arrays.copyOf(rights, count),
+                Arrays.copyOf(operands, count), Arrays.copyOf(lines, count), Arrays.copyOf(numbers, numberCount),
+                constants.toArray(), Arrays.copyOf(lists, listCount), program);
+    }
+
+    /**
+     * @return A new node, whose children are filled in with {@link #set}.
+     */
+    private int add(int kind, int line) {
+        if (count == kinds.length) {
+            int length = count * 2;
+            kinds = Arrays.copyOf(kinds, length);
+            lefts = Arrays.copyOf(lefts, length);
+            rights = Arrays.copyOf(rights, length);
+            operands = Arrays.copyOf(operands, length);
+            lines = Arrays.copyOf(lines, length);
+        }
+        kinds[count] = kind;
+        lefts[count] = -1;
+        rights[count] = -1;
+        operands[count] = -1;
+        lines[count] = line;
+        return count++;
+    }
+
+    private void set(int node, int left, int right, int operand) {
+        lefts[node] = left;
+        rights[node] = right;
+        operands[node] = operand;
+    }
+
+    /**
+     * Add a number to the pool, reusing the index of an equal one.
+     */
+    private int addNumber(double value) {
+        Integer index = numberIndices.get(value);
+        if (index != null) return index;
+        if (numberCount == numbers.length) {
+            numbers = Arrays.copyOf(numbers, numberCount * 2);
+        }
+        numbers[numberCount] = value;
+        numberIndices.put(value, numberCount);
+        return numberCount++;
+    }
+
+    /**
+     * Add a name or another value to the pool, reusing the index of an equal one.
+     */
+    private int addConstant(Object value) {
+        return constantIndices.computeIfAbsent(value, k -> {
+            constants.add(k);
+            return constants.size() - 1;
+        });
+    }
+
+    /**
+     * @return The index in the lists of a new list holding the first <code>size</code> items.
+     */
+    private int addList(int[] items, int size) {
+        int index = addRecord(size);
+        addRecord(Arrays.copyOf(items, size));
+        return index;
+    }
+
+    /**
+     * @return The index in the lists of the values, stored as they are.
+     */
+    private int addRecord(int... values) {
+        if (listCount + values.length > lists.length) {
+            lists = Arrays.copyOf(lists, Math.max(lists.length * 2, listCount + values.length));
+        }
+        int index = listCount;
+        System.arraycopy(values, 0, lists, listCount, values.length);
+        listCount += values.length;
+        return index;
+    }
+
+    private int encode(Statement statement) {
+        return statement == null ? -1 : statement.accept(this);
+    }
+
+    private int encode(Expression expression) {
+        return expression == null ? -1 : expression.accept(this);
+    }
+
+    private int statementList(List<Statement> statements) {
+        int[] items = new int[statements.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = encode(statements.get(i));
+        }
+        return addList(items, items.length);
+    }
+
+    private int expressionList(List<Expression> expressions) {
+        int[] items = new int[expressions.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = encode(expressions.get(i));
+        }
+        return addList(items, items.length);
+    }
+
+    private int node(int kind, int line, int left, int right, int operand) {
+        int node = add(kind, line);
+        set(node, left, right, operand);
+        return node;
+    }
+
+    @Override
+    public Integer visitExpressionStatement(Statement.ExpressionStatement expressionStatement) {
+        return node(CompactTree.EXPRESSION, expressionStatement.line, encode(expressionStatement.expression), -1, -1);
+    }
+
+    @Override
+    public Integer visitPrintStatement(Statement.PrintStatement printStatement) {
+        return node(CompactTree.PRINT, printStatement.line, -1, expressionList(printStatement.expressions), -1);
+    }
+
+    @Override
+    public Integer visitVariableDeclarationStatement(Statement.VariableDeclaration variableDeclaration) {
+        int kind = variableDeclaration.mutable ? CompactTree.DECLARE_MUTABLE : CompactTree.DECLARE;
+        return node(kind, variableDeclaration.identifier.line, encode(variableDeclaration.expression),
+                addConstant(variableDeclaration.identifier.lexeme), variableDeclaration.slot);
+    }
+
+    @Override
+    public Integer visitBlockStatement(Statement.Block blockStatement) {
+        return node(CompactTree.BLOCK, blockStatement.line, -1, statementList(blockStatement.statements),
+                blockStatement.slots);
+    }
+
+    @Override
+    public Integer visitIfStatement(Statement.IfStatement ifStatement) {
+        return node(CompactTree.IF, ifStatement.line, encode(ifStatement.condition), encode(ifStatement.thenBranch),
+                encode(ifStatement.elseBranch));
+    }
+
+    @Override
+    public Integer visitWhileStatement(Statement.WhileStatement whileStatement) {
+        return node(CompactTree.WHILE, whileStatement.line, encode(whileStatement.condition),
+                encode(whileStatement.body), whileStatement.invariants);
+    }
+
+    @Override
+    public Integer visitForStatement(Statement.ForStatement forStatement) {
+        int flags = (forStatement.counterRead ? CompactTree.COUNTER_READ : 0)
+                | (forStatement.counterAssigned ? CompactTree.COUNTER_ASSIGNED : 0);
+        int lower = encode(forStatement.lower);
+        int higher = encode(forStatement.higher);
+        int step = encode(forStatement.step);
+        int body = encode(forStatement.body);
+        int record = addRecord(lower, higher, step, body, flags);
+        return node(CompactTree.FOR, forStatement.identifier.line, addConstant(forStatement.identifier.lexeme),
+                record, forStatement.invariants);
+    }
+
+    @Override
+    public Integer visitFunctionDeclarationStatement(Statement.FunctionDeclaration functionDeclarationStatement) {
+        int body = encode(functionDeclarationStatement.body);
+        List<Token> parameters = functionDeclarationStatement.parameters;
+        int[] record = new int[4 + parameters.size()];
+        record[0] = addConstant(functionDeclarationStatement.identifier.lexeme);
+        record[1] = functionDeclarationStatement.slots;
+        record[2] = (functionDeclarationStatement.pure ? CompactTree.PURE : 0)
+                | (functionDeclarationStatement.memoize ? CompactTree.MEMOIZE : 0);
+        record[3] = parameters.size();
+        for (int i = 0; i < parameters.size(); i++) {
+            record[4 + i] = addConstant(parameters.get(i).lexeme);
+        }
+        return node(CompactTree.FUNCTION, functionDeclarationStatement.identifier.line, body,
+                addRecord(record), functionDeclarationStatement.slot);
+    }
+
+    @Override
+    public Integer visitReturnStatement(Statement.ReturnStatement returnStatement) {
+        return node(CompactTree.RETURN, returnStatement.keyword.line, encode(returnStatement.value), -1, -1);
+    }
+
+    @Override
+    public Integer visitBinaryExpression(Expression.Binary expression) {
+        int kind = switch (expression.operator.type) {
+            case PLUS -> CompactTree.ADD;
+            case MINUS -> CompactTree.SUBTRACT;
+            case STAR -> CompactTree.MULTIPLY;
+            case SLASH -> CompactTree.DIVIDE;
+            case MODULO -> CompactTree.MODULO;
+            case DOUBLE_STAR -> CompactTree.POWER;
+            case DOUBLE_EQUAL -> CompactTree.EQUAL;
+            case GREATER -> CompactTree.GREATER;
+            case GREATER_EQUAL -> CompactTree.GREATER_EQUAL;
+            case LESS -> CompactTree.LESS;
+            case LESS_EQUAL -> CompactTree.LESS_EQUAL;
+            default -> throw new IllegalArgumentException("Unknown binary operator " + expression.operator.type);
+        };
+        return node(kind, expression.operator.line, encode(expression.left), encode(expression.right), -1);
+    }
+
+    @Override
+    public Integer visitUnaryExpression(Expression.Unary expression) {
+        int kind = switch (expression.operator.type) {
+            case MINUS -> CompactTree.NEGATE;
+            case NOT -> CompactTree.NOT;
+            default -> throw new IllegalArgumentException("Unknown unary operator " + expression.operator.type);
+        };
+        return node(kind, expression.operator.line, encode(expression.right), -1, -1);
+    }
+
+    @Override
+    public Integer visitLiteralExpression(Expression.Literal expression) {
+        Object value = expression.value;
+        if (value instanceof Double number) {
+            return node(CompactTree.NUMBER, 0, -1, -1, addNumber(number));
+        }
+        if (value == null) {
+            return node(CompactTree.NULL, 0, -1, -1, -1);
+        }
+        if (value instanceof Boolean bool) {
+            return node(bool ? CompactTree.TRUE : CompactTree.FALSE, 0, -1, -1, -1);
+        }
+        return node(CompactTree.CONSTANT, 0, -1, -1, addConstant(value));
+    }
+
+    @Override
+    public Integer visitGetExpression(Expression.Get expression) {
+        return node(CompactTree.GET, 0, -1, -1, -1);
+    }
+
+    @Override
+    public Integer visitGroupingExpression(Expression.Grouping expression) {
+        return encode(expression.expression);
+    }
+
+    @Override
+    public Integer visitVariableExpression(Expression.Variable expression) {
+        int name = addConstant(expression.identifier.lexeme);
+        if (expression.depth >= 0) {
+            return node(CompactTree.LOCAL, expression.identifier.line, expression.depth, name, expression.slot);
+        }
+        return node(CompactTree.GLOBAL, expression.identifier.line, -1, name, expression.slot);
+    }
+
+    @Override
+    public Integer visitAssignmentExpression(Expression.Assignment expression) {
+        int value = encode(expression.expression);
+        int name = addConstant(expression.identifier.lexeme);
+        int line = expression.identifier.line;
+        int target = expression.depth >= 0
+                ? node(CompactTree.LOCAL, line, expression.depth, name, expression.slot)
+                : node(CompactTree.GLOBAL, line, -1, name, expression.slot);
+        return node(CompactTree.ASSIGN, line, value, target, -1);
+    }
+
+    @Override
+    public Integer visitLogicalExpression(Expression.Logical expression) {
+        int kind = expression.operator.type == TokenType.OR ? CompactTree.OR : CompactTree.AND;
+        return node(kind, expression.operator.line, encode(expression.left), encode(expression.right), -1);
+    }
+
+    @Override
+    public Integer visitCallExpression(Expression.Call expression) {
+        return node(CompactTree.CALL, expression.token.line, encode(expression.callee),
+                expressionList(expression.arguments), -1);
+    }
+
+    @Override
+    public Integer visitInvariantExpression(Expression.Invariant expression) {
+        return node(CompactTree.INVARIANT, 0, encode(expression.expression), -1, expression.index);
+    }
+}
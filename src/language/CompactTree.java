@@ -0,0 +1,350 @@
+package language;
+
+import scanner.Token;
+import scanner.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A resolved program flattened into parallel arrays, made by the {@link CompactEncoder}.
+ * <br />
+ * <br />
+ * Every node is an index into {@link #kinds}, {@link #lefts}, {@link #rights}, {@link #operands} and
+ * {@link #lines}, so a node takes 20 bytes and nodes which follow each other in the source are next to each
+ * other in memory, instead of being objects pointing to tokens all over the heap. Numbers are in the pool
+ * {@link #numbers}, names and other values in {@link #constants}, and the children of the nodes which have
+ * more than two (blocks, calls, <code>show</code>, <code>for</code> loops and functions) in {@link #lists}.
+ * A missing child is <code>-1</code>.
+ * <br />
+ * <br />
+ * Groupings are dropped, the shape of the tree is enough. {@link #statements()} gives the program back as
+ * {@link Statement}s and {@link Expression}s for tooling.
+ */
+public final class CompactTree {
+    /*
+     * The kinds of nodes. Those which always produce a number come first, up to POWER.
+     */
+
+    /** <code>operand</code>: index in {@link #numbers}. */
+    public static final int NUMBER = 0;
+    /** <code>-left</code> */
+    public static final int NEGATE = 1;
+    /** <code>left + right</code>, and so on up to {@link #POWER}. */
+    public static final int ADD = 2;
+    public static final int SUBTRACT = 3;
+    public static final int MULTIPLY = 4;
+    public static final int DIVIDE = 5;
+    public static final int MODULO = 6;
+    public static final int POWER = 7;
+
+    /** <code>left == right</code>, and so on up to {@link #LESS_EQUAL}. */
+    public static final int EQUAL = 8;
+    public static final int GREATER = 9;
+    public static final int GREATER_EQUAL = 10;
+    public static final int LESS = 11;
+    public static final int LESS_EQUAL = 12;
+    /** <code>left and right</code> */
+    public static final int AND = 13;
+    /** <code>left or right</code> */
+    public static final int OR = 14;
+    /** <code>not left</code> */
+    public static final int NOT = 15;
+
+    public static final int TRUE = 16;
+    public static final int FALSE = 17;
+    public static final int NULL = 18;
+    /** <code>operand</code>: index in {@link #constants}, for literals which are neither numbers nor booleans. */
+    public static final int CONSTANT = 19;
+    /** <code>get</code> */
+    public static final int GET = 20;
+    /** <code>left</code>: depth, <code>right</code>: name, <code>operand</code>: slot. */
+    public static final int LOCAL = 21;
+    /** <code>right</code>: name, <code>operand</code>: slot in the globals. */
+    public static final int GLOBAL = 22;
+    /** <code>left</code>: value, <code>right</code>: the {@link #LOCAL} or {@link #GLOBAL} assigned. */
+    public static final int ASSIGN = 23;
+    /** <code>left</code>: callee, <code>right</code>: list of the arguments. */
+    public static final int CALL = 24;
+    /** <code>left</code>: expression, <code>operand</code>: index among the invariants of the loop. */
+    public static final int INVARIANT = 25;
+
+    /** <code>left</code>: expression. */
+    public static final int EXPRESSION = 26;
+    /** <code>right</code>: list of the expressions. */
+    public static final int PRINT = 27;
+    /** <code>left</code>: value, <code>right</code>: name, <code>operand</code>: slot. */
+    public static final int DECLARE = 28;
+    /** <code>left</code>: value, <code>right</code>: name, <code>operand</code>: slot. */
+    public static final int DECLARE_MUTABLE = 29;
+    /** <code>right</code>: list of the statements, <code>operand</code>: slots of its environment. */
+    public static final int BLOCK = 30;
+    /** <code>left</code>: condition, <code>right</code>: then branch, <code>operand</code>: else branch. */
+    public static final int IF = 31;
+    /** <code>left</code>: condition, <code>right</code>: body, <code>operand</code>: number of invariants. */
+    public static final int WHILE = 32;
+    /**
+     * <code>left</code>: name of the counter, <code>right</code>: index in {@link #lists} of lower, higher, step,
+     * body and {@link #COUNTER_READ} | {@link #COUNTER_ASSIGNED}, <code>operand</code>: number of invariants.
+     */
+    public static final int FOR = 33;
+    /**
+     * <code>left</code>: body, <code>right</code>: index in {@link #lists} of the name, slots, {@link #PURE} |
+     * {@link #MEMOIZE} and the list of the names of the parameters, <code>operand</code>: slot.
+     */
+    public static final int FUNCTION = 34;
+    /** <code>left</code>: value. */
+    public static final int RETURN = 35;
+
+    /** Flags of a {@link #FOR}. */
+    public static final int COUNTER_READ = 1;
+    public static final int COUNTER_ASSIGNED = 2;
+    /** Flags of a {@link #FUNCTION}. */
+    public static final int PURE = 1;
+    public static final int MEMOIZE = 2;
+
+    private final int[] kinds;
+    private final int[] lefts;
+    private final int[] rights;
+    private final int[] operands;
+    /**
+     * The line of every node, for errors.
+     */
+    private final int[] lines;
+    private final double[] numbers;
+    private final Object[] constants;
+    /**
+     * The lists of children, each one its length followed by its items, and the records of the <code>for</code>
+     * loops and functions.
+     */
+    private final int[] lists;
+    /**
+     * The list of the statements of the program.
+     */
+    private final int program;
+
+    CompactTree(int[] kinds, int[] lefts, int[] rights, int[] operands, int[] lines, double[] numbers,
+                Object[] constants, int[] lists, int program) {
+        this.kinds = kinds;
+        this.lefts = lefts;
+        this.rights = rights;
+        this.operands = operands;
+        this.lines = lines;
+        this.numbers = numbers;
+        this.constants = constants;
+        this.lists = lists;
+        this.program = program;
+    }
+
+    /*
+     * The arrays are given out as they are, for the interpreter to walk them without a copy. They must not be
+     * modified.
+     */
+
+    public int[] kinds() {
+        return kinds;
+    }
+
+    public int[] lefts() {
+        return lefts;
+    }
+
+    public int[] rights() {
+        return rights;
+    }
+
+    public int[] operands() {
+        return operands;
+    }
+
+    public int[] lines() {
+        return lines;
+    }
+
+    public double[] numbers() {
+        return numbers;
+    }
+
+    public Object[] constants() {
+        return constants;
+    }
+
+    public int[] lists() {
+        return lists;
+    }
+
+    /**
+     * @return The index in {@link #lists} of the list of the statements of the program.
+     */
+    public int program() {
+        return program;
+    }
+
+    /**
+     * @return The number of nodes.
+     */
+    public int count() {
+        return kinds.length;
+    }
+
+    /**
+     * @return The name a {@link #LOCAL}, {@link #GLOBAL}, declaration or <code>for</code> refers to.
+     */
+    public String name(int node) {
+        int name = kinds[node] == FOR ? lefts[node] : kinds[node] == FUNCTION ? lists[rights[node]] : rights[node];
+        return (String) constants[name];
+    }
+
+    /**
+     * @return The number of bytes the arrays take, headers left out.
+     */
+    public long bytes() {
+        return 5L * Integer.BYTES * kinds.length + (long) Double.BYTES * numbers.length
+                + (long) Integer.BYTES * lists.length + (long) Integer.BYTES * constants.length;
+    }
+
+    /**
+     * Decode the program, with the slots given by the {@link interpreter.Resolver} and the invariants of the
+     * {@link optimizer.Optimizer}. The nodes are new ones, and their tokens only have a type, a lexeme and a line.
+     */
+    public List<Statement> statements() {
+        return statementList(program);
+    }
+
+    private List<Statement> statementList(int list) {
+        int size = lists[list];
+        List<Statement> statements = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            statements.add(statement(lists[list + i]));
+        }
+        return statements;
+    }
+
+    private List<Expression> expressionList(int list) {
+        int size = lists[list];
+        List<Expression> expressions = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            expressions.add(expression(lists[list + i]));
+        }
+        return expressions;
+    }
+
+    private Token token(TokenType type, String lexeme, int line) {
+        return new Token(type, lexeme, null, line, 0, 0);
+    }
+
+    private Statement statement(int node) {
+        if (node < 0) {
+            return null;
+        }
+        int left = lefts[node];
+        int right = rights[node];
+        int operand = operands[node];
+        int line = lines[node];
+        Statement statement = switch (kinds[node]) {
+            case EXPRESSION -> new Statement.ExpressionStatement(expression(left));
+            case PRINT -> new Statement.PrintStatement(expressionList(right));
+            case DECLARE, DECLARE_MUTABLE -> {
+                Statement.VariableDeclaration declaration = new Statement.VariableDeclaration(
+                        token(TokenType.IDENTIFIER, name(node), line), expression(left), kinds[node] == DECLARE_MUTABLE);
+                declaration.slot = operand;
+                yield declaration;
+            }
+            case BLOCK -> block(node);
+            case IF -> new Statement.IfStatement(expression(left), statement(right), statement(operand));
+            case WHILE -> {
+                Statement.WhileStatement whileStatement = new Statement.WhileStatement(expression(left), statement(right));
+                whileStatement.invariants = operand;
+                yield whileStatement;
+            }
+            case FOR -> {
+                Statement.ForStatement forStatement = new Statement.ForStatement(
+                        token(TokenType.IDENTIFIER, name(node), line), expression(lists[right]),
+                        expression(lists[right + 1]), expression(lists[right + 2]), statement(lists[right + 3]));
+                int flags = lists[right + 4];
+                forStatement.counterRead = (flags & COUNTER_READ) != 0;
+                forStatement.counterAssigned = (flags & COUNTER_ASSIGNED) != 0;
+                forStatement.invariants = operand;
+                yield forStatement;
+            }
+            case FUNCTION -> {
+                int parameterList = right + 3;
+                List<Token> parameters = new ArrayList<>(lists[parameterList]);
+                for (int i = 1; i <= lists[parameterList]; i++) {
+                    parameters.add(token(TokenType.IDENTIFIER, (String) constants[lists[parameterList + i]], line));
+                }
+                int flags = lists[right + 2];
+                Statement.FunctionDeclaration declaration = new Statement.FunctionDeclaration(
+                        token(TokenType.IDENTIFIER, name(node), line), parameters, block(left), (flags & PURE) != 0);
+                declaration.memoize = (flags & MEMOIZE) != 0;
+                declaration.slot = operand;
+                declaration.slots = lists[right + 1];
+                yield declaration;
+            }
+            case RETURN -> new Statement.ReturnStatement(token(TokenType.RETURN, "return", line), expression(left));
+            default -> throw new IllegalStateException("Node " + node + " isn't a statement.");
+        };
+        statement.line = line;
+        return statement;
+    }
+
+    private Statement.Block block(int node) {
+        Statement.Block block = new Statement.Block(statementList(rights[node]));
+        block.slots = operands[node];
+        block.line = lines[node];
+        return block;
+    }
+
+    private Expression expression(int node) {
+        if (node < 0) {
+            return null;
+        }
+        int left = lefts[node];
+        int right = rights[node];
+        int operand = operands[node];
+        int line = lines[node];
+        return switch (kinds[node]) {
+            case NUMBER -> new Expression.Literal(numbers[operand]);
+            case NEGATE -> new Expression.Unary(token(TokenType.MINUS, "-", line), expression(left));
+            case NOT -> new Expression.Unary(token(TokenType.NOT, "not", line), expression(left));
+            case ADD -> binary(node, TokenType.PLUS, "+");
+            case SUBTRACT -> binary(node, TokenType.MINUS, "-");
+            case MULTIPLY -> binary(node, TokenType.STAR, "*");
+            case DIVIDE -> binary(node, TokenType.SLASH, "/");
+            case MODULO -> binary(node, TokenType.MODULO, "%");
+            case POWER -> binary(node, TokenType.DOUBLE_STAR, "**");
+            case EQUAL -> binary(node, TokenType.DOUBLE_EQUAL, "==");
+            case GREATER -> binary(node, TokenType.GREATER, ">");
+            case GREATER_EQUAL -> binary(node, TokenType.GREATER_EQUAL, ">=");
+            case LESS -> binary(node, TokenType.LESS, "<");
+            case LESS_EQUAL -> binary(node, TokenType.LESS_EQUAL, "<=");
+            case AND -> new Expression.Logical(expression(left), token(TokenType.AND, "and", line), expression(right));
+            case OR -> new Expression.Logical(expression(left), token(TokenType.OR, "or", line), expression(right));
+            case TRUE -> new Expression.Literal(true);
+            case FALSE -> new Expression.Literal(false);
+            case NULL -> new Expression.Literal(null);
+            case CONSTANT -> new Expression.Literal(constants[operand]);
+            case GET -> new Expression.Get();
+            case LOCAL, GLOBAL -> {
+                Expression.Variable variable = new Expression.Variable(token(TokenType.IDENTIFIER, name(node), line));
+                variable.depth = kinds[node] == LOCAL ? left : -1;
+                variable.slot = operand;
+                yield variable;
+            }
+            case ASSIGN -> {
+                Expression.Assignment assignment = new Expression.Assignment(
+                        token(TokenType.IDENTIFIER, name(right), lines[right]), expression(left));
+                assignment.depth = kinds[right] == LOCAL ? lefts[right] : -1;
+                assignment.slot = operands[right];
+                yield assignment;
+            }
+            case CALL -> new Expression.Call(expression(left), expressionList(right), token(TokenType.RIGHT_PAREN, ")", line));
+            case INVARIANT -> new Expression.Invariant(expression(left), operand);
+            default -> throw new IllegalStateException("Node " + node + " isn't an expression.");
+        };
+    }
+
+    private Expression.Binary binary(int node, TokenType type, String lexeme) {
+        return new Expression.Binary(expression(lefts[node]), token(type, lexeme, lines[node]), expression(rights[node]));
+    }
+}
@@ -1,5 +1,6 @@
 package language;
 
+import interpreter.BinaryNode;
 import scanner.Token;
 
 import java.util.List;
@@ -18,6 +19,11 @@ public abstract class Expression {
         public final Expression left;
         public final Token operator;
         public final Expression right;
+        /**
+         * The implementation the {@link interpreter.Interpreter} specialized this expression to,
+         * or <code>null</code> until it is executed for the first time.
+         */
+        public BinaryNode node;
 
         public Binary(Expression left, Token operator, Expression right) {
             this.left = left;
@@ -93,8 +99,27 @@ public abstract class Expression {
         }
     }
 
+    /**
+     * This class represents a variable reference. <br />
+     * Eg: <code>a</code>
+     */
     public static class Variable extends Expression {
         public final Token identifier;
+        /**
+         * Number of environments to walk up from the current one, or <code>-1</code> for a global.
+         * Filled in by the {@link interpreter.Resolver}.
+         */
+        public int depth = -1;
+        /**
+         * Index of the variable inside the environment it lives in.
+         * Filled in by the {@link interpreter.Resolver}.
+         */
+        public int slot = -1;
+        /**
+         * Whether the variable can be assigned, builtins and functions can't.
+         * Filled in by the {@link interpreter.Resolver}.
+         */
+        public boolean mutable = true;
 
         public Variable(Token identifier) {
             this.identifier = identifier;
@@ -106,9 +131,21 @@ public abstract class Expression {
         }
     }
 
+    /**
+     * This class represents an assignment to an existing variable. <br />
+     * Eg: <code>a = 1</code>
+     */
     public static class Assignment extends Expression {
         public final Token identifier;
         public final Expression expression;
+        /**
+         * @see Variable#depth
+         */
+        public int depth = -1;
+        /**
+         * @see Variable#slot
+         */
+        public int slot = -1;
 
         public Assignment(Token identifier, Expression expression) {
             this.identifier = identifier;
@@ -121,6 +158,31 @@ public abstract class Expression {
         }
     }
 
+    /**
+     * This class represents a part of a loop which gives the same value at every iteration, so that it is only
+     * evaluated once every time the loop runs. <br />
+     * Eg: <code>sin(k)</code> in <code>while i &lt; 10 { i = i + sin(k); }</code>
+     * <br />
+     * Created by the {@link optimizer.Optimizer}.
+     */
+    public static class Invariant extends Expression {
+        public final Expression expression;
+        /**
+         * Index of the value among the ones of the loop, see {@link Statement.WhileStatement#invariants}.
+         */
+        public final int index;
+
+        public Invariant(Expression expression, int index) {
+            this.expression = expression;
+            this.index = index;
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visitInvariantExpression(this);
+        }
+    }
+
     public static class Logical extends Expression {
         public final Expression left;
         public final Token operator;
@@ -142,6 +204,11 @@ public abstract class Expression {
         public final Expression callee;
         public final List<Expression> arguments;
         public final Token token;
+        /**
+         * What the {@link interpreter.Interpreter} called here last, which is known to be callable with this
+         * number of arguments: the declaration of a user defined function, or a native {@link Callable}.
+         */
+        public Object target;
 
         public Call(Expression callee, List<Expression> arguments, Token token) {
             this.callee = callee;
@@ -173,6 +240,7 @@ public abstract class Expression {
         T visitAssignmentExpression(Assignment expression);
         T visitLogicalExpression(Logical expression);
         T visitCallExpression(Call expression);
+        T visitInvariantExpression(Invariant expression);
     }
 
     /**
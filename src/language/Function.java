@@ -1,24 +1,23 @@
 package language;
 
-import interpreter.Environment;
 import interpreter.Interpreter;
-
-import java.util.List;
+import interpreter.MemoCache;
 
 public class Function implements Callable{
-    private final Statement.FunctionDeclaration declaration;
-    public Function(Statement.FunctionDeclaration declaration) {
+    public final Statement.FunctionDeclaration declaration;
+    /**
+     * The cache of results, if the function is memoized.
+     */
+    public final MemoCache memo;
+
+    public Function(Statement.FunctionDeclaration declaration, MemoCache memo) {
         this.declaration = declaration;
+        this.memo = memo;
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(interpreter.globals);
-        for (int i = 0; i < declaration.parameters.size(); i++) {
-            environment.define(declaration.parameters.get(i).lexeme, arguments.get(i), true);
-        }
-        interpreter.executeBlock(declaration.body, environment);
-        return null;
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return interpreter.callFunction(this, arguments);
     }
 
     @Override
@@ -5,8 +5,19 @@ import scanner.Token;
 import java.util.List;
 
 public abstract class Statement {
+    /**
+     * The line the statement starts at, filled in by the {@link parser.Parser}.
+     */
+    public int line = 0;
+
     public static class Block extends Statement {
         public List<Statement> statements;
+        /**
+         * Number of variables declared directly inside this block. A block which declares none has no
+         * environment of its own, it runs in the one around it.
+         * Filled in by the {@link interpreter.Resolver}.
+         */
+        public int slots = 0;
 
         public Block(List<Statement> statements) {
             this.statements = statements;
@@ -48,6 +59,11 @@ public abstract class Statement {
         public final Token identifier;
         public final Expression expression;
         public final Boolean mutable;
+        /**
+         * Index of the variable inside the current environment.
+         * Filled in by the {@link interpreter.Resolver}.
+         */
+        public int slot = -1;
 
         public VariableDeclaration(Token identifier, Expression expression, Boolean mutable) {
             this.identifier = identifier;
@@ -81,6 +97,11 @@ public abstract class Statement {
     public static class WhileStatement extends Statement {
         public final Expression condition;
         public final Statement body;
+        /**
+         * How many {@link Expression.Invariant} the condition and the body hold.
+         * Filled in by the {@link optimizer.Optimizer}.
+         */
+        public int invariants = 0;
 
         public WhileStatement(Expression condition, Statement body) {
             this.condition = condition;
@@ -99,6 +120,21 @@ public abstract class Statement {
         public final Expression higher;
         public final Expression step;
         public final Statement body;
+        /**
+         * Whether the step or the body read the loop variable.
+         * Filled in by the {@link interpreter.Resolver}.
+         */
+        public boolean counterRead = false;
+        /**
+         * Whether the step or the body assign the loop variable, otherwise only the loop moves it.
+         * Filled in by the {@link interpreter.Resolver}.
+         */
+        public boolean counterAssigned = false;
+        /**
+         * How many {@link Expression.Invariant} the step and the body hold.
+         * Filled in by the {@link optimizer.Optimizer}.
+         */
+        public int invariants = 0;
 
         public ForStatement(Token identifier, Expression lower, Expression higher, Expression step, Statement body) {
             this.identifier = identifier;
@@ -118,11 +154,31 @@ public abstract class Statement {
         public final Token identifier;
         public final List<Token> parameters;
         public final Block body;
-
-        public FunctionDeclaration(Token identifier, List<Token> parameters, Block body) {
+        /**
+         * Whether the function was declared <code>pure</code>, which must then be proven.
+         */
+        public final boolean pure;
+        /**
+         * Whether the results of the function are cached.
+         * Filled in by the {@link optimizer.PurityAnalysis}.
+         */
+        public boolean memoize = false;
+        /**
+         * Index of the function inside the current environment.
+         * Filled in by the {@link interpreter.Resolver}.
+         */
+        public int slot = -1;
+        /**
+         * Number of variables (parameters included) living in the environment of a call.
+         * Filled in by the {@link interpreter.Resolver}.
+         */
+        public int slots = 0;
+
+        public FunctionDeclaration(Token identifier, List<Token> parameters, Block body, boolean pure) {
             this.identifier = identifier;
             this.parameters = parameters;
             this.body = body;
+            this.pure = pure;
         }
 
         @Override
@@ -131,6 +187,27 @@ public abstract class Statement {
         }
     }
 
+    /**
+     * This class represents a return statement, only allowed inside functions. <br />
+     * Eg: <code>return a + 1;</code> or <code>return;</code>
+     */
+    public static class ReturnStatement extends Statement {
+        public final Token keyword;
+        /**
+         * The returned value, or <code>null</code> when the function returns <code>NULL</code>.
+         */
+        public final Expression value;
+
+        public ReturnStatement(Token keyword, Expression value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visitReturnStatement(this);
+        }
+    }
 
     public interface Visitor<T> {
         T visitExpressionStatement(ExpressionStatement expressionStatement);
@@ -141,6 +218,7 @@ public abstract class Statement {
         T visitWhileStatement(WhileStatement whileStatement);
         T visitForStatement(ForStatement forStatement);
         T visitFunctionDeclarationStatement(FunctionDeclaration functionDeclarationStatement);
+        T visitReturnStatement(ReturnStatement returnStatement);
     }
 
     public abstract<T> T accept(Visitor<T> visitor);
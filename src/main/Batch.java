@@ -0,0 +1,231 @@
+package main;
+
+import engine.CompiledScript;
+import engine.FunEngine;
+import engine.ScriptException;
+import engine.ScriptResult;
+import scanner.MappedSource;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * Runs many programs in one JVM, for <code>--batch</code>, each on its own virtual thread.
+ * <br />
+ * <br />
+ * The programs are the <code>.fun</code> files of a directory, or the ones listed in a manifest. Each program
+ * gets its own interpreter through the {@link FunEngine}, reads its input from a file (<code>name.in</code> next
+ * to it by default, nothing if there is none), shows its output in another (<code>name.out</code>), and writes
+ * its errors in <code>name.err</code> if it has any. A program which runs for too long is stopped.
+ * <br />
+ * <br />
+ * The status of every program is printed once they are all done, followed by the throughput and the
+ * percentiles of the time each program took.
+ */
+class Batch {
+    /**
+     * How many programs run at once at most, which is also how many files are open for them.
+     */
+    private static final int PARALLELISM = 256;
+
+    /**
+     * A program to run, with where its input comes from (<code>null</code> for nothing) and where its output goes.
+     */
+    record Job(Path script, Path input, Path output) {
+        Path errors() {
+            return sibling(output, ".err");
+        }
+    }
+
+    private enum Status {
+        OK, ERROR, TIMEOUT
+    }
+
+    private record Outcome(Job job, Status status, long nanos) {
+    }
+
+    private final FunEngine engine;
+    private final Duration timeout;
+
+    Batch(FunEngine engine, Duration timeout) {
+        this.engine = engine;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Find the programs to run.
+     *
+     * @param path A directory, whose <code>.fun</code> files are run in the order of their names, or a manifest.
+     *             A manifest has a line per program, <code>script [input [output]]</code>, with paths relative to
+     *             the manifest. Empty lines and lines starting with <code>#</code> are skipped.
+     */
+    static List<Job> jobs(Path path) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.list(path)) {
+                for (Path script : files.filter(file -> file.toString().endsWith(".fun")).sorted().toList()) {
+                    jobs.add(job(script, null, null));
+                }
+            }
+            return jobs;
+        }
+
+        Path directory = path.toAbsolutePath().getParent();
+        for (String line : Files.readAllLines(path)) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            jobs.add(job(directory.resolve(fields[0]),
+                    fields.length > 1 ? directory.resolve(fields[1]) : null,
+                    fields.length > 2 ? directory.resolve(fields[2]) : null));
+        }
+        return jobs;
+    }
+
+    private static Job job(Path script, Path input, Path output) {
+        if (input == null) {
+            Path in = sibling(script, ".in");
+            input = Files.exists(in) ? in : null;
+        }
+        return new Job(script, input, output == null ? sibling(script, ".out") : output);
+    }
+
+    /**
+     * @return The path of the file next to another one, with the same name but another extension.
+     */
+    private static Path sibling(Path path, String extension) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return path.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + extension);
+    }
+
+    /**
+     * Run the programs, and print how it went.
+     *
+     * @return Whether every program ran without errors.
+     */
+    boolean run(List<Job> jobs, PrintStream out) throws InterruptedException {
+        Semaphore running = new Semaphore(PARALLELISM);
+        long start = System.nanoTime();
+        List<Future<Outcome>> futures = new ArrayList<>(jobs.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Job job : jobs) {
+                futures.add(executor.submit(() -> {
+                    running.acquire();
+                    try {
+                        return run(job);
+                    } finally {
+                        running.release();
+                    }
+                }));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        List<Outcome> outcomes = new ArrayList<>(jobs.size());
+        for (Future<Outcome> future : futures) {
+            try {
+                outcomes.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return report(outcomes, elapsed, out);
+    }
+
+    private Outcome run(Job job) {
+        long start = System.nanoTime();
+        List<String> errors;
+        Status status;
+        try {
+            CompiledScript script = engine.compile(MappedSource.map(job.script));
+            try (InputStream input = job.input == null ? InputStream.nullInputStream() : Files.newInputStream(job.input);
+                 OutputStream output = new BufferedOutputStream(Files.newOutputStream(job.output))) {
+                ScriptResult result = script.execute(Map.of(), input, output, timeout);
+                errors = result.getErrors();
+                status = result.isTimedOut() ? Status.TIMEOUT : result.isHadError() ? Status.ERROR : Status.OK;
+            }
+        } catch (ScriptException e) {
+            errors = e.getErrors();
+            status = Status.ERROR;
+        } catch (IOException | RuntimeException e) {
+            errors = List.of("Can't run `" + job.script + "`: " + e.getMessage());
+            status = Status.ERROR;
+        } catch (Throwable e) {
+            // An error of the JVM, like running out of stack or memory, only fails this program, not the batch.
+            errors = List.of("The interpreter crashed on `" + job.script + "`: " + e);
+            status = Status.ERROR;
+        }
+
+        try {
+            if (errors.isEmpty()) {
+                Files.deleteIfExists(job.errors());
+            } else {
+                Files.write(job.errors(), errors.stream().map(Batch::format).toList());
+            }
+        } catch (IOException e) {
+            // The status says there were errors anyway.
+        }
+        return new Outcome(job, status, System.nanoTime() - start);
+    }
+
+    /**
+     * Spell an error the way <code>Main</code> prints it: <code>[line 3] ERROR: ...</code>
+     */
+    private static String format(String error) {
+        if (error.startsWith("[line ")) {
+            int end = error.indexOf("] ") + 2;
+            return error.substring(0, end) + "ERROR: " + error.substring(end);
+        }
+        return "ERROR: " + error;
+    }
+
+    private static boolean report(List<Outcome> outcomes, long elapsed, PrintStream out) {
+        int[] counts = new int[Status.values().length];
+        long[] latencies = new long[outcomes.size()];
+        for (int i = 0; i < outcomes.size(); i++) {
+            Outcome outcome = outcomes.get(i);
+            counts[outcome.status.ordinal()]++;
+            latencies[i] = outcome.nanos;
+            out.printf("%-7s %3d %10.2f ms  %s%n", outcome.status.name().toLowerCase(),
+                    outcome.status == Status.OK ? 0 : 69, outcome.nanos / 1e6, outcome.job.script);
+        }
+        Arrays.sort(latencies);
+
+        double seconds = elapsed / 1e9;
+        out.printf("%d scripts in %.2f s, %.1f scripts/s: %d ok, %d errors, %d timeouts%n", outcomes.size(),
+                seconds, outcomes.size() / seconds, counts[Status.OK.ordinal()], counts[Status.ERROR.ordinal()],
+                counts[Status.TIMEOUT.ordinal()]);
+        if (latencies.length > 0) {
+            out.printf("latency p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms%n", percentile(latencies, 50),
+                    percentile(latencies, 90), percentile(latencies, 99), latencies[latencies.length - 1] / 1e6);
+        }
+        return counts[Status.OK.ordinal()] == outcomes.size();
+    }
+
+    /**
+     * @return The smallest latency which at least <code>percent</code>% of the programs took, in milliseconds.
+     */
+    private static double percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1] / 1e6;
+    }
+}
@@ -1,49 +1,442 @@
 package main;
 
+import engine.FunEngine;
+import interpreter.CompactInterpreter;
+import interpreter.Input;
 import interpreter.Interpreter;
+import interpreter.JitInterpreter;
+import interpreter.MemoCache;
+import interpreter.MeteredInterpreter;
+import interpreter.Metrics;
+import interpreter.Output;
+import interpreter.Profiler;
+import interpreter.ProfilingInterpreter;
+import interpreter.Resolver;
+import interpreter.Sampler;
+import interpreter.SamplingInterpreter;
+import interpreter.ShadowStack;
+import language.CompactEncoder;
 import language.Statement;
+import optimizer.Optimizer;
+import optimizer.PurityAnalysis;
 import parser.Parser;
 import scanner.Lexer;
-import scanner.Token;
+import scanner.MappedSource;
 import util.Message;
+import vm.Chunk;
+import vm.Compiler;
+import vm.VM;
 
+import javax.management.JMException;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.io.PrintStream;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 
 public class Main {
+    private enum Engine {
+        TREE, VM, JIT, COMPACT
+    }
+
+    /**
+     * The options given on the command line.
+     */
+    private static class Options {
+        Engine engine = Engine.TREE;
+        boolean optimize = true;
+        boolean memoize = false;
+        boolean memoStats = false;
+        boolean unbuffered = false;
+        /**
+         * Where to write the collapsed stacks of the profile, <code>null</code> when not profiling.
+         */
+        String profile = null;
+        /**
+         * How many samples to take per second when sampling rather than instrumenting, <code>0</code> when not.
+         */
+        int sampleRate = 0;
+        /**
+         * How often to write the samples taken so far while the program runs, <code>null</code> to only write them
+         * when it stops.
+         */
+        Duration sampleInterval = null;
+        /**
+         * Whether to count what the program does, and publish the counts through JMX.
+         */
+        boolean metrics = false;
+        boolean metricsDump = false;
+        /**
+         * The directory or manifest of the programs to run in one go, <code>null</code> to run a single one.
+         */
+        String batch = null;
+        /**
+         * How long each program of a batch can run.
+         */
+        Duration timeout = DEFAULT_TIMEOUT;
+        /**
+         * Stack size of the thread running the program, in bytes.
+         */
+        long stackSize = DEFAULT_STACK_SIZE;
+    }
+
+    private static final String DEFAULT_PROFILE = "profile.folded";
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(60);
+    /**
+     * Calls which aren't in tail position still nest on the Java stack in the tree-walking interpreter, this allows
+     * about half a million of them for a simple function. It is only reserved memory, pages get used as the recursion
+     * gets deeper.
+     */
+    private static final long DEFAULT_STACK_SIZE = 256L << 20;
+    private static final long MAX_STACK_SIZE = 64L << 30;
+
     public static void main(String[] args) {
-        if (args.length < 1) {
+        String path = null;
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--no-opt")) {
+                options.optimize = false;
+            } else if (arg.equals("--engine=vm")) {
+                options.engine = Engine.VM;
+            } else if (arg.equals("--engine=jit")) {
+                options.engine = Engine.JIT;
+            } else if (arg.equals("--engine=compact")) {
+                options.engine = Engine.COMPACT;
+            } else if (arg.equals("--engine=tree")) {
+                options.engine = Engine.TREE;
+            } else if (arg.equals("--memoize")) {
+                options.memoize = true;
+            } else if (arg.equals("--memo-stats")) {
+                options.memoStats = true;
+            } else if (arg.equals("--unbuffered")) {
+                options.unbuffered = true;
+            } else if (arg.equals("--profile")) {
+                options.profile = DEFAULT_PROFILE;
+            } else if (arg.startsWith("--profile=")) {
+                options.profile = arg.substring("--profile=".length());
+            } else if (arg.equals("--sample")) {
+                options.sampleRate = Sampler.DEFAULT_RATE;
+            } else if (arg.startsWith("--sample=")) {
+                options.sampleRate = parseRate(arg.substring("--sample=".length()));
+            } else if (arg.startsWith("--sample-interval=")) {
+                options.sampleInterval = parseSeconds("sample interval", arg.substring("--sample-interval=".length()));
+            } else if (arg.equals("--metrics")) {
+                options.metrics = true;
+            } else if (arg.equals("--metrics-dump")) {
+                options.metrics = true;
+                options.metricsDump = true;
+            } else if (arg.equals("--batch") && i + 1 < args.length) {
+                options.batch = args[++i];
+            } else if (arg.startsWith("--batch=")) {
+                options.batch = arg.substring("--batch=".length());
+            } else if (arg.startsWith("--timeout=")) {
+                options.timeout = parseSeconds("timeout", arg.substring("--timeout=".length()));
+            } else if (arg.startsWith("--stack-size=")) {
+                options.stackSize = parseSize(arg.substring("--stack-size=".length()));
+            } else if (arg.startsWith("--")) {
+                Message.error("Unknown option `" + arg + "`.");
+                System.exit(69);
+            } else if (path == null) {
+                path = arg;
+            }
+        }
+
+        if (options.batch != null) {
+            batch(options);
+            return;
+        }
+
+        if (path == null) {
             Message.error("No source file specified.");
             System.exit(69);
         }
 
+        if (options.sampleRate > 0 && options.profile == null) {
+            options.profile = DEFAULT_PROFILE;
+        }
+
+        if (options.profile != null && options.engine != Engine.TREE) {
+            Message.error("Profiling only works with the tree-walking interpreter.");
+            System.exit(69);
+        }
+
+        if (options.metrics && options.engine != Engine.TREE) {
+            Message.error("Metrics only work with the tree-walking interpreter.");
+            System.exit(69);
+        }
+
+        if (options.metrics && options.profile != null) {
+            Message.error("Metrics and profiling can't be used together.");
+            System.exit(69);
+        }
+
+        try {
+            CharSequence source = MappedSource.map(Paths.get(path));
+            Thread thread = new Thread(null, () -> runOrExit(source, options), "fun", options.stackSize);
+            thread.start();
+            thread.join();
+        } catch (IOException e) {
+            Message.error("File `" + path + "` not found.");
+            System.exit(69);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run every program of a batch, see {@link Batch}.
+     */
+    private static void batch(Options options) {
+        if (options.engine != Engine.TREE || options.profile != null || options.sampleRate > 0 || options.metrics
+                || options.memoStats || options.unbuffered || options.stackSize != DEFAULT_STACK_SIZE) {
+            Message.error("A batch runs with the tree-walking interpreter and the default stack size, without "
+                    + "profiling, metrics or statistics.");
+            System.exit(69);
+        }
+
+        List<Batch.Job> jobs;
         try {
-            byte[] bytes = Files.readAllBytes(Paths.get(args[0]));
-            String source = new String(bytes, Charset.defaultCharset());
-            run(source);
+            jobs = Batch.jobs(Paths.get(options.batch));
         } catch (IOException e) {
-            Message.error("File `" + args[0] + "` not found.");
+            Message.error("Batch `" + options.batch + "` not found.");
             System.exit(69);
+            return;
+        }
+
+        try {
+            Batch batch = new Batch(new FunEngine(options.optimize, options.memoize), options.timeout);
+            if (!batch.run(jobs, System.out)) {
+                System.exit(69);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private static void run(String source) {
-        Lexer lexer = new Lexer(source);
-        List<Token> tokens = lexer.scanTokens();
+    /**
+     * @param what What the duration is, for the error.
+     */
+    private static Duration parseSeconds(String what, String seconds) {
+        try {
+            double value = Double.parseDouble(seconds);
+            if (value > 0 && value <= 1e9) {
+                return Duration.ofNanos((long) (value * 1e9));
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        Message.error("The " + what + " must be a number of seconds, got `" + seconds + "`.");
+        System.exit(69);
+        return null;
+    }
 
-        Parser parser = new Parser(tokens);
-        List<Statement> statements = parser.parse();
+    private static int parseRate(String rate) {
+        try {
+            int value = Integer.parseInt(rate);
+            if (value > 0 && value <= 1_000_000) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        Message.error("The sampling rate must be a number of samples per second, got `" + rate + "`.");
+        System.exit(69);
+        return 0;
+    }
+
+    /**
+     * @param size A number of bytes, or of kilobytes, megabytes or gigabytes with a <code>k</code>, <code>m</code> or
+     *             <code>g</code> suffix, like <code>-Xss</code>.
+     */
+    private static long parseSize(String size) {
+        String digits = size;
+        int shift = 0;
+        if (!size.isEmpty()) {
+            shift = switch (Character.toLowerCase(size.charAt(size.length() - 1))) {
+                case 'k' -> 10;
+                case 'm' -> 20;
+                case 'g' -> 30;
+                default -> 0;
+            };
+        }
+        if (shift > 0) {
+            digits = size.substring(0, size.length() - 1);
+        }
+        try {
+            long value = Long.parseLong(digits);
+            if (value > 0 && value <= MAX_STACK_SIZE >> shift) {
+                return value << shift;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        Message.error("The stack size must be a number of bytes (with a k, m or g suffix) up to 64g, got `"
+                + size + "`.");
+        System.exit(69);
+        return 0;
+    }
+
+    /**
+     * Run the program on the <code>fun</code> thread, where nothing can reach <code>main</code>: a crash of the
+     * interpreter (like running out of memory) is reported and ends the process with the error status.
+     */
+    private static void runOrExit(CharSequence source, Options options) {
+        try {
+            run(source, options);
+        } catch (Throwable e) {
+            Message.error("The interpreter crashed: " + e);
+            System.exit(69);
+        }
+    }
+
+    private static void run(CharSequence source, Options options) {
+        Parser parser;
+        List<Statement> statements;
+        try {
+            parser = new Parser(new Lexer(source));
+            statements = parser.parse();
+        } catch (Lexer.LexerError e) {
+            System.exit(69);
+            return;
+        }
 
         if (parser.isHadError()) return;
 
-        Interpreter interpreter = new Interpreter();
-        interpreter.interpret(statements);
+        Input input = Input.standard();
+        Output output = Output.standard(options.unbuffered);
+        Profiler profiler = null;
+        Sampler sampler = null;
+        Metrics metrics = null;
+        Interpreter interpreter;
+        if (options.metrics) {
+            metrics = new Metrics();
+            interpreter = new MeteredInterpreter(input, output, metrics);
+            try {
+                metrics.register();
+            } catch (JMException e) {
+                Message.error("Can't publish the metrics through JMX.");
+            }
+        } else if (options.sampleRate > 0) {
+            ShadowStack stack = new ShadowStack();
+            sampler = new Sampler(stack, options.sampleRate);
+            interpreter = new SamplingInterpreter(input, output, stack);
+        } else if (options.profile != null) {
+            profiler = new Profiler();
+            interpreter = new ProfilingInterpreter(input, output, profiler);
+        } else if (options.engine == Engine.JIT) {
+            interpreter = new JitInterpreter(input, output);
+        } else if (options.engine == Engine.COMPACT) {
+            interpreter = new CompactInterpreter(input, output);
+        } else {
+            interpreter = new Interpreter(input, output);
+        }
+        Message.setOutput(interpreter.getOutput());
+        Resolver resolver = new Resolver(interpreter);
+        resolver.resolve(statements);
+
+        if (resolver.isHadError()) {
+            System.exit(69);
+        }
+
+        PurityAnalysis purity = new PurityAnalysis();
+        purity.analyze(statements, options.memoize);
 
-        if (interpreter.isHadError()) {
+        if (purity.isHadError()) {
             System.exit(69);
         }
+
+        if (options.optimize) {
+            statements = new Optimizer().optimize(statements);
+        }
+
+        Thread sampleHook = null;
+        if (sampler != null) {
+            sampleHook = writeSamplesWhileRunning(sampler, options.profile, options.sampleInterval);
+            sampler.start();
+        }
+
+        boolean hadError;
+        if (options.engine == Engine.VM) {
+            Compiler compiler = new Compiler();
+            Chunk script = compiler.compile(statements);
+            if (compiler.isHadError()) {
+                System.exit(69);
+            }
+            VM vm = new VM(interpreter);
+            vm.interpret(script);
+            hadError = vm.isHadError();
+        } else if (interpreter instanceof CompactInterpreter compact) {
+            compact.interpret(new CompactEncoder().encode(statements));
+            hadError = compact.isHadError();
+        } else {
+            interpreter.interpret(statements);
+            hadError = interpreter.isHadError();
+        }
+
+        if (sampler != null) {
+            Runtime.getRuntime().removeShutdownHook(sampleHook);
+            sampler.stop();
+            writeSamples(sampler, options.profile);
+        }
+
+        if (options.memoStats) {
+            for (MemoCache memo : interpreter.getMemoCaches()) {
+                System.err.println("memo `" + memo.getName() + "`: " + memo.getHits() + " hits, "
+                        + memo.getMisses() + " misses, " + memo.getSize() + " entries");
+            }
+        }
+
+        if (profiler != null) {
+            profiler.printFlatProfile(System.err);
+            try (PrintStream stacks = new PrintStream(options.profile)) {
+                profiler.printCollapsedStacks(stacks);
+            } catch (IOException e) {
+                Message.error("Can't write the profile to `" + options.profile + "`.");
+            }
+        }
+
+        if (options.metricsDump) {
+            metrics.print(System.err);
+        }
+
+        if (hadError) {
+            System.exit(69);
+        }
+    }
+
+    /**
+     * Write the samples taken so far every <code>interval</code>, to look at the profile of a program which runs for
+     * a long time, and when the process is stopped before the program ends (like with Ctrl-C).
+     *
+     * @param interval How often to write them, or <code>null</code> not to while the program runs.
+     * @return The shutdown hook, to remove once the program ended.
+     */
+    private static Thread writeSamplesWhileRunning(Sampler sampler, String path, Duration interval) {
+        if (interval != null) {
+            Thread writer = new Thread(() -> {
+                try {
+                    while (true) {
+                        Thread.sleep(interval);
+                        writeSamples(sampler, path);
+                    }
+                } catch (InterruptedException e) {
+                    // Not expected, the thread dies with the process.
+                }
+            }, "fun-sample-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        Thread hook = new Thread(() -> writeSamples(sampler, path), "fun-sample-hook");
+        Runtime.getRuntime().addShutdownHook(hook);
+        return hook;
+    }
+
+    private static void writeSamples(Sampler sampler, String path) {
+        try {
+            sampler.write(path);
+        } catch (IOException e) {
+            Message.error("Can't write the profile to `" + path + "`.");
+        }
     }
 }
@@ -0,0 +1,416 @@
+package optimizer;
+
+import language.Expression;
+import language.Statement;
+import scanner.TokenType;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Simplifies a resolved program before it is run.
+ * <br />
+ * <br />
+ * It folds operators whose operands are literals, strips grouping parenthesis, and removes the branches
+ * of <code>if</code> and <code>while</code> statements whose condition is a constant.
+ * <br />
+ * <br />
+ * Inside loops, the parts of expressions which give the same value at every iteration are wrapped in an
+ * {@link Expression.Invariant}, so that they are evaluated once every time the loop runs. Those are made of
+ * literals, immutable variables declared outside the loop, operators, and calls to the builtins in
+ * {@link PurityAnalysis#PURE_BUILTINS}.
+ * <br />
+ * <br />
+ * The optimizer runs after the {@link interpreter.Resolver}, so that every error it can report is
+ * still reported for dead code. The resolved slots are kept on the nodes which are rebuilt.
+ * Operations which would fail at runtime (like <code>1 / 0</code> or <code>true + 1</code>)
+ * are left alone so that they fail at the same place.
+ */
+public class Optimizer implements Expression.Visitor<Expression>, Statement.Visitor<Statement> {
+    /**
+     * The innermost loop being optimized, <code>null</code> outside loops and in the functions declared inside.
+     */
+    private Loop loop = null;
+
+    private static class Loop {
+        /**
+         * How many environments were created since the loop started, a variable further away lives outside.
+         */
+        int scopes;
+        /**
+         * The variables the loop declares in an environment it doesn't create, like the ones of a body which
+         * isn't a block. They may get another value at every iteration.
+         */
+        final Set<String> declared = new HashSet<>();
+        int invariants = 0;
+
+        Loop(int scopes) {
+            this.scopes = scopes;
+        }
+    }
+
+    /**
+     * Optimize the statements of a program.
+     *
+     * @return The optimized statements, which may be fewer than the original ones.
+     */
+    public List<Statement> optimize(List<Statement> statements) {
+        List<Statement> optimized = new ArrayList<>(statements.size());
+        for (Statement statement : statements) {
+            Statement result = optimize(statement);
+            if (result != null) {
+                optimized.add(result);
+            }
+        }
+        return optimized;
+    }
+
+    /**
+     * @return The optimized statement, or <code>null</code> if it doesn't do anything.
+     */
+    private Statement optimize(Statement statement) {
+        Statement optimized = statement.accept(this);
+        if (optimized != null && optimized.line == 0) {
+            optimized.line = statement.line;
+        }
+        return optimized;
+    }
+
+    private Expression optimize(Expression expression) {
+        return expression.accept(this);
+    }
+
+    /**
+     * Optimize an expression which isn't part of another one, and hoist its invariant parts inside a loop.
+     */
+    private Expression optimizeRoot(Expression expression) {
+        Expression optimized = optimize(expression);
+        return loop == null ? optimized : hoist(optimized);
+    }
+
+    private List<Expression> optimizeExpressions(List<Expression> expressions) {
+        List<Expression> optimized = new ArrayList<>(expressions.size());
+        for (Expression expression : expressions) {
+            optimized.add(optimizeRoot(expression));
+        }
+        return optimized;
+    }
+
+    /**
+     * @return The expression with its largest invariant parts wrapped in an {@link Expression.Invariant}.
+     */
+    private Expression hoist(Expression expression) {
+        if (isInvariant(expression)) {
+            // Literals and variables are as fast to evaluate as an invariant.
+            if (expression instanceof Expression.Literal || expression instanceof Expression.Variable) {
+                return expression;
+            }
+            return new Expression.Invariant(expression, loop.invariants++);
+        }
+        if (expression instanceof Expression.Binary binary) {
+            return new Expression.Binary(hoist(binary.left), binary.operator, hoist(binary.right));
+        }
+        if (expression instanceof Expression.Unary unary) {
+            return new Expression.Unary(unary.operator, hoist(unary.right));
+        }
+        if (expression instanceof Expression.Logical logical) {
+            return new Expression.Logical(hoist(logical.left), logical.operator, hoist(logical.right));
+        }
+        if (expression instanceof Expression.Assignment assignment) {
+            Expression.Assignment hoisted = new Expression.Assignment(assignment.identifier, hoist(assignment.expression));
+            hoisted.depth = assignment.depth;
+            hoisted.slot = assignment.slot;
+            return hoisted;
+        }
+        if (expression instanceof Expression.Call call) {
+            List<Expression> arguments = new ArrayList<>(call.arguments.size());
+            for (Expression argument : call.arguments) {
+                arguments.add(hoist(argument));
+            }
+            return new Expression.Call(call.callee, arguments, call.token);
+        }
+        return expression;
+    }
+
+    /**
+     * @return Whether the expression gives the same value at every iteration of the current loop, and
+     *         evaluating it again makes no difference.
+     */
+    private boolean isInvariant(Expression expression) {
+        if (expression instanceof Expression.Literal) {
+            return true;
+        }
+        if (expression instanceof Expression.Variable variable) {
+            boolean outside = variable.depth < 0 || variable.depth >= loop.scopes;
+            return !variable.mutable && outside && !loop.declared.contains(variable.identifier.lexeme);
+        }
+        if (expression instanceof Expression.Binary binary) {
+            return isInvariant(binary.left) && isInvariant(binary.right);
+        }
+        if (expression instanceof Expression.Unary unary) {
+            return isInvariant(unary.right);
+        }
+        if (expression instanceof Expression.Logical logical) {
+            return isInvariant(logical.left) && isInvariant(logical.right);
+        }
+        if (expression instanceof Expression.Call call) {
+            if (!(call.callee instanceof Expression.Variable callee) || callee.depth >= 0 || callee.mutable
+                    || !PurityAnalysis.PURE_BUILTINS.contains(callee.identifier.lexeme)) {
+                return false;
+            }
+            for (Expression argument : call.arguments) {
+                if (!isInvariant(argument)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Collect the variables a statement of a loop declares outside the environments the loop creates.
+     */
+    private static void collectDeclarations(Statement statement, Set<String> declared) {
+        if (statement instanceof Statement.VariableDeclaration declaration) {
+            declared.add(declaration.identifier.lexeme);
+        } else if (statement instanceof Statement.FunctionDeclaration declaration) {
+            declared.add(declaration.identifier.lexeme);
+        } else if (statement instanceof Statement.IfStatement ifStatement) {
+            collectDeclarations(ifStatement.thenBranch, declared);
+            if (ifStatement.elseBranch != null) {
+                collectDeclarations(ifStatement.elseBranch, declared);
+            }
+        } else if (statement instanceof Statement.WhileStatement whileStatement) {
+            collectDeclarations(whileStatement.body, declared);
+        }
+    }
+
+    /**
+     * Optimize a statement which can't be removed, like the branch of an <code>if</code>.
+     */
+    private Statement optimizeBranch(Statement statement) {
+        Statement optimized = optimize(statement);
+        if (optimized == null) {
+            return new Statement.Block(new ArrayList<>());
+        }
+        return optimized;
+    }
+
+    @Override
+    public Statement visitExpressionStatement(Statement.ExpressionStatement expressionStatement) {
+        return new Statement.ExpressionStatement(optimizeRoot(expressionStatement.expression));
+    }
+
+    @Override
+    public Statement visitPrintStatement(Statement.PrintStatement printStatement) {
+        return new Statement.PrintStatement(optimizeExpressions(printStatement.expressions));
+    }
+
+    @Override
+    public Statement visitVariableDeclarationStatement(Statement.VariableDeclaration variableDeclaration) {
+        Statement.VariableDeclaration optimized = new Statement.VariableDeclaration(
+                variableDeclaration.identifier, optimizeRoot(variableDeclaration.expression), variableDeclaration.mutable);
+        optimized.slot = variableDeclaration.slot;
+        return optimized;
+    }
+
+    @Override
+    public Statement visitBlockStatement(Statement.Block blockStatement) {
+        // The block is kept (even when empty) as it owns the slots of its variables.
+        boolean scoped = loop != null && blockStatement.slots > 0;
+        if (scoped) {
+            loop.scopes++;
+        }
+        blockStatement.statements = optimize(blockStatement.statements);
+        if (scoped) {
+            loop.scopes--;
+        }
+        return blockStatement;
+    }
+
+    @Override
+    public Statement visitIfStatement(Statement.IfStatement ifStatement) {
+        Expression condition = optimizeRoot(ifStatement.condition);
+        if (condition instanceof Expression.Literal literal) {
+            if (truthy(literal.value)) {
+                return optimize(ifStatement.thenBranch);
+            }
+            return ifStatement.elseBranch == null ? null : optimize(ifStatement.elseBranch);
+        }
+        Statement elseBranch = ifStatement.elseBranch == null ? null : optimize(ifStatement.elseBranch);
+        return new Statement.IfStatement(condition, optimizeBranch(ifStatement.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Statement visitWhileStatement(Statement.WhileStatement whileStatement) {
+        Expression condition = optimize(whileStatement.condition);
+        if (condition instanceof Expression.Literal literal && !truthy(literal.value)) {
+            return null;
+        }
+        // The condition and the body run in the environment around the loop.
+        Loop enclosing = loop;
+        loop = new Loop(0);
+        collectDeclarations(whileStatement.body, loop.declared);
+        Statement.WhileStatement optimized = new Statement.WhileStatement(hoist(condition),
+                optimizeBranch(whileStatement.body));
+        optimized.invariants = loop.invariants;
+        loop = enclosing;
+        return optimized;
+    }
+
+    @Override
+    public Statement visitForStatement(Statement.ForStatement forStatement) {
+        Expression lower = optimizeRoot(forStatement.lower);
+        Expression higher = optimizeRoot(forStatement.higher);
+        // The step and the body run in the environment of the counter.
+        Loop enclosing = loop;
+        loop = new Loop(1);
+        Statement.ForStatement optimized = new Statement.ForStatement(forStatement.identifier, lower, higher,
+                optimizeRoot(forStatement.step), optimizeBranch(forStatement.body));
+        optimized.counterRead = forStatement.counterRead;
+        optimized.counterAssigned = forStatement.counterAssigned;
+        optimized.invariants = loop.invariants;
+        loop = enclosing;
+        return optimized;
+    }
+
+    @Override
+    public Statement visitFunctionDeclarationStatement(Statement.FunctionDeclaration functionDeclarationStatement) {
+        // The body of a function runs in its own environments, whether the loop around it is over or not.
+        Loop enclosing = loop;
+        loop = null;
+        visitBlockStatement(functionDeclarationStatement.body);
+        loop = enclosing;
+        return functionDeclarationStatement;
+    }
+
+    @Override
+    public Statement visitReturnStatement(Statement.ReturnStatement returnStatement) {
+        Expression value = returnStatement.value == null ? null : optimizeRoot(returnStatement.value);
+        return new Statement.ReturnStatement(returnStatement.keyword, value);
+    }
+
+    @Override
+    public Expression visitBinaryExpression(Expression.Binary expression) {
+        Expression left = optimize(expression.left);
+        Expression right = optimize(expression.right);
+        if (left instanceof Expression.Literal l && right instanceof Expression.Literal r) {
+            Object value = fold(expression.operator.type, l.value, r.value);
+            if (value != null) {
+                return new Expression.Literal(value);
+            }
+        }
+        return new Expression.Binary(left, expression.operator, right);
+    }
+
+    /**
+     * @return The value of the operation, or <code>null</code> if it must be left for the runtime.
+     */
+    private static Object fold(TokenType operator, Object left, Object right) {
+        if (operator == TokenType.DOUBLE_EQUAL) {
+            if (left == null)
+                return right == null;
+            return left.equals(right);
+        }
+        if (!(left instanceof Double) || !(right instanceof Double)) {
+            return null;
+        }
+        double l = (double) left;
+        double r = (double) right;
+        return switch (operator) {
+            case PLUS -> l + r;
+            case MINUS -> l - r;
+            case STAR -> l * r;
+            case DOUBLE_STAR -> Math.pow(l, r);
+            case SLASH -> r == 0.0 ? null : l / r;
+            case MODULO -> r == 0.0 ? null : l % r;
+            case GREATER -> l > r;
+            case GREATER_EQUAL -> l >= r;
+            case LESS -> l < r;
+            case LESS_EQUAL -> l <= r;
+            default -> null;
+        };
+    }
+
+    @Override
+    public Expression visitUnaryExpression(Expression.Unary expression) {
+        Expression right = optimize(expression.right);
+        if (right instanceof Expression.Literal literal) {
+            if (expression.operator.type == TokenType.MINUS && literal.value instanceof Double value) {
+                return new Expression.Literal(-value);
+            }
+            if (expression.operator.type == TokenType.NOT && literal.value instanceof Boolean value) {
+                return new Expression.Literal(!value);
+            }
+        }
+        return new Expression.Unary(expression.operator, right);
+    }
+
+    @Override
+    public Expression visitLiteralExpression(Expression.Literal expression) {
+        return expression;
+    }
+
+    @Override
+    public Expression visitGetExpression(Expression.Get expression) {
+        return expression;
+    }
+
+    @Override
+    public Expression visitGroupingExpression(Expression.Grouping expression) {
+        return optimize(expression.expression);
+    }
+
+    @Override
+    public Expression visitVariableExpression(Expression.Variable expression) {
+        return expression;
+    }
+
+    @Override
+    public Expression visitAssignmentExpression(Expression.Assignment expression) {
+        Expression.Assignment optimized = new Expression.Assignment(expression.identifier, optimize(expression.expression));
+        optimized.depth = expression.depth;
+        optimized.slot = expression.slot;
+        return optimized;
+    }
+
+    @Override
+    public Expression visitLogicalExpression(Expression.Logical expression) {
+        Expression left = optimize(expression.left);
+        Expression right = optimize(expression.right);
+        if (left instanceof Expression.Literal literal) {
+            // `a or b` is `a` when it is truthy, `b` otherwise (and the other way around for `and`).
+            boolean keepLeft = expression.operator.type == TokenType.OR ? truthy(literal.value) : !truthy(literal.value);
+            return keepLeft ? left : right;
+        }
+        return new Expression.Logical(left, expression.operator, right);
+    }
+
+    @Override
+    public Expression visitCallExpression(Expression.Call expression) {
+        List<Expression> arguments = new ArrayList<>(expression.arguments.size());
+        for (Expression argument : expression.arguments) {
+            arguments.add(optimize(argument));
+        }
+        return new Expression.Call(optimize(expression.callee), arguments, expression.token);
+    }
+
+    @Override
+    public Expression visitInvariantExpression(Expression.Invariant expression) {
+        // Hoisted again by the loop around it.
+        return optimize(expression.expression);
+    }
+
+    private static boolean truthy(Object object) {
+        if (object == null)
+            return false;
+        if (object instanceof Boolean)
+            return (boolean) object;
+        if (object instanceof Double)
+            return (double) object != 0.0;
+        return true;
+    }
+}
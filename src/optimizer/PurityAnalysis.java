@@ -0,0 +1,274 @@
+package optimizer;
+
+import language.Expression;
+import language.Statement;
+import util.Message;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the functions whose result only depends on their arguments, so that it can be memoized.
+ * <br />
+ * <br />
+ * A function is pure when its body doesn't print (<code>show</code>), read the input (<code>get</code>),
+ * assign a global, or read a mutable global, and only calls pure functions. Calls are only understood
+ * when the callee is a builtin or a function declared at the top level, anything else is considered
+ * impure. Functions calling each other (or themselves) are pure unless something else makes them impure.
+ * <br />
+ * <br />
+ * Runs on a resolved program. Functions declared <code>pure</code> which aren't are reported as errors.
+ */
+public class PurityAnalysis {
+    /**
+     * The builtins which always return the same result for the same arguments (so not <code>time</code>).
+     */
+    public static final Set<String> PURE_BUILTINS = Set.of("sin", "cos", "tan", "log", "round");
+
+    private final Map<String, Statement.FunctionDeclaration> globalFunctions = new HashMap<>();
+    private final Set<String> mutableGlobals = new HashSet<>();
+    private final Map<Statement.FunctionDeclaration, Facts> functions = new LinkedHashMap<>();
+    private boolean hadError = false;
+
+    /**
+     * What a function body does, as far as purity is concerned.
+     */
+    private static class Facts {
+        /**
+         * Why the function is impure on its own, or <code>null</code> if it isn't.
+         */
+        String impurity;
+        final Set<String> calledGlobals = new HashSet<>();
+    }
+
+    public boolean isHadError() {
+        return this.hadError;
+    }
+
+    /**
+     * Analyze a program, and mark the functions to memoize with {@link Statement.FunctionDeclaration#memoize}.
+     *
+     * @param memoizeAll Whether to memoize every pure function, not only the ones declared <code>pure</code>.
+     */
+    public void analyze(List<Statement> statements, boolean memoizeAll) {
+        for (Statement statement : statements) {
+            if (statement instanceof Statement.FunctionDeclaration declaration) {
+                globalFunctions.put(declaration.identifier.lexeme, declaration);
+            } else if (statement instanceof Statement.VariableDeclaration declaration && declaration.mutable) {
+                mutableGlobals.add(declaration.identifier.lexeme);
+            }
+        }
+        for (Statement statement : statements) {
+            statement.accept(new Collector(null));
+        }
+
+        // Start from every function being pure, and remove the ones calling impure ones until nothing changes.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Facts facts : functions.values()) {
+                if (facts.impurity != null) continue;
+                for (String name : facts.calledGlobals) {
+                    if (!isPureCallee(name)) {
+                        facts.impurity = "calls `" + name + "` which isn't pure";
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<Statement.FunctionDeclaration, Facts> entry : functions.entrySet()) {
+            Statement.FunctionDeclaration declaration = entry.getKey();
+            String impurity = entry.getValue().impurity;
+            if (declaration.pure && impurity != null) {
+                Message.error(declaration.identifier.line,
+                        "Function `" + declaration.identifier.lexeme + "` is declared pure but it " + impurity + ".");
+                hadError = true;
+            }
+            declaration.memoize = impurity == null && (declaration.pure || memoizeAll);
+        }
+    }
+
+    private boolean isPureCallee(String name) {
+        if (PURE_BUILTINS.contains(name)) {
+            return true;
+        }
+        Statement.FunctionDeclaration declaration = globalFunctions.get(name);
+        return declaration != null && functions.get(declaration).impurity == null;
+    }
+
+    /**
+     * Collects the {@link Facts} of the function being visited, and of the functions declared inside it.
+     */
+    private class Collector implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+        /**
+         * The facts of the function being visited, or <code>null</code> at the top level.
+         */
+        private final Facts facts;
+
+        Collector(Facts facts) {
+            this.facts = facts;
+        }
+
+        private void impure(String reason) {
+            if (facts != null && facts.impurity == null) {
+                facts.impurity = reason;
+            }
+        }
+
+        private void visit(Expression expression) {
+            expression.accept(this);
+        }
+
+        private void visit(Statement statement) {
+            statement.accept(this);
+        }
+
+        @Override
+        public Void visitExpressionStatement(Statement.ExpressionStatement expressionStatement) {
+            visit(expressionStatement.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStatement(Statement.PrintStatement printStatement) {
+            impure("prints");
+            printStatement.expressions.forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableDeclarationStatement(Statement.VariableDeclaration variableDeclaration) {
+            visit(variableDeclaration.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStatement(Statement.Block blockStatement) {
+            blockStatement.statements.forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStatement(Statement.IfStatement ifStatement) {
+            visit(ifStatement.condition);
+            visit(ifStatement.thenBranch);
+            if (ifStatement.elseBranch != null) {
+                visit(ifStatement.elseBranch);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStatement(Statement.WhileStatement whileStatement) {
+            visit(whileStatement.condition);
+            visit(whileStatement.body);
+            return null;
+        }
+
+        @Override
+        public Void visitForStatement(Statement.ForStatement forStatement) {
+            visit(forStatement.lower);
+            visit(forStatement.higher);
+            visit(forStatement.step);
+            visit(forStatement.body);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionDeclarationStatement(Statement.FunctionDeclaration functionDeclarationStatement) {
+            // The body doesn't run here, it is a function of its own.
+            Facts inner = new Facts();
+            functions.put(functionDeclarationStatement, inner);
+            functionDeclarationStatement.body.accept(new Collector(inner));
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStatement(Statement.ReturnStatement returnStatement) {
+            if (returnStatement.value != null) {
+                visit(returnStatement.value);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpression(Expression.Binary expression) {
+            visit(expression.left);
+            visit(expression.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpression(Expression.Unary expression) {
+            visit(expression.right);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpression(Expression.Literal expression) {
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpression(Expression.Get expression) {
+            impure("reads the input");
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpression(Expression.Grouping expression) {
+            visit(expression.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitInvariantExpression(Expression.Invariant expression) {
+            visit(expression.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpression(Expression.Variable expression) {
+            if (expression.depth < 0 && mutableGlobals.contains(expression.identifier.lexeme)) {
+                impure("reads the mutable variable `" + expression.identifier.lexeme + "`");
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitAssignmentExpression(Expression.Assignment expression) {
+            if (expression.depth < 0) {
+                impure("assigns the variable `" + expression.identifier.lexeme + "`");
+            }
+            visit(expression.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpression(Expression.Logical expression) {
+            visit(expression.left);
+            visit(expression.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpression(Expression.Call expression) {
+            if (expression.callee instanceof Expression.Variable variable && variable.depth < 0) {
+                if (facts != null) {
+                    facts.calledGlobals.add(variable.identifier.lexeme);
+                }
+            } else {
+                impure("calls a function which isn't known ahead of time");
+            }
+            visit(expression.callee);
+            expression.arguments.forEach(this::visit);
+            return null;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package parser;
 
 import language.Expression;
 import language.Statement;
+import scanner.Lexer;
 import scanner.Token;
 import scanner.TokenType;
 
@@ -10,16 +11,25 @@ import java.util.List;
 
 import util.Message;
 
+/**
+ * A recursive descent parser, pulling tokens from the {@link Lexer} as it goes.
+ * <br />
+ * <br />
+ * The grammar only needs to look one token ahead, so the parser only keeps the token it is looking at
+ * and the one before it, the tokens already parsed can be collected.
+ */
 public class Parser {
-    private final List<Token> tokens;
-    private int current = 0;
+    private final Lexer lexer;
+    private Token previous;
+    private Token current;
     private boolean hadError = false;
 
     private static class ParserError extends RuntimeException {
     }
 
-    public Parser(List<Token> tokens) {
-        this.tokens = tokens;
+    public Parser(Lexer lexer) {
+        this.lexer = lexer;
+        this.current = lexer.nextToken();
     }
 
     public List<Statement> parse() {
@@ -41,17 +51,28 @@ public class Parser {
     }
 
     private Statement declaration() throws ParserError {
+        int line = peek().line;
+        Statement statement = declarationOrStatement();
+        statement.line = line;
+        return statement;
+    }
+
+    private Statement declarationOrStatement() throws ParserError {
         if (match(TokenType.LET)) {
             return variableDeclaration();
         }
         if (match(TokenType.FN)) {
-            return functionDeclaration();
+            return functionDeclaration(false);
+        }
+        if (match(TokenType.PURE)) {
+            consume(TokenType.FN, "Expected `fn` after `pure`.");
+            return functionDeclaration(true);
         }
 
         return statement();
     }
 
-    private Statement functionDeclaration() throws ParserError {
+    private Statement functionDeclaration(boolean pure) throws ParserError {
         Token identifier = consume(TokenType.IDENTIFIER, "Expected function name.");
         consume(TokenType.LEFT_PAREN, "Expected `(` after function name.");
         List<Token> parameters = new ArrayList<>();
@@ -62,7 +83,7 @@ public class Parser {
         }
         consume(TokenType.RIGHT_PAREN, "Expected `)` after parameters.");
         consume(TokenType.LEFT_CURLY, "Expected `{` before function body.");
-        return new Statement.FunctionDeclaration(identifier, parameters, (Statement.Block) block());
+        return new Statement.FunctionDeclaration(identifier, parameters, (Statement.Block) block(), pure);
     }
 
     private Statement variableDeclaration() throws ParserError {
@@ -79,6 +100,13 @@ public class Parser {
     }
 
     private Statement statement() throws ParserError {
+        int line = peek().line;
+        Statement statement = simpleStatement();
+        statement.line = line;
+        return statement;
+    }
+
+    private Statement simpleStatement() throws ParserError {
         if (match(TokenType.PRINT))
             return printStatement();
         if (match(TokenType.IF))
@@ -87,18 +115,23 @@ public class Parser {
             return whileStatement();
         if (match(TokenType.FOR))
             return forStatement();
+        if (match(TokenType.RETURN))
+            return returnStatement();
         if (match(TokenType.LEFT_CURLY))
             return block();
         return expressionStatement();
     }
 
     private Statement block() throws ParserError {
+        int line = previous().line;
         List<Statement> statements = new ArrayList<>();
         while (!check(TokenType.RIGHT_CURLY) && !isAtEnd()) {
             statements.add(declaration());
         }
         consume(TokenType.RIGHT_CURLY, "Expected '}' after block.");
-        return new Statement.Block(statements);
+        Statement block = new Statement.Block(statements);
+        block.line = line;
+        return block;
     }
 
     private Statement printStatement() throws ParserError {
@@ -145,6 +178,16 @@ public class Parser {
         return new Statement.ForStatement(((Expression.Variable) initializer).identifier, lower, higher, step, block);
     }
 
+    private Statement returnStatement() throws ParserError {
+        Token keyword = previous();
+        Expression value = null;
+        if (!check(TokenType.SEMICOLON)) {
+            value = expression();
+        }
+        consume(TokenType.SEMICOLON, "Expected `;` after return value.");
+        return new Statement.ReturnStatement(keyword, value);
+    }
+
     private Statement expressionStatement() throws ParserError {
         Expression value = expression();
         consume(TokenType.SEMICOLON, "Expected `;` after expression.");
@@ -364,17 +407,19 @@ public class Parser {
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return current;
     }
 
     private Token advance() {
-        if (!isAtEnd())
-            current++;
+        if (!isAtEnd()) {
+            previous = current;
+            current = lexer.nextToken();
+        }
         return previous();
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return previous;
     }
 
     private Token consume(TokenType type, String message) throws ParserError {
@@ -10,10 +10,21 @@ import java.util.Map;
 /**
  * This class is used to perform
  * <a href="https://en.wikipedia.org/wiki/Lexical_analysis">Lexical analysis</a>
+ * <br />
+ * <br />
+ * Tokens are scanned one at a time with {@link #nextToken()}, as the parser asks for them, so the
+ * whole program never exists as a list of tokens. Lexemes don't copy the source either: operators and
+ * punctuation share one constant string per token type, and identifiers and keywords are interned, so
+ * each name is allocated once however many times it appears.
  */
 public class Lexer {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    /**
+     * Thrown on a character which can't start a token, once it was reported. The source can't be parsed then.
+     */
+    public static class LexerError extends RuntimeException {
+    }
+
+    private final CharSequence source;
     private int start = 0;
     private int current = 0;
     private int line = 1;
@@ -41,127 +52,187 @@ public class Lexer {
         keywords.put("get", TokenType.GET);
         keywords.put("NULL", TokenType.NULL);
         keywords.put("fn", TokenType.FN);
+        keywords.put("return", TokenType.RETURN);
+        keywords.put("pure", TokenType.PURE);
+    }
+
+    /**
+     * The lexeme of the tokens which are always spelled the same way, by token type.
+     */
+    private static final String[] fixedLexemes = new String[TokenType.values().length];
+    static {
+        fixedLexemes[TokenType.LEFT_PAREN.ordinal()] = "(";
+        fixedLexemes[TokenType.RIGHT_PAREN.ordinal()] = ")";
+        fixedLexemes[TokenType.PLUS.ordinal()] = "+";
+        fixedLexemes[TokenType.MINUS.ordinal()] = "-";
+        fixedLexemes[TokenType.SEMICOLON.ordinal()] = ";";
+        fixedLexemes[TokenType.SLASH.ordinal()] = "/";
+        fixedLexemes[TokenType.LEFT_CURLY.ordinal()] = "{";
+        fixedLexemes[TokenType.RIGHT_CURLY.ordinal()] = "}";
+        fixedLexemes[TokenType.COMMA.ordinal()] = ",";
+        fixedLexemes[TokenType.MODULO.ordinal()] = "%";
+        fixedLexemes[TokenType.STAR.ordinal()] = "*";
+        fixedLexemes[TokenType.DOUBLE_STAR.ordinal()] = "**";
+        fixedLexemes[TokenType.EQUAL.ordinal()] = "=";
+        fixedLexemes[TokenType.DOUBLE_EQUAL.ordinal()] = "==";
+        fixedLexemes[TokenType.GREATER.ordinal()] = ">";
+        fixedLexemes[TokenType.GREATER_EQUAL.ordinal()] = ">=";
+        fixedLexemes[TokenType.LESS.ordinal()] = "<";
+        fixedLexemes[TokenType.LESS_EQUAL.ordinal()] = "<=";
+        fixedLexemes[TokenType.EOF.ordinal()] = "";
     }
 
-    public Lexer(String source) {
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // The interned names, in an open addressing hash table, with the token type of each one.
+    private String[] names = new String[64];
+    private TokenType[] nameTypes = new TokenType[64];
+    private int nameCount = 0;
+
+    public Lexer(CharSequence source) {
         this.source = source;
+        for (Map.Entry<String, TokenType> keyword : keywords.entrySet()) {
+            String name = keyword.getKey();
+            intern(name, 0, name.length(), keyword.getValue());
+        }
     }
 
     /**
-     * Scan the source code and return a list of tokens.
-     * 
-     * @return A list of tokens.
+     * Scan the whole source code and return a list of tokens.
+     * <br />
+     * <br />
+     * The parser pulls tokens with {@link #nextToken()} instead, this is for tools which need all of them.
+     *
+     * @return A list of tokens, ending with an {@link TokenType#EOF} token.
      *
      * @see Token
      */
     public List<Token> scanTokens() {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while (token.type != TokenType.EOF);
+        return tokens;
+    }
+
+    /**
+     * Scan the next token of the source code, skipping whitespaces and comments.
+     *
+     * @return The next token, or an {@link TokenType#EOF} token once the end of the source is reached
+     *         (and on every call after that).
+     *
+     * @see Token
+     */
+    public Token nextToken() {
         while (!isAtEnd()) {
             start = current;
-            scanToken();
+            Token token = scanToken();
+            if (token != null) {
+                return token;
+            }
         }
-
-        tokens.add(new Token(TokenType.EOF, "", null, line));
-        return tokens;
+        return new Token(TokenType.EOF, fixedLexemes[TokenType.EOF.ordinal()], null, line, current, 0);
     }
 
     /**
      * Scan a single token.
      *
+     * @return The token, or <code>null</code> if only a whitespace or a comment was scanned.
+     *
      * @see Token
      */
-    private void scanToken() {
+    private Token scanToken() {
         char c = advance();
         switch (c) {
             case ' ', '\r', '\t' -> {
-            } // Ignore whitespaces
-            case '\n' -> this.line++;
+                return null; // Ignore whitespaces
+            }
+            case '\n' -> {
+                this.line++;
+                return null;
+            }
 
             // Single width tokens
-            case '(' -> addToken(TokenType.LEFT_PAREN);
-            case ')' -> addToken(TokenType.RIGHT_PAREN);
-            case '+' -> addToken(TokenType.PLUS);
-            case '-' -> addToken(TokenType.MINUS);
-            case ';' -> addToken(TokenType.SEMICOLON);
-            case '/' -> addToken(TokenType.SLASH);
-            case '{' -> addToken(TokenType.LEFT_CURLY);
-            case '}' -> addToken(TokenType.RIGHT_CURLY);
-            case ',' -> addToken(TokenType.COMMA);
-            case '%' -> addToken(TokenType.MODULO);
+            case '(' -> {
+                return token(TokenType.LEFT_PAREN);
+            }
+            case ')' -> {
+                return token(TokenType.RIGHT_PAREN);
+            }
+            case '+' -> {
+                return token(TokenType.PLUS);
+            }
+            case '-' -> {
+                return token(TokenType.MINUS);
+            }
+            case ';' -> {
+                return token(TokenType.SEMICOLON);
+            }
+            case '/' -> {
+                return token(TokenType.SLASH);
+            }
+            case '{' -> {
+                return token(TokenType.LEFT_CURLY);
+            }
+            case '}' -> {
+                return token(TokenType.RIGHT_CURLY);
+            }
+            case ',' -> {
+                return token(TokenType.COMMA);
+            }
+            case '%' -> {
+                return token(TokenType.MODULO);
+            }
 
             case '*' -> {
-                if (peek() == '*') {
-                    advance();
-                    addToken(TokenType.DOUBLE_STAR);
-                } else {
-                    addToken(TokenType.STAR);
-                }
+                return token(match('*') ? TokenType.DOUBLE_STAR : TokenType.STAR);
             }
             case '=' -> {
-                if (peek() == '=') {
-                    advance();
-                    addToken(TokenType.DOUBLE_EQUAL);
-                } else {
-                    addToken(TokenType.EQUAL);
-                }
+                return token(match('=') ? TokenType.DOUBLE_EQUAL : TokenType.EQUAL);
             }
             case '<' -> {
-                if (peek() == '=') {
-                    advance();
-                    addToken(TokenType.LESS_EQUAL);
-                } else {
-                    addToken(TokenType.LESS);
-                }
+                return token(match('=') ? TokenType.LESS_EQUAL : TokenType.LESS);
             }
             case '>' -> {
-                if (peek() == '=') {
-                    advance();
-                    addToken(TokenType.GREATER_EQUAL);
-                } else {
-                    addToken(TokenType.GREATER);
-                }
+                return token(match('=') ? TokenType.GREATER_EQUAL : TokenType.GREATER);
             }
 
             // Comments
             case '#' -> {
                 while (peek() != '\n' && !isAtEnd())
                     advance();
+                return null;
             }
 
             default -> {
                 if (isDigit(c)) {
-                    addNumber();
+                    return number();
                 } else if (isAlpha(c)) {
-                    addIdentifier();
+                    return identifier();
                 } else {
                     Message.error(line, "Unexpected character: " + c);
-                    System.exit(69);
+                    throw new LexerError();
                 }
             }
         }
     }
 
     /**
-     * Add a token to the list of tokens with `null` as the literal value.
-     * 
+     * Make a token which is always spelled the same way, sharing its lexeme.
+     *
      * @param type The type of the token.
      */
-    private void addToken(TokenType type) {
-        addToken(type, null);
+    private Token token(TokenType type) {
+        return new Token(type, fixedLexemes[type.ordinal()], null, line, start, current - start);
     }
 
     /**
-     * Add a token to the list of tokens.
-     * 
-     * @param type    The type of the token.
-     * @param literal The literal value of the token.
-     */
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
-    }
-
-    /**
-     * Add a number token to the list of tokens.
+     * Scan a number token.
      * A number is a string that starts with a digit (0-9),
      * and contains only digits (0-9) and a single period (.).
      * <br />
@@ -171,7 +242,7 @@ public class Lexer {
      *
      * @see TokenType
      */
-    private void addNumber() {
+    private Token number() {
         while (isDigit(peek())) {
             advance();
         }
@@ -181,11 +252,49 @@ public class Lexer {
                 advance();
             }
         }
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        return new Token(TokenType.NUMBER, null, parseNumber(start, current), line, start, current - start);
+    }
+
+    /**
+     * Parse the number between two positions of the source, without copying it when possible.
+     * <br />
+     * <br />
+     * When the digits fit in 15 digits and there are at most 22 of them after the dot, both the digits
+     * (as an integer) and the power of ten are exact doubles, so a single division rounds correctly.
+     * Other numbers go through {@link Double#parseDouble(String)}.
+     */
+    private double parseNumber(int from, int to) {
+        long digits = 0;
+        int count = 0;
+        int decimals = -1;
+        for (int i = from; i < to; i++) {
+            char c = source.charAt(i);
+            if (c == '.') {
+                decimals = 0;
+                continue;
+            }
+            if (digits != 0 || c != '0') {
+                count++;
+            }
+            digits = digits * 10 + (c - '0');
+            if (decimals >= 0) {
+                decimals++;
+            }
+            if (count > 15) {
+                return Double.parseDouble(source.subSequence(from, to).toString());
+            }
+        }
+        if (decimals <= 0) {
+            return digits;
+        }
+        if (decimals >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(source.subSequence(from, to).toString());
+        }
+        return digits / POWERS_OF_TEN[decimals];
     }
 
     /**
-     * Add an identifier token to the list of tokens.
+     * Scan an identifier token.
      * If the identifier is a keyword, the token type will be the keyword type.
      * Otherwise, the token type will be an identifier.
      * <br />
@@ -195,13 +304,87 @@ public class Lexer {
      *
      * @see TokenType
      */
-    private void addIdentifier() {
+    private Token identifier() {
         while (isAlpha(peek()) || isDigit(peek())) {
             advance();
         }
-        String text = source.substring(start, current);
-        TokenType type = keywords.getOrDefault(text, TokenType.IDENTIFIER);
-        addToken(type);
+        int index = intern(source, start, current, TokenType.IDENTIFIER);
+        return new Token(nameTypes[index], names[index], null, line, start, current - start);
+    }
+
+    /**
+     * Find a name in the interned names, adding it if it isn't there yet.
+     *
+     * @param text  The characters holding the name.
+     * @param from  The index of the first character of the name.
+     * @param to    The index after the last character of the name.
+     * @param type  The token type of the name, if it is added.
+     * @return The index of the name in {@link #names}.
+     */
+    private int intern(CharSequence text, int from, int to, TokenType type) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        int mask = names.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while (names[index] != null) {
+            if (names[index].hashCode() == hash && contentEquals(names[index], text, from, to)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+
+        names[index] = text.subSequence(from, to).toString();
+        nameTypes[index] = type;
+        if (++nameCount * 2 > names.length) {
+            grow();
+            return intern(text, from, to, type);
+        }
+        return index;
+    }
+
+    private static boolean contentEquals(String name, CharSequence text, int from, int to) {
+        if (name.length() != to - from) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != text.charAt(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow() {
+        String[] oldNames = names;
+        TokenType[] oldTypes = nameTypes;
+        names = new String[oldNames.length * 2];
+        nameTypes = new TokenType[oldNames.length * 2];
+        int mask = names.length - 1;
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] == null) continue;
+            int hash = oldNames[i].hashCode();
+            int index = (hash ^ (hash >>> 16)) & mask;
+            while (names[index] != null) {
+                index = (index + 1) & mask;
+            }
+            names[index] = oldNames[i];
+            nameTypes[index] = oldTypes[i];
+        }
+    }
+
+    /**
+     * Advance the current pointer if the character at the current position is the expected one.
+     *
+     * @param expected The expected character.
+     * @return True if the character matched and was consumed, false otherwise.
+     */
+    private boolean match(char expected) {
+        if (peek() != expected)
+            return false;
+        current++;
+        return true;
     }
 
     /**
@@ -0,0 +1,116 @@
+package scanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The source code of a file, mapped in memory instead of being read into a string.
+ * <br />
+ * <br />
+ * Characters are indexed by their byte offset in the file, and decoded from UTF-8 only when they are
+ * asked for. The language itself is ASCII: other characters can only appear in comments, which the
+ * lexer skips byte by byte, or as an unexpected character. So {@link #charAt(int)} decodes the
+ * character starting at a byte, and the bytes continuing a character read as
+ * <code>U+FFFD</code> (which the lexer rejects like any other unexpected character).
+ */
+public class MappedSource implements CharSequence {
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final ByteBuffer bytes;
+    private final int offset;
+    private final int length;
+
+    private MappedSource(ByteBuffer bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Map a file in memory.
+     * The mapping stays valid after the file is closed, until the source isn't referenced anymore.
+     *
+     * @param path The path of the file.
+     * @return The source code of the file.
+     * @throws IOException If the file can't be read, or is bigger than 2GB.
+     */
+    public static MappedSource map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File `" + path + "` is too big.");
+            }
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new MappedSource(bytes, 0, (int) size);
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        int b = bytes.get(offset + index);
+        if (b >= 0) {
+            return (char) b;
+        }
+        return decode(offset + index);
+    }
+
+    /**
+     * Decode the character starting at the given position of the buffer, which isn't ASCII.
+     */
+    private char decode(int position) {
+        int b = bytes.get(position) & 0xff;
+        int continuations;
+        int codePoint;
+        if ((b & 0xe0) == 0xc0) {
+            continuations = 1;
+            codePoint = b & 0x1f;
+        } else if ((b & 0xf0) == 0xe0) {
+            continuations = 2;
+            codePoint = b & 0x0f;
+        } else {
+            // A continuation byte, a character outside the BMP (which takes two chars), or an invalid byte.
+            return REPLACEMENT;
+        }
+        if (position - offset + continuations >= length) {
+            return REPLACEMENT;
+        }
+        for (int i = 1; i <= continuations; i++) {
+            int next = bytes.get(position + i) & 0xff;
+            if ((next & 0xc0) != 0x80) {
+                return REPLACEMENT;
+            }
+            codePoint = (codePoint << 6) | (next & 0x3f);
+        }
+        return (char) codePoint;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+        return new MappedSource(bytes, offset + start, end - start);
+    }
+
+    /**
+     * @return The characters of this source, decoded from UTF-8.
+     */
+    @Override
+    public String toString() {
+        byte[] copy = new byte[length];
+        bytes.get(offset, copy);
+        return new String(copy, StandardCharsets.UTF_8);
+    }
+}
@@ -2,15 +2,26 @@ package scanner;
 
 public class Token {
     public final TokenType type;
+    /**
+     * The text of the token, shared between the tokens spelled the same way.
+     * <code>null</code> for numbers, whose value is the literal.
+     */
     public final String lexeme;
     public final Object literal;
     public final int line;
+    /**
+     * Where the token is in the source, the lexer doesn't copy the text of numbers out of it.
+     */
+    public final int offset;
+    public final int length;
 
-    public Token(TokenType type, String lexeme, Object literal, int line) {
+    public Token(TokenType type, String lexeme, Object literal, int line, int offset, int length) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.offset = offset;
+        this.length = length;
     }
 
     public String toString() {
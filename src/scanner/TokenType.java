@@ -11,7 +11,7 @@ public enum TokenType {
     IDENTIFIER, NUMBER,
 
     // Keywords
-    PRINT, LET, MUT, NOT, FN, IF, WHILE, ELSE, RETURN, TRUE, FALSE, AND, OR, FOR, FROM, TO, STEP, GET, NULL,
+    PRINT, LET, MUT, NOT, FN, PURE, IF, WHILE, ELSE, RETURN, TRUE, FALSE, AND, OR, FOR, FROM, TO, STEP, GET, NULL,
 
     EOF
 }
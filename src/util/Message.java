@@ -1,14 +1,46 @@
 package util;
 
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.List;
+
 public class Message {
+    private static final ThreadLocal<Flushable> output = new ThreadLocal<>();
+    private static final ThreadLocal<List<String>> collected = new ThreadLocal<>();
+
+    /**
+     * Set the output the program running on the current thread prints to, which is written out before
+     * an error message, so that the error comes after what was printed before it.
+     * @param output The buffered output of the program, or <code>null</code>.
+     */
+    static public void setOutput(Flushable output) {
+        if (output == null) {
+            Message.output.remove();
+        } else {
+            Message.output.set(output);
+        }
+    }
+
+    /**
+     * Collect the error messages of the current thread in a list rather than printing them,
+     * for a program embedding the interpreter.
+     * @param errors Where to add the messages, or <code>null</code> to print them again.
+     */
+    static public void collect(List<String> errors) {
+        if (errors == null) {
+            collected.remove();
+        } else {
+            collected.set(errors);
+        }
+    }
+
     /**
      * Print an error message including the line number at which it occurred and exit.
      * @param line The line number at which the error occurred.
      * @param message The error message.
      */
     static public void error(int line, String message) {
-        System.err.print("[line " + line + "] ");
-        error(message);
+        report("[line " + line + "] ", message);
     }
 
     /**
@@ -16,6 +48,26 @@ public class Message {
      * @param message The error message.
      */
     static public void error(String message) {
-        System.err.println("ERROR: " + message);
+        report("", message);
+    }
+
+    static private void report(String where, String message) {
+        List<String> errors = collected.get();
+        if (errors != null) {
+            errors.add(where + message);
+            return;
+        }
+        flushOutput();
+        System.err.println(where + "ERROR: " + message);
+    }
+
+    static private void flushOutput() {
+        Flushable output = Message.output.get();
+        if (output == null) return;
+        try {
+            output.flush();
+        } catch (IOException e) {
+            // The error is still worth printing.
+        }
     }
 }
@@ -0,0 +1,106 @@
+package vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The bytecode of a single function (or of the whole script), with its constant pools.
+ *
+ * @see OpCode
+ */
+public class Chunk {
+    final String name;
+    final int arity;
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+    /**
+     * Constants which aren't numbers: names of globals (for errors) and function chunks.
+     */
+    Object[] constants;
+    double[] numbers;
+    /**
+     * The number of registers a frame running this chunk needs, locals and temporaries included.
+     */
+    int registers = 0;
+    /**
+     * The number of global slots used by the program, only set on the chunk of the script.
+     */
+    int globals = 0;
+
+    private final List<Object> constantList = new ArrayList<>();
+    private double[] numberList = new double[8];
+    private int numberCount = 0;
+    private final Map<Double, Integer> numberIndices = new HashMap<>();
+
+    Chunk(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    void write(byte value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = value;
+        lines[count] = line;
+        count++;
+    }
+
+    void writeShort(int value, int line) {
+        write((byte) (value >> 8), line);
+        write((byte) value, line);
+    }
+
+    void writeInt(int value, int line) {
+        writeShort(value >>> 16, line);
+        writeShort(value & 0xffff, line);
+    }
+
+    void patchInt(int offset, int value) {
+        code[offset] = (byte) (value >> 24);
+        code[offset + 1] = (byte) (value >> 16);
+        code[offset + 2] = (byte) (value >> 8);
+        code[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Add a constant which isn't a number to the pool.
+     *
+     * @return The index of the constant.
+     */
+    int addConstant(Object value) {
+        constantList.add(value);
+        return constantList.size() - 1;
+    }
+
+    /**
+     * Add a number to the pool of numbers, reusing the index of an equal one.
+     *
+     * @return The index of the number.
+     */
+    int addNumber(double value) {
+        Integer index = numberIndices.get(value);
+        if (index != null) return index;
+        if (numberCount == numberList.length) {
+            numberList = Arrays.copyOf(numberList, numberCount * 2);
+        }
+        numberList[numberCount] = value;
+        numberIndices.put(value, numberCount);
+        return numberCount++;
+    }
+
+    /**
+     * Trim the buffers once the compiler is done with this chunk.
+     */
+    void finish() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantList.toArray();
+        numbers = Arrays.copyOf(numberList, numberCount);
+    }
+}
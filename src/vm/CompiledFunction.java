@@ -0,0 +1,17 @@
+package vm;
+
+/**
+ * A function value created by the {@link VM} when it runs a function declaration.
+ */
+class CompiledFunction {
+    final Chunk chunk;
+
+    CompiledFunction(Chunk chunk) {
+        this.chunk = chunk;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + chunk.name + ">";
+    }
+}
@@ -0,0 +1,582 @@
+package vm;
+
+import language.Expression;
+import language.Statement;
+import scanner.Token;
+import scanner.TokenType;
+import util.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class compiles a resolved syntax tree into {@link Chunk}s of register based bytecode.
+ * <br />
+ * <br />
+ * Functions don't capture anything, so all the scopes of a function call are flattened
+ * into the registers of a single frame, and the (depth, slot) pairs given by the
+ * {@link interpreter.Resolver} are turned into registers here. Temporaries are allocated
+ * above the locals of the innermost scope and released after every statement.
+ * <br />
+ * <br />
+ * An expression is compiled into a destination register, which it only writes as its last step.
+ * <br />
+ * <br />
+ * A function needing more registers than a <code>src</code> operand can address is reported as an error,
+ * and nothing is compiled.
+ */
+public class Compiler implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+    private static final int NO_REGISTER = -1;
+
+    private Chunk chunk;
+    /**
+     * The first register of every scope currently open in the function being compiled.
+     */
+    private List<Integer> scopes = new ArrayList<>();
+    /**
+     * The end of the registers reserved by the open scopes, temporaries start here.
+     */
+    private int localsEnd = 0;
+    private int nextRegister = 0;
+    /**
+     * The register the expression being visited must write its value to.
+     */
+    private int destination = NO_REGISTER;
+    private int line = 0;
+    private int globals = 0;
+    private boolean hadError = false;
+
+    /**
+     * Thrown once an error was reported, to stop compiling.
+     */
+    private static class CompileError extends RuntimeException {
+        CompileError() {
+            super(null, null, false, false);
+        }
+    }
+
+    public boolean isHadError() {
+        return this.hadError;
+    }
+
+    /**
+     * Compile a resolved program.
+     *
+     * @return The chunk of the top level script, <code>null</code> if the program can't be compiled.
+     */
+    public Chunk compile(List<Statement> statements) {
+        chunk = new Chunk("script", 0);
+        try {
+            for (Statement statement : statements) {
+                compile(statement);
+            }
+            emitReturnNull();
+        } catch (CompileError e) {
+            return null;
+        }
+        chunk.finish();
+        chunk.globals = globals;
+        return chunk;
+    }
+
+    private CompileError error(String message) {
+        Message.error(line, message);
+        hadError = true;
+        return new CompileError();
+    }
+
+    private void compile(Statement statement) {
+        int mark = nextRegister;
+        statement.accept(this);
+        nextRegister = mark;
+    }
+
+    /**
+     * Compile an expression, storing its value in a register.
+     */
+    private void compile(Expression expression, int register) {
+        int enclosing = destination;
+        destination = register;
+        expression.accept(this);
+        destination = enclosing;
+    }
+
+    /**
+     * Compile an expression into something usable as a <code>src</code> operand: a number constant,
+     * the register of a local, or a new temporary.
+     */
+    private int operand(Expression expression) {
+        while (expression instanceof Expression.Grouping grouping) {
+            expression = grouping.expression;
+        }
+        if (expression instanceof Expression.Literal literal && literal.value instanceof Double value) {
+            int index = chunk.addNumber(value);
+            if (index < OpCode.CONSTANT) {
+                return index | OpCode.CONSTANT;
+            }
+        }
+        if (expression instanceof Expression.Variable variable && variable.depth >= 0) {
+            return register(variable.depth, variable.slot);
+        }
+        int register = allocate();
+        compile(expression, register);
+        return register;
+    }
+
+    /**
+     * Compile the left operand of a binary operation, making sure that evaluating the right
+     * operand can't change it afterwards.
+     */
+    private int leftOperand(Expression left, Expression right) {
+        int operand = operand(left);
+        if (operand < localsEnd && assigns(right)) {
+            int register = allocate();
+            emit(OpCode.MOVE, register, operand);
+            return register;
+        }
+        return operand;
+    }
+
+    private static boolean assigns(Expression expression) {
+        if (expression instanceof Expression.Assignment) return true;
+        if (expression instanceof Expression.Binary binary) return assigns(binary.left) || assigns(binary.right);
+        if (expression instanceof Expression.Logical logical) return assigns(logical.left) || assigns(logical.right);
+        if (expression instanceof Expression.Unary unary) return assigns(unary.right);
+        if (expression instanceof Expression.Grouping grouping) return assigns(grouping.expression);
+        if (expression instanceof Expression.Call call) {
+            if (assigns(call.callee)) return true;
+            for (Expression argument : call.arguments) {
+                if (assigns(argument)) return true;
+            }
+        }
+        return false;
+    }
+
+    private int allocate() {
+        int register = nextRegister++;
+        if (register >= OpCode.CONSTANT) {
+            throw tooManyRegisters();
+        }
+        chunk.registers = Math.max(chunk.registers, nextRegister);
+        return register;
+    }
+
+    private CompileError tooManyRegisters() {
+        return error("`" + chunk.name + "` needs more than " + OpCode.CONSTANT
+                + " registers for its variables and temporaries.");
+    }
+
+    private void beginScope(int base, int size) {
+        if (base + size > OpCode.CONSTANT) {
+            throw tooManyRegisters();
+        }
+        scopes.add(base);
+        nextRegister = base + size;
+        localsEnd = nextRegister;
+        chunk.registers = Math.max(chunk.registers, nextRegister);
+    }
+
+    private void endScope() {
+        nextRegister = scopes.remove(scopes.size() - 1);
+        localsEnd = nextRegister;
+    }
+
+    private int global(int slot) {
+        globals = Math.max(globals, slot + 1);
+        return slot;
+    }
+
+    private int register(int depth, int slot) {
+        return scopes.get(scopes.size() - 1 - depth) + slot;
+    }
+
+    private void emit(byte op, int... operands) {
+        chunk.write(op, line);
+        for (int operand : operands) {
+            chunk.writeShort(operand, line);
+        }
+    }
+
+    /**
+     * Emit a 4 bytes wide operand: a global slot or the index of a constant.
+     */
+    private void emitWide(int operand) {
+        chunk.writeInt(operand, line);
+    }
+
+    /**
+     * Emit a jump with an offset to be patched.
+     *
+     * @return The offset of the operand to patch.
+     */
+    private int emitJump(byte op, int... operands) {
+        emit(op, operands);
+        chunk.writeInt(0, line);
+        return chunk.count - 4;
+    }
+
+    private void patchJump(int operand) {
+        chunk.patchInt(operand, chunk.count - operand - 4);
+    }
+
+    private void emitLoop(int start) {
+        emit(OpCode.JUMP);
+        chunk.writeInt(start - chunk.count - 4, line);
+    }
+
+    private void emitReturnNull() {
+        int register = allocate();
+        emit(OpCode.LOAD_NULL, register);
+        emit(OpCode.RETURN, register);
+    }
+
+    /**
+     * Emit the jumps taken when a condition is falsy.
+     *
+     * @return The offsets of the jumps to patch.
+     */
+    private List<Integer> jumpIfFalse(Expression condition) {
+        while (condition instanceof Expression.Grouping grouping) {
+            condition = grouping.expression;
+        }
+        List<Integer> jumps = new ArrayList<>();
+        if (condition instanceof Expression.Binary binary) {
+            byte op = switch (binary.operator.type) {
+                case GREATER -> OpCode.JUMP_IF_NOT_GREATER;
+                case GREATER_EQUAL -> OpCode.JUMP_IF_NOT_GREATER_EQUAL;
+                case LESS -> OpCode.JUMP_IF_NOT_LESS;
+                case LESS_EQUAL -> OpCode.JUMP_IF_NOT_LESS_EQUAL;
+                default -> -1;
+            };
+            if (op != -1) {
+                int left = leftOperand(binary.left, binary.right);
+                int right = operand(binary.right);
+                line = binary.operator.line;
+                jumps.add(emitJump(op, left, right));
+                return jumps;
+            }
+        }
+        if (condition instanceof Expression.Logical logical && logical.operator.type == TokenType.AND) {
+            jumps.addAll(jumpIfFalse(logical.left));
+            jumps.addAll(jumpIfFalse(logical.right));
+            return jumps;
+        }
+        jumps.add(emitJump(OpCode.JUMP_IF_FALSE, operand(condition)));
+        return jumps;
+    }
+
+    @Override
+    public Void visitExpressionStatement(Statement.ExpressionStatement expressionStatement) {
+        if (expressionStatement.expression instanceof Expression.Assignment) {
+            compile(expressionStatement.expression, NO_REGISTER);
+        } else {
+            compile(expressionStatement.expression, allocate());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.PrintStatement printStatement) {
+        int mark = nextRegister;
+        for (Expression expression : printStatement.expressions) {
+            emit(OpCode.PRINT, operand(expression));
+            nextRegister = mark;
+        }
+        emit(OpCode.PRINT_LINE);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableDeclarationStatement(Statement.VariableDeclaration variableDeclaration) {
+        if (scopes.isEmpty()) {
+            int value = operand(variableDeclaration.expression);
+            emit(OpCode.DEFINE_GLOBAL);
+            emitWide(global(variableDeclaration.slot));
+            chunk.writeShort(value, line);
+        } else {
+            // The initializer can't see this variable yet, so it can be written in place.
+            compile(variableDeclaration.expression, register(0, variableDeclaration.slot));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStatement(Statement.Block blockStatement) {
+        // A block which declares nothing has no scope of its own.
+        boolean scoped = blockStatement.slots > 0;
+        if (scoped) {
+            beginScope(nextRegister, blockStatement.slots);
+        }
+        for (Statement statement : blockStatement.statements) {
+            compile(statement);
+        }
+        if (scoped) {
+            endScope();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(Statement.IfStatement ifStatement) {
+        int mark = nextRegister;
+        List<Integer> elseJumps = jumpIfFalse(ifStatement.condition);
+        nextRegister = mark;
+        compile(ifStatement.thenBranch);
+        if (ifStatement.elseBranch == null) {
+            elseJumps.forEach(this::patchJump);
+            return null;
+        }
+        int endJump = emitJump(OpCode.JUMP);
+        elseJumps.forEach(this::patchJump);
+        compile(ifStatement.elseBranch);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.WhileStatement whileStatement) {
+        int mark = nextRegister;
+        int start = chunk.count;
+        List<Integer> exitJumps = jumpIfFalse(whileStatement.condition);
+        nextRegister = mark;
+        compile(whileStatement.body);
+        emitLoop(start);
+        exitJumps.forEach(this::patchJump);
+        return null;
+    }
+
+    @Override
+    public Void visitForStatement(Statement.ForStatement forStatement) {
+        // The loop variable, followed by a hidden register holding the upper bound.
+        int base = allocate();
+        allocate();
+        // The bounds are evaluated outside the scope of the loop.
+        compile(forStatement.lower, base);
+        compile(forStatement.higher, base + 1);
+        beginScope(base, 2);
+        line = forStatement.identifier.line;
+        emit(OpCode.FOR_CHECK, base);
+        int start = chunk.count;
+        compile(forStatement.body);
+        int step = operand(forStatement.step);
+        line = forStatement.identifier.line;
+        emit(OpCode.FOR_STEP, base, step);
+        chunk.writeInt(start - chunk.count - 4, line);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionDeclarationStatement(Statement.FunctionDeclaration functionDeclarationStatement) {
+        Chunk enclosing = chunk;
+        List<Integer> enclosingScopes = scopes;
+        int enclosingLocalsEnd = localsEnd;
+        int enclosingNextRegister = nextRegister;
+
+        chunk = new Chunk(functionDeclarationStatement.identifier.lexeme, functionDeclarationStatement.parameters.size());
+        scopes = new ArrayList<>();
+        line = functionDeclarationStatement.identifier.line;
+        // Parameters come first, the body shares their scope.
+        beginScope(0, functionDeclarationStatement.slots);
+        for (Statement statement : functionDeclarationStatement.body.statements) {
+            compile(statement);
+        }
+        emitReturnNull();
+        chunk.finish();
+        Chunk function = chunk;
+
+        chunk = enclosing;
+        scopes = enclosingScopes;
+        localsEnd = enclosingLocalsEnd;
+        nextRegister = enclosingNextRegister;
+        line = functionDeclarationStatement.identifier.line;
+        int index = chunk.addConstant(function);
+        if (scopes.isEmpty()) {
+            int register = allocate();
+            emit(OpCode.FUNCTION, register);
+            emitWide(index);
+            emit(OpCode.DEFINE_GLOBAL);
+            emitWide(global(functionDeclarationStatement.slot));
+            chunk.writeShort(register, line);
+        } else {
+            emit(OpCode.FUNCTION, register(0, functionDeclarationStatement.slot));
+            emitWide(index);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.ReturnStatement returnStatement) {
+        line = returnStatement.keyword.line;
+        Expression value = returnStatement.value;
+        while (value instanceof Expression.Grouping grouping) {
+            value = grouping.expression;
+        }
+        if (value == null) {
+            emitReturnNull();
+        } else if (value instanceof Expression.Call call) {
+            emitCall(call, allocate(), OpCode.TAIL_CALL);
+        } else {
+            emit(OpCode.RETURN, operand(value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(Expression.Binary expression) {
+        int target = destination;
+        int left = leftOperand(expression.left, expression.right);
+        int right = operand(expression.right);
+        line = expression.operator.line;
+        byte op = switch (expression.operator.type) {
+            case PLUS -> OpCode.ADD;
+            case MINUS -> OpCode.SUBTRACT;
+            case STAR -> OpCode.MULTIPLY;
+            case SLASH -> OpCode.DIVIDE;
+            case MODULO -> OpCode.MODULO;
+            case DOUBLE_STAR -> OpCode.POWER;
+            case DOUBLE_EQUAL -> OpCode.EQUAL;
+            case GREATER -> OpCode.GREATER;
+            case GREATER_EQUAL -> OpCode.GREATER_EQUAL;
+            case LESS -> OpCode.LESS;
+            case LESS_EQUAL -> OpCode.LESS_EQUAL;
+            default -> throw new IllegalStateException("Unknown operator " + expression.operator.lexeme);
+        };
+        emit(op, target, left, right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpression(Expression.Unary expression) {
+        int target = destination;
+        int right = operand(expression.right);
+        line = expression.operator.line;
+        emit(expression.operator.type == TokenType.MINUS ? OpCode.NEGATE : OpCode.NOT, target, right);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpression(Expression.Literal expression) {
+        if (expression.value == null) {
+            emit(OpCode.LOAD_NULL, destination);
+        } else if (expression.value.equals(true)) {
+            emit(OpCode.LOAD_TRUE, destination);
+        } else if (expression.value.equals(false)) {
+            emit(OpCode.LOAD_FALSE, destination);
+        } else {
+            int index = chunk.addNumber((double) expression.value);
+            if (index < OpCode.CONSTANT) {
+                emit(OpCode.MOVE, destination, index | OpCode.CONSTANT);
+            } else {
+                emit(OpCode.LOAD_NUMBER, destination);
+                chunk.writeInt(index, line);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpression(Expression.Get expression) {
+        emit(OpCode.INPUT, destination);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(Expression.Grouping expression) {
+        compile(expression.expression, destination);
+        return null;
+    }
+
+    @Override
+    public Void visitInvariantExpression(Expression.Invariant expression) {
+        // Registers make evaluating it again cheap enough.
+        compile(expression.expression, destination);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpression(Expression.Variable expression) {
+        line = expression.identifier.line;
+        if (expression.depth < 0) {
+            int name = chunk.addConstant(expression.identifier.lexeme);
+            emit(OpCode.GET_GLOBAL, destination);
+            emitWide(global(expression.slot));
+            emitWide(name);
+        } else {
+            int register = register(expression.depth, expression.slot);
+            if (register != destination) {
+                emit(OpCode.MOVE, destination, register);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignmentExpression(Expression.Assignment expression) {
+        int target = destination;
+        if (expression.depth < 0) {
+            int value = operand(expression.expression);
+            line = expression.identifier.line;
+            int name = chunk.addConstant(expression.identifier.lexeme);
+            emit(OpCode.SET_GLOBAL);
+            emitWide(global(expression.slot));
+            chunk.writeShort(value, line);
+            emitWide(name);
+            if (target != NO_REGISTER) {
+                emit(OpCode.MOVE, target, value);
+            }
+        } else {
+            int register = register(expression.depth, expression.slot);
+            compile(expression.expression, register);
+            if (target != NO_REGISTER && target != register) {
+                emit(OpCode.MOVE, target, register);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpression(Expression.Logical expression) {
+        // The left value is written before the right one is evaluated, which must not clobber a local.
+        int target = destination < localsEnd ? allocate() : destination;
+        compile(expression.left, target);
+        byte op = expression.operator.type == TokenType.OR ? OpCode.JUMP_IF_TRUE : OpCode.JUMP_IF_FALSE;
+        int endJump = emitJump(op, target);
+        compile(expression.right, target);
+        patchJump(endJump);
+        if (target != destination) {
+            emit(OpCode.MOVE, destination, target);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpression(Expression.Call expression) {
+        int target = destination;
+        // The arguments must follow the callee, reuse the destination if it is the last temporary.
+        int callee = target >= localsEnd && target == nextRegister - 1 ? target : allocate();
+        emitCall(expression, callee, OpCode.CALL);
+        nextRegister = callee + 1;
+        if (callee != target) {
+            emit(OpCode.MOVE, target, callee);
+        }
+        return null;
+    }
+
+    /**
+     * Emit the callee and the arguments of a call into consecutive registers, followed by the call itself.
+     */
+    private void emitCall(Expression.Call expression, int callee, byte op) {
+        Token token = expression.token;
+        compile(expression.callee, callee);
+        line = token.line;
+        emit(OpCode.CHECK_CALLABLE, callee);
+        for (Expression argument : expression.arguments) {
+            int register = allocate();
+            compile(argument, register);
+            nextRegister = register + 1;
+        }
+        line = token.line;
+        emit(op, callee, expression.arguments.size());
+    }
+}
@@ -0,0 +1,106 @@
+package vm;
+
+/**
+ * The instructions understood by the {@link VM}.
+ * <br />
+ * <br />
+ * Every instruction is a single byte, followed by its operands. Operands are 2 bytes wide,
+ * except for jump offsets, which are relative to the end of the instruction, global slots and indices
+ * into the constants, which are 4 bytes wide.
+ * <br />
+ * <br />
+ * <code>dst</code> and <code>reg</code> operands are registers of the current frame.
+ * <code>src</code> operands are either a register, or a number of the pool of the chunk when
+ * their {@link #CONSTANT} bit is set.
+ */
+final class OpCode {
+    private OpCode() {
+    }
+
+    /**
+     * The bit marking a <code>src</code> operand as an index into the pool of numbers.
+     */
+    static final int CONSTANT = 0x8000;
+
+    /** <code>MOVE dst src</code> */
+    static final byte MOVE = 0;
+    /** <code>LOAD_NUMBER dst index</code>: load a number whose index is too big for a <code>src</code> operand (4 bytes). */
+    static final byte LOAD_NUMBER = 1;
+    /** <code>LOAD_NULL dst</code> */
+    static final byte LOAD_NULL = 2;
+    /** <code>LOAD_TRUE dst</code> */
+    static final byte LOAD_TRUE = 3;
+    /** <code>LOAD_FALSE dst</code> */
+    static final byte LOAD_FALSE = 4;
+
+    /** <code>GET_GLOBAL dst slot name</code>, where <code>name</code> is the index of the name used for errors. */
+    static final byte GET_GLOBAL = 5;
+    /** <code>SET_GLOBAL slot src name</code>: update a global which must already be defined. */
+    static final byte SET_GLOBAL = 6;
+    /** <code>DEFINE_GLOBAL slot src</code> */
+    static final byte DEFINE_GLOBAL = 7;
+
+    /** <code>ADD dst src src</code>, and the same for the other arithmetic and comparison operators. */
+    static final byte ADD = 8;
+    static final byte SUBTRACT = 9;
+    static final byte MULTIPLY = 10;
+    static final byte DIVIDE = 11;
+    static final byte MODULO = 12;
+    static final byte POWER = 13;
+    static final byte EQUAL = 14;
+    static final byte GREATER = 15;
+    static final byte GREATER_EQUAL = 16;
+    static final byte LESS = 17;
+    static final byte LESS_EQUAL = 18;
+    /** <code>NEGATE dst src</code> */
+    static final byte NEGATE = 19;
+    /** <code>NOT dst src</code> */
+    static final byte NOT = 20;
+
+    /** <code>INPUT dst</code>: read a number from the standard input, or <code>NULL</code>. */
+    static final byte INPUT = 21;
+    /** <code>PRINT src</code>: print a value followed by a space. */
+    static final byte PRINT = 22;
+    static final byte PRINT_LINE = 23;
+
+    /** <code>JUMP offset</code> */
+    static final byte JUMP = 24;
+    /** <code>JUMP_IF_FALSE src offset</code> */
+    static final byte JUMP_IF_FALSE = 25;
+    /** <code>JUMP_IF_TRUE src offset</code> */
+    static final byte JUMP_IF_TRUE = 26;
+    /** <code>JUMP_IF_NOT_GREATER src src offset</code>: a comparison followed by a conditional jump. */
+    static final byte JUMP_IF_NOT_GREATER = 27;
+    static final byte JUMP_IF_NOT_GREATER_EQUAL = 28;
+    static final byte JUMP_IF_NOT_LESS = 29;
+    static final byte JUMP_IF_NOT_LESS_EQUAL = 30;
+
+    /** <code>CHECK_CALLABLE reg</code>: fail unless the register holds something which can be called. */
+    static final byte CHECK_CALLABLE = 31;
+    /**
+     * <code>CALL reg count</code>: call the value in <code>reg</code> with the <code>count</code>
+     * arguments in the registers after it. The result is stored in <code>reg</code>.
+     */
+    static final byte CALL = 32;
+    /** <code>RETURN src</code>: drop the frame and store the value in the register of the callee. */
+    static final byte RETURN = 33;
+    /** <code>FUNCTION dst index</code>: create a function from a {@link Chunk} in the constants. */
+    static final byte FUNCTION = 34;
+
+    /**
+     * <code>FOR_CHECK reg</code>: fail unless the loop variable in <code>reg</code>, and the upper bound
+     * in the register after it, are numbers.
+     */
+    static final byte FOR_CHECK = 35;
+    /**
+     * <code>FOR_STEP reg src offset</code>: either advance the loop variable by the step and
+     * jump back to the body, or fall through when the loop is over.
+     */
+    static final byte FOR_STEP = 36;
+
+    /**
+     * <code>TAIL_CALL reg count</code>: like {@link #CALL} followed by a {@link #RETURN}, except that
+     * the frame of the caller is reused by the callee.
+     */
+    static final byte TAIL_CALL = 37;
+}